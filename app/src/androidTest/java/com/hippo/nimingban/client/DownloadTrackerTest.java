@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.client;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DownloadTrackerTest extends TestCase {
+
+    private ThreadPoolExecutor mExecutor;
+    private final AtomicInteger mFinishCount = new AtomicInteger();
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+    private DownloadTracker mTracker;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = new ThreadPoolExecutor(1, 1, 1L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mTracker = new DownloadTracker(mExecutor, new DownloadTracker.Callback() {
+            @Override
+            public void onProgress() {
+            }
+
+            @Override
+            public void onFinish() {
+                mFinishCount.incrementAndGet();
+                mFinished.countDown();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    private static DownloadTracker.Task result(final int result) {
+        return new DownloadTracker.Task() {
+            @Override
+            public int run() {
+                return result;
+            }
+        };
+    }
+
+    private static DownloadTracker.Task blocked(final CountDownLatch started,
+            final CountDownLatch release) {
+        return new DownloadTracker.Task() {
+            @Override
+            public int run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return DownloadTracker.RESULT_FAILED;
+                }
+                return DownloadTracker.RESULT_SAVED;
+            }
+        };
+    }
+
+    public void testCancelDuringEnumerate() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue(mTracker.submit(blocked(started, release)));
+        assertTrue(mTracker.submit(result(DownloadTracker.RESULT_SAVED)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        mTracker.cancel();
+        assertTrue(mTracker.isFinished());
+        assertTrue(mExecutor.isShutdown());
+
+        // Enumeration still running, it must not touch the shutdown executor
+        assertFalse(mTracker.submit(result(DownloadTracker.RESULT_SAVED)));
+        mTracker.onEnumerated();
+
+        release.countDown();
+        assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, mFinishCount.get());
+        assertEquals(2, mTracker.getTotal());
+        // The queued task is dropped
+        assertTrue(mTracker.getFinished() <= 1);
+    }
+
+    public void testCompletionCounting() throws Exception {
+        assertTrue(mTracker.submit(result(DownloadTracker.RESULT_SAVED)));
+        assertTrue(mTracker.submit(result(DownloadTracker.RESULT_SKIPPED)));
+        assertTrue(mTracker.submit(result(DownloadTracker.RESULT_FAILED)));
+
+        // Wait for tasks, the single thread executor runs them in order
+        final CountDownLatch done = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // All tasks done, but it is not finished before enumerated
+        assertEquals(3, mTracker.getFinished());
+        assertFalse(mTracker.isFinished());
+        assertEquals(0, mFinishCount.get());
+
+        mTracker.onEnumerated();
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mFinishCount.get());
+        assertEquals(3, mTracker.getTotal());
+        assertEquals(1, mTracker.getSaved());
+        assertEquals(1, mTracker.getSkipped());
+        assertEquals(1, mTracker.getFailed());
+    }
+
+    public void testFinishAfterLastTask() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue(mTracker.submit(blocked(started, release)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        mTracker.onEnumerated();
+        assertFalse(mTracker.isFinished());
+
+        release.countDown();
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mFinishCount.get());
+        assertEquals(1, mTracker.getSaved());
+        assertFalse(mTracker.submit(result(DownloadTracker.RESULT_SAVED)));
+    }
+}
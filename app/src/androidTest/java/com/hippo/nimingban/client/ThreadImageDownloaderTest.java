@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.client;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.hippo.nimingban.client.ac.ACUrl;
+import com.hippo.nimingban.client.data.ACSite;
+import com.hippo.nimingban.client.data.Site;
+import com.hippo.nimingban.network.NMBHttpClient;
+import com.hippo.nimingban.network.TestServer;
+import com.hippo.unifile.UniFile;
+import com.hippo.yorozuya.FileUtils;
+
+import java.io.File;
+import java.util.List;
+
+public class ThreadImageDownloaderTest extends AndroidTestCase {
+
+    private static final String POST_ID = "100";
+
+    private static final int POOL_SIZE = 2;
+
+    private static final long TIMEOUT = 20000;
+
+    private static final String PAGE_1 = "{\"id\":\"100\",\"img\":\"a\",\"ext\":\".jpg\"," +
+            "\"now\":\"2015-10-01(四)12:00:00\",\"replyCount\":\"4\",\"content\":\"post\"," +
+            "\"replys\":[{\"id\":\"101\",\"img\":\"b\",\"ext\":\".jpg\",\"content\":\"reply\"}," +
+            "{\"id\":\"102\",\"img\":\"c\",\"ext\":\".jpg\",\"content\":\"reply\"}]}";
+    private static final String PAGE_2 = "{\"id\":\"100\",\"replyCount\":\"4\",\"content\":\"post\"," +
+            "\"replys\":[{\"id\":\"103\",\"img\":\"d\",\"ext\":\".jpg\",\"content\":\"reply\"}," +
+            "{\"id\":\"104\",\"img\":\"e\",\"ext\":\".jpg\",\"content\":\"reply\"}]}";
+
+    private static final String IMAGE_PATH = "/Public/Upload/image/";
+
+    private TestServer mApiServer;
+    private TestServer mImageServer;
+    private File mDir;
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mApiServer = new TestServer();
+        mApiServer.setBody(getPath(ACUrl.getPostUrl(POST_ID, 0)), PAGE_1);
+        mApiServer.setBody(getPath(ACUrl.getPostUrl(POST_ID, 1)), PAGE_2);
+        mImageServer = new TestServer();
+        mImageServer.setBody("image");
+
+        mDir = new File(getContext().getCacheDir(), "thread_image_downloader_test");
+        FileUtils.deleteContent(mDir);
+        assertTrue(mDir.isDirectory() || mDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mApiServer.close();
+        mImageServer.close();
+        FileUtils.deleteContent(mDir);
+        super.tearDown();
+    }
+
+    private static String getPath(String url) {
+        return url.substring(ACUrl.HOST.length());
+    }
+
+    private ThreadImageDownloader newDownloader() {
+        ThreadImageDownloader.UrlBuilder urlBuilder = new ThreadImageDownloader.UrlBuilder() {
+            @Override
+            public String getPageUrl(Site site, String postId, int page) {
+                return mApiServer.getUrl(getPath(ACUrl.getPostUrl(postId, page)));
+            }
+
+            @Override
+            public String getImageUrl(String image) {
+                return mImageServer.getUrl(getPath(image));
+            }
+        };
+        return new ThreadImageDownloader(getContext(), ACSite.getInstance(), POST_ID,
+                UniFile.fromFile(mDir), new NMBHttpClient(getContext()), urlBuilder, POOL_SIZE);
+    }
+
+    private static void waitFor(Condition condition) {
+        long start = SystemClock.elapsedRealtime();
+        while (!condition.isMet()) {
+            assertTrue("Timeout", SystemClock.elapsedRealtime() - start < TIMEOUT);
+            SystemClock.sleep(50);
+        }
+    }
+
+    private boolean hasFile(String name) {
+        String[] filenames = mDir.list();
+        if (filenames != null) {
+            for (String filename : filenames) {
+                if (FileUtils.getNameFromFilename(filename).equals(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void testDownloadAllPages() throws Exception {
+        // Saved before, same name as saving in gallery
+        assertTrue(new File(mDir, "ac-102.jpg").createNewFile());
+        // Let downloads overlap
+        mImageServer.setDelay(300);
+
+        final ThreadImageDownloader downloader = newDownloader();
+        downloader.start();
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return downloader.isFinished();
+            }
+        });
+
+        assertEquals(5, downloader.getTotal());
+        assertEquals(4, downloader.getSaved());
+        assertEquals(1, downloader.getSkipped());
+        assertTrue(mImageServer.getMaxActiveCount() <= POOL_SIZE);
+
+        List<String> paths = mImageServer.getRequestPaths();
+        assertEquals(4, paths.size());
+        assertFalse(paths.contains(IMAGE_PATH + "c.jpg"));
+        assertTrue(paths.contains(IMAGE_PATH + "e.jpg"));
+        assertTrue(hasFile("ac-100"));
+        assertTrue(hasFile("ac-104"));
+    }
+
+    public void testCancelStopsRequests() throws Exception {
+        mImageServer.setHang(true);
+
+        final ThreadImageDownloader downloader = newDownloader();
+        downloader.start();
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return mImageServer.getActiveCount() == POOL_SIZE;
+            }
+        });
+
+        downloader.cancel();
+        assertTrue(downloader.isFinished());
+        // The connections in flight are closed
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return mImageServer.getActiveCount() == 0;
+            }
+        });
+
+        // No more image is requested
+        int count = mImageServer.getRequestCount();
+        SystemClock.sleep(500);
+        assertEquals(count, mImageServer.getRequestCount());
+        assertTrue(mImageServer.getMaxActiveCount() <= POOL_SIZE);
+    }
+}
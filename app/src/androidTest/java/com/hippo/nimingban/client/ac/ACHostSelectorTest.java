@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.client.ac;
+
+import android.os.SystemClock;
+
+import com.hippo.httpclient.HttpClient;
+import com.hippo.httpclient.HttpRequest;
+import com.hippo.nimingban.network.TestServer;
+
+import junit.framework.TestCase;
+
+public class ACHostSelectorTest extends TestCase {
+
+    private static final String PATH = "/Api/thread?id=1&page=1";
+
+    private TestServer mFirst;
+    private TestServer mSecond;
+    private ACHostSelector mSelector;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFirst = new TestServer();
+        mFirst.setBody("first");
+        mSecond = new TestServer();
+        mSecond.setBody("second");
+        mSelector = new ACHostSelector(new String[] {mFirst.getHost(), mSecond.getHost()});
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFirst.close();
+        mSecond.close();
+        super.tearDown();
+    }
+
+    public void testFastMirrorIsNotHedged() throws Exception {
+        String result = mSelector.getString(new HttpClient(), new HttpRequest(), mFirst.getUrl(PATH));
+        assertEquals("first", result);
+        assertEquals(1, mFirst.getRequestCount());
+        assertEquals(0, mSecond.getRequestCount());
+    }
+
+    public void testSlowMirrorIsHedged() throws Exception {
+        mFirst.setDelay(20000);
+        long start = SystemClock.elapsedRealtime();
+        String result = mSelector.getString(new HttpClient(), new HttpRequest(), mFirst.getUrl(PATH));
+        long time = SystemClock.elapsedRealtime() - start;
+        assertEquals("second", result);
+        assertEquals(1, mSecond.getRequestCount());
+        // Hedged after the max delay for a host without latency
+        assertTrue(time < 20000);
+    }
+
+    public void testHangingMirrorIsHedged() throws Exception {
+        mFirst.setHang(true);
+        String result = mSelector.getString(new HttpClient(), new HttpRequest(), mFirst.getUrl(PATH));
+        assertEquals("second", result);
+    }
+
+    public void testRouteToFasterMirror() throws Exception {
+        mSelector.onSuccess(mFirst.getHost(), 3000);
+        mSelector.onSuccess(mSecond.getHost(), 100);
+        assertEquals(mSecond.getHost(), mSelector.getHost());
+        assertEquals(mSecond.getUrl(PATH), mSelector.route(mFirst.getUrl(PATH)));
+
+        String result = mSelector.getString(new HttpClient(), new HttpRequest(), mFirst.getUrl(PATH));
+        assertEquals("second", result);
+        assertEquals(0, mFirst.getRequestCount());
+    }
+
+    public void testUrlsAreCanonical() {
+        assertTrue(ACUrl.getPostUrl("1", 0).startsWith(ACUrl.HOST + "/"));
+        assertTrue(ACUrl.getPostListUrl("1", 0).startsWith(ACUrl.HOST + "/"));
+        assertTrue(ACUrl.getReferenceUrl("1").startsWith(ACUrl.HOST + "/"));
+        assertTrue(ACUrl.getFeedUrl("1", 0).startsWith(ACUrl.HOST + "/"));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.network;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.hippo.httpclient.HttpRequest;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NMBHttpClientTest extends AndroidTestCase {
+
+    private static final String PATH = "/test";
+
+    /**
+     * It gets the min read timeout
+     */
+    private static final String FAST_HOST = "127.0.0.1";
+    /**
+     * It gets the default read timeout
+     */
+    private static final String SLOW_HOST = "localhost";
+
+    private TestServer mServer;
+    private NMBHttpClient mHttpClient;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new TestServer();
+        mHttpClient = new NMBHttpClient(getContext());
+
+        AdaptiveTimeouts timeouts = AdaptiveTimeouts.getInstance();
+        for (int i = 0; i < 32; i++) {
+            timeouts.onLatency(FAST_HOST, 10);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        super.tearDown();
+    }
+
+    private long executeForTimeout(String url) throws Exception {
+        HttpRequest request = new HttpRequest();
+        request.setUrl(url);
+        long start = SystemClock.elapsedRealtime();
+        try {
+            mHttpClient.execute(request).getString();
+            fail("No timeout");
+        } catch (SocketTimeoutException e) {
+            // Expected
+        } finally {
+            request.disconnect();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    public void testDelayedResponse() throws Exception {
+        mServer.setBody("delayed");
+        mServer.setDelay(1000);
+        HttpRequest request = new HttpRequest();
+        request.setUrl(mServer.getUrl(FAST_HOST, PATH));
+        try {
+            assertEquals("delayed", mHttpClient.execute(request).getString());
+        } finally {
+            request.disconnect();
+        }
+    }
+
+    public void testDroppedConnection() throws Exception {
+        mServer.setDrop(true);
+        HttpRequest request = new HttpRequest();
+        request.setUrl(mServer.getUrl(FAST_HOST, PATH));
+        try {
+            mHttpClient.execute(request).getString();
+            fail("No error");
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            request.disconnect();
+        }
+    }
+
+    public void testReadTimeoutOfRequestHost() throws Exception {
+        mServer.setHang(true);
+        long time = executeForTimeout(mServer.getUrl(FAST_HOST, PATH));
+        int timeout = AdaptiveTimeouts.getInstance().getReadTimeout(FAST_HOST);
+        assertTrue(timeout < AdaptiveTimeouts.DEFAULT_READ_TIMEOUT);
+        assertTrue(time < AdaptiveTimeouts.DEFAULT_READ_TIMEOUT);
+    }
+
+    public void testConcurrentTimeouts() throws Exception {
+        mServer.setHang(true);
+        final AtomicLong slowTime = new AtomicLong(-1);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    slowTime.set(executeForTimeout(mServer.getUrl(SLOW_HOST, PATH)));
+                } catch (Throwable e) {
+                    slowTime.set(-2);
+                }
+            }
+        };
+        thread.start();
+        // Let the slow one start first
+        SystemClock.sleep(500);
+
+        long fastTime = executeForTimeout(mServer.getUrl(FAST_HOST, PATH));
+        assertTrue(fastTime < AdaptiveTimeouts.DEFAULT_READ_TIMEOUT);
+
+        thread.join(3 * AdaptiveTimeouts.DEFAULT_READ_TIMEOUT);
+        // The fast timeout of the other request must not cut it short
+        assertTrue(slowTime.get() >= AdaptiveTimeouts.DEFAULT_READ_TIMEOUT - 1000);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.network;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local http server for tests. Each connection gets one response
+ * after the delay, or nothing if it hangs or drops.
+ */
+public class TestServer {
+
+    private final ServerSocket mServerSocket;
+    private final List<Socket> mSockets = new ArrayList<>();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final List<String> mPaths = new ArrayList<>();
+    private final Map<String, String> mBodies = new HashMap<>();
+    private final AtomicInteger mActiveCount = new AtomicInteger();
+    private final AtomicInteger mMaxActiveCount = new AtomicInteger();
+
+    private volatile String mBody = "";
+    private volatile long mDelay;
+    private volatile boolean mHang;
+    private volatile boolean mDrop;
+
+    public TestServer() throws IOException {
+        // Any address, so both 127.0.0.1 and localhost reach it
+        mServerSocket = new ServerSocket(0);
+        new Thread("TestServer") {
+            @Override
+            public void run() {
+                accept();
+            }
+        }.start();
+    }
+
+    /**
+     * @return host and port
+     */
+    public String getHost() {
+        return "127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    public String getUrl(String path) {
+        return "http://" + getHost() + path;
+    }
+
+    /**
+     * @param host the host without port
+     */
+    public String getUrl(String host, String path) {
+        return "http://" + host + ":" + mServerSocket.getLocalPort() + path;
+    }
+
+    public void setBody(String body) {
+        mBody = body;
+    }
+
+    /**
+     * @param path the path with query
+     */
+    public void setBody(String path, String body) {
+        synchronized (mBodies) {
+            mBodies.put(path, body);
+        }
+    }
+
+    /**
+     * Wait before sending the response header
+     */
+    public void setDelay(long delay) {
+        mDelay = delay;
+    }
+
+    /**
+     * Never send response, the connection is kept until close
+     */
+    public void setHang(boolean hang) {
+        mHang = hang;
+    }
+
+    /**
+     * Close the connection without response
+     */
+    public void setDrop(boolean drop) {
+        mDrop = drop;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return the paths with query of all requests
+     */
+    public List<String> getRequestPaths() {
+        synchronized (mPaths) {
+            return new ArrayList<>(mPaths);
+        }
+    }
+
+    /**
+     * @return the count of requests not responded or closed yet
+     */
+    public int getActiveCount() {
+        return mActiveCount.get();
+    }
+
+    /**
+     * @return the max count of active requests at the same time
+     */
+    public int getMaxActiveCount() {
+        return mMaxActiveCount.get();
+    }
+
+    public void close() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            mSockets.clear();
+        }
+    }
+
+    private void accept() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            synchronized (mSockets) {
+                mSockets.add(socket);
+            }
+            new Thread("TestServer-Connection") {
+                @Override
+                public void run() {
+                    try {
+                        handle(socket);
+                    } catch (Exception e) {
+                        // Closed
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Ignore
+                        }
+                    }
+                }
+            }.start();
+        }
+    }
+
+    private void handle(Socket socket) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        // Like GET /path HTTP/1.1
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        String[] parts = requestLine.split(" ");
+        String path = parts.length > 1 ? parts[1] : "";
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            // Skip request header
+        }
+        mRequestCount.incrementAndGet();
+        synchronized (mPaths) {
+            mPaths.add(path);
+        }
+
+        int active = mActiveCount.incrementAndGet();
+        for (;;) {
+            int max = mMaxActiveCount.get();
+            if (active <= max || mMaxActiveCount.compareAndSet(max, active)) {
+                break;
+            }
+        }
+        try {
+            respond(socket, path);
+        } finally {
+            mActiveCount.decrementAndGet();
+        }
+    }
+
+    private void respond(Socket socket, String path) throws Exception {
+        if (mDrop) {
+            return;
+        }
+        if (mHang) {
+            // Wait for close
+            while (socket.getInputStream().read() != -1) {
+                // Ignore
+            }
+            return;
+        }
+        if (mDelay > 0) {
+            Thread.sleep(mDelay);
+        }
+
+        String bodyString;
+        synchronized (mBodies) {
+            bodyString = mBodies.get(path);
+        }
+        if (bodyString == null) {
+            bodyString = mBody;
+        }
+        byte[] body = bodyString.getBytes("UTF-8");
+        OutputStream os = socket.getOutputStream();
+        os.write(("HTTP/1.1 200 OK\r\n" +
+                "Content-Type: text/plain; charset=utf-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: close\r\n\r\n").getBytes("UTF-8"));
+        os.write(body);
+        os.flush();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+
+import com.hippo.conaco.Conaco;
+import com.hippo.conaco.ConacoTask;
+import com.hippo.conaco.DrawableHolder;
+import com.hippo.conaco.Unikery;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ImageTaskQueueTest extends TestCase {
+
+    private static final int MAX_RUNNING = 6;
+
+    private ImageTaskQueue mQueue;
+
+    /**
+     * Builders of the clients with the image in memory cache
+     */
+    private final Map<ConacoTask.Builder, TestClient> mCached = new HashMap<>();
+    /**
+     * Builders sent to loader and never answered, like hanging network
+     */
+    private final List<ConacoTask.Builder> mHanging = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mQueue = new ImageTaskQueue(new ImageTaskQueue.Loader() {
+            @Override
+            public void load(ConacoTask.Builder builder) {
+                TestClient client = mCached.get(builder);
+                if (client != null) {
+                    // Memory cache hit is answered in load, like Conaco
+                    client.mBound = true;
+                    mQueue.finish(client);
+                } else {
+                    mHanging.add(builder);
+                }
+            }
+
+            @Override
+            public void cancel(Unikery unikery) {
+            }
+        });
+        mQueue.setMaxRunning(MAX_RUNNING);
+    }
+
+    private void fillRunning() {
+        for (int i = 0; i < MAX_RUNNING; i++) {
+            mQueue.load(new TestClient(), new ConacoTask.Builder());
+        }
+        assertEquals(MAX_RUNNING, mQueue.getRunningCount());
+        assertEquals(MAX_RUNNING, mHanging.size());
+    }
+
+    public void testMemoryCacheHitBindsWhileNetworkHangs() {
+        fillRunning();
+
+        // One more network task must wait
+        mQueue.load(new TestClient(), new ConacoTask.Builder());
+        assertEquals(1, mQueue.getPendingCount());
+
+        TestClient client = new TestClient();
+        ConacoTask.Builder builder = new ConacoTask.Builder();
+        mCached.put(builder, client);
+        mQueue.loadFromCache(client, builder);
+
+        assertTrue(client.mBound);
+        assertEquals(MAX_RUNNING, mQueue.getRunningCount());
+        assertEquals(1, mQueue.getPendingCount());
+    }
+
+    public void testCacheMissWaitsForNetworkSlot() {
+        fillRunning();
+
+        TestClient client = new TestClient();
+        mQueue.loadFromCache(client, new ConacoTask.Builder());
+        assertEquals(MAX_RUNNING + 1, mHanging.size());
+        assertEquals(0, mQueue.getPendingCount());
+
+        // Cache misses, then it goes to network
+        mQueue.finish(client);
+        assertEquals(MAX_RUNNING, mQueue.getRunningCount());
+        mQueue.load(client, new ConacoTask.Builder());
+        assertEquals(1, mQueue.getPendingCount());
+        assertFalse(client.mBound);
+    }
+
+    public void testCancelCacheTaskKeepsRunning() {
+        fillRunning();
+
+        TestClient client = new TestClient();
+        mQueue.loadFromCache(client, new ConacoTask.Builder());
+        mQueue.cancel(client);
+        assertEquals(MAX_RUNNING, mQueue.getRunningCount());
+        assertEquals(0, mQueue.getPendingCount());
+    }
+
+    private static class TestClient implements ImageTaskQueue.Client {
+
+        private int mTaskId = Unikery.INVAILD_ID;
+        private boolean mBound;
+
+        @Override
+        public int getImagePriority() {
+            return ImageTaskQueue.PRIORITY_ON_SCREEN;
+        }
+
+        @Override
+        public void setTaskId(int id) {
+            mTaskId = id;
+        }
+
+        @Override
+        public int getTaskId() {
+            return mTaskId;
+        }
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onRequest() {
+        }
+
+        @Override
+        public void onProgress(long singleReceivedSize, long receivedSize, long totalSize) {
+        }
+
+        @Override
+        public boolean onGetDrawable(@NonNull DrawableHolder holder, Conaco.Source source) {
+            return false;
+        }
+
+        @Override
+        public void onSetDrawable(Drawable drawable) {
+        }
+
+        @Override
+        public void onFailure() {
+        }
+
+        @Override
+        public void onCancel() {
+        }
+    }
+}
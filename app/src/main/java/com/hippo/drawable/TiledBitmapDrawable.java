@@ -41,6 +41,8 @@ public class TiledBitmapDrawable extends Drawable {
 
     private static final int TILE_SIZE = 256;
 
+    private static final int DEFAULT_BUDGET_SIDE = 1536;
+
     private List<Tile> mTiles;
     private int mWidth;
     private int mHeight;
@@ -123,6 +125,13 @@ public class TiledBitmapDrawable extends Drawable {
     }
 
     public static TiledBitmapDrawable from(InputStream is, int width, int height, BitmapPool pool) {
+        return from(is, width, height, pool, DEFAULT_BUDGET_SIDE);
+    }
+
+    /**
+     * @param budgetSide the image is scaled down to keep pixels in budgetSide * budgetSide
+     */
+    public static TiledBitmapDrawable from(InputStream is, int width, int height, BitmapPool pool, int budgetSide) {
         List<Tile> tiles = new ArrayList<>();
 
         int scale;
@@ -130,7 +139,7 @@ public class TiledBitmapDrawable extends Drawable {
             // It might be slender image, keep it
             scale = 1;
         } else {
-            scale = MathUtils.previousPowerOf2(Math.max((width * height / 1536 / 1536) + 1, 1));
+            scale = MathUtils.previousPowerOf2(Math.max((width * height / budgetSide / budgetSide) + 1, 1));
         }
 
         final BitmapFactory.Options options = new BitmapFactory.Options();
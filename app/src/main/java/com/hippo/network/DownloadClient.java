@@ -38,6 +38,15 @@ import java.net.URL;
 
 public class DownloadClient {
 
+    private static OnTransferListener sOnTransferListener;
+
+    /**
+     * Get size and time of all transfers
+     */
+    public static void setOnTransferListener(OnTransferListener listener) {
+        sOnTransferListener = listener;
+    }
+
     private static long transferData(InputStream in, OutputStream out, OnDownloadListener listener)
             throws Exception {
         final byte data[] = new byte[1024 * 4];
@@ -160,7 +169,12 @@ public class DownloadClient {
                 listener.onConnect(contentLength);
             }
 
+            long start = System.currentTimeMillis();
             long receivedSize = transferData(httpResponse.getInputStream(), osPipe.open(), listener);
+            OnTransferListener transferListener = sOnTransferListener;
+            if (transferListener != null) {
+                transferListener.onTransfer(receivedSize, System.currentTimeMillis() - start);
+            }
 
             if (contentLength > 0 && contentLength != receivedSize) {
                 throw new IOException("contentLength is " + contentLength + ", but receivedSize is " + receivedSize);
@@ -223,6 +237,11 @@ public class DownloadClient {
         }
     }
 
+    public interface OnTransferListener {
+
+        void onTransfer(long bytes, long millis);
+    }
+
     public interface OnDownloadListener {
 
         void onStartDownloading();
@@ -20,7 +20,7 @@ import android.content.Context;
 import android.os.Environment;
 import android.support.annotation.Nullable;
 
-import com.hippo.nimingban.util.Settings;
+import com.hippo.nimingban.network.NetworkQualityEstimator;
 import com.hippo.yorozuya.FileUtils;
 
 import java.io.File;
@@ -34,6 +34,7 @@ public class NMBAppConfig {
     private static final String IMAGE_DIRNAME = "image";
     private static final String COOKIES_DIRNAME = "cookies";
     private static final String PHOTO_DIRNAME = "photo";
+    private static final String PERF_DIRNAME = "perf";
 
     private static Context sContext;
 
@@ -105,6 +106,10 @@ public class NMBAppConfig {
         return getDirInAppDir(PHOTO_DIRNAME);
     }
 
+    public static @Nullable File getPerfDir() {
+        return getDirInAppDir(PERF_DIRNAME);
+    }
+
     public static @Nullable File getTempDir() {
         File temp = new File(sContext.getCacheDir(), "temp");
         if (FileUtils.ensureDirectory(temp)) {
@@ -127,14 +132,7 @@ public class NMBAppConfig {
     }
 
     public static boolean needloadImage(Context context) {
-        switch (Settings.getImageLoadingStrategy()) {
-            case Settings.IMAGE_LOADING_STRATEGY_ALL:
-                return true;
-            case Settings.IMAGE_LOADING_STRATEGY_WIFI:
-                return NMBApplication.isConnectedWifi(context);
-            default:
-            case Settings.IMAGE_LOADING_STRATEGY_NO:
-                return false;
-        }
+        return NetworkQualityEstimator.getInstance().getImageDecision(context) ==
+                NetworkQualityEstimator.IMAGE_LOAD;
     }
 }
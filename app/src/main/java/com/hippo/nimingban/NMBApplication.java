@@ -19,18 +19,32 @@ package com.hippo.nimingban;
 import android.app.ActivityManager;
 import android.app.Application;
 import android.content.Context;
+import android.os.AsyncTask;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.hippo.conaco.Conaco;
 import com.hippo.nimingban.client.NMBClient;
+import com.hippo.nimingban.client.ac.ACHostSelector;
+import com.hippo.nimingban.network.ConnectionWarmer;
 import com.hippo.nimingban.network.HttpCookieDB;
 import com.hippo.nimingban.network.NMBHttpClient;
+import com.hippo.nimingban.network.NetworkQualityEstimator;
 import com.hippo.nimingban.network.SimpleCookieStore;
 import com.hippo.nimingban.util.Crash;
 import com.hippo.nimingban.util.DB;
+import com.hippo.nimingban.util.DeviceProfile;
+import com.hippo.nimingban.util.FrameStats;
+import com.hippo.nimingban.util.HeapStats;
 import com.hippo.nimingban.util.ReadableTime;
 import com.hippo.nimingban.util.Settings;
+import com.hippo.nimingban.widget.AshmemThumbStore;
+import com.hippo.nimingban.widget.DiskCacheTiers;
+import com.hippo.nimingban.widget.GifPlaybackGovernor;
+import com.hippo.nimingban.widget.ImageDiskCache;
+import com.hippo.nimingban.widget.ImageTaskQueue;
 import com.hippo.nimingban.widget.SimpleDrawableHelper;
+import com.hippo.network.DownloadClient;
 import com.hippo.util.NetworkUtils;
 import com.hippo.yorozuya.FileUtils;
 import com.hippo.yorozuya.Messenger;
@@ -49,7 +63,12 @@ public final class NMBApplication extends Application
     private NMBHttpClient mNMBHttpClient;
     private NMBClient mNMBClient;
     private Conaco mConaco;
+    private ImageTaskQueue mImageTaskQueue;
     private SimpleDrawableHelper mDrawableHelper;
+    private ImageDiskCache mThumbDiskCache;
+    private boolean mUseAshmemThumbStore;
+    private AshmemThumbStore mAshmemThumbStore;
+    private GifPlaybackGovernor mGifPlaybackGovernor;
 
     private boolean mConnectedWifi;
 
@@ -69,6 +88,12 @@ public final class NMBApplication extends Application
             Say.initSayFile(logFile);
         }
         Settings.initialize(this);
+        DeviceProfile.initialize(this);
+        DiskCacheTiers.initialize(this);
+        // Keep it in the whole process
+        mUseAshmemThumbStore = Settings.getAshmemThumbStore();
+        HeapStats.initialize(this, mUseAshmemThumbStore);
+        FrameStats.setEnabled(Settings.getFrameStats());
         DB.initialize(this);
         HttpCookieDB.initialize(this);
         ReadableTime.initialize(this);
@@ -79,6 +104,14 @@ public final class NMBApplication extends Application
         FileUtils.deleteContent(NMBAppConfig.getTempDir());
 
         updateNetworkState(this);
+        ACHostSelector.getInstance().probe();
+        ConnectionWarmer.getInstance().warm(ACHostSelector.getInstance().getHost());
+        DownloadClient.setOnTransferListener(new DownloadClient.OnTransferListener() {
+            @Override
+            public void onTransfer(long bytes, long millis) {
+                NetworkQualityEstimator.getInstance().onTransfer(bytes, millis);
+            }
+        });
 
         // Theme
         setTheme(Settings.getDarkTheme() ? R.style.AppTheme_Dark : R.style.AppTheme);
@@ -103,6 +136,9 @@ public final class NMBApplication extends Application
                 mConaco.clearMemoryCache();
             }
         }
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL && mAshmemThumbStore != null) {
+            mAshmemThumbStore.trimToHalf();
+        }
     }
 
     public static boolean hasInitTCAgent(Context context) {
@@ -110,8 +146,10 @@ public final class NMBApplication extends Application
     }
 
     public static void updateNetworkState(Context context) {
-        ((NMBApplication) context.getApplicationContext()).mConnectedWifi =
-                NetworkUtils.isConnectedWifi(context);
+        boolean wifi = NetworkUtils.isConnectedWifi(context);
+        ((NMBApplication) context.getApplicationContext()).mConnectedWifi = wifi;
+        NetworkQualityEstimator.getInstance().reset(wifi);
+        ConnectionWarmer.getInstance().reset();
     }
 
     public static boolean isConnectedWifi(Context context) {
@@ -144,11 +182,11 @@ public final class NMBApplication extends Application
         return application.mNMBClient;
     }
 
-    private static int getMemoryCacheMaxSize(Context context) {
+    private static long getGifMemoryBudget(Context context) {
         final ActivityManager activityManager = (ActivityManager) context.
                 getSystemService(Context.ACTIVITY_SERVICE);
-        return Math.min(20 * 1024 * 1024,
-                Math.round(0.2f * activityManager.getMemoryClass() * 1024 * 1024));
+        return Math.min(32 * 1024 * 1024,
+                Math.round(0.15f * activityManager.getMemoryClass() * 1024 * 1024));
     }
 
     @NonNull
@@ -157,10 +195,12 @@ public final class NMBApplication extends Application
         if (application.mConaco == null) {
             Conaco.Builder builder = new Conaco.Builder();
             builder.hasMemoryCache = true;
-            builder.memoryCacheMaxSize = getMemoryCacheMaxSize(context);
+            // Encoded thumbnails in ashmem take the place of some decoded ones
+            builder.memoryCacheMaxSize = application.mUseAshmemThumbStore ?
+                    DeviceProfile.getMemoryCacheSize() / 2 : DeviceProfile.getMemoryCacheSize();
             builder.hasDiskCache = true;
-            builder.diskCacheDir = new File(context.getCacheDir(), "thumb");
-            builder.diskCacheMaxSize = 80 * 1024 * 1024; // 80MB
+            builder.diskCacheDir = new File(context.getCacheDir(), DiskCacheTiers.IMAGE_DIR);
+            builder.diskCacheMaxSize = DiskCacheTiers.getImageSize();
             builder.httpClient = getNMBHttpClient(context);
             builder.drawableHelper = getSimpleDrawableHelper(context);
             application.mConaco = builder.build();
@@ -168,6 +208,54 @@ public final class NMBApplication extends Application
         return application.mConaco;
     }
 
+    @NonNull
+    public static ImageTaskQueue getImageTaskQueue(@NonNull Context context) {
+        NMBApplication application = ((NMBApplication) context.getApplicationContext());
+        if (application.mImageTaskQueue == null) {
+            application.mImageTaskQueue = new ImageTaskQueue(getConaco(context));
+        }
+        return application.mImageTaskQueue;
+    }
+
+    @NonNull
+    public static ImageDiskCache getThumbDiskCache(@NonNull Context context) {
+        NMBApplication application = ((NMBApplication) context.getApplicationContext());
+        if (application.mThumbDiskCache == null) {
+            final ImageDiskCache cache = new ImageDiskCache(
+                    new File(context.getCacheDir(), DiskCacheTiers.THUMB_DIR),
+                    DiskCacheTiers.getThumbSize(), DiskCacheTiers.THUMB_MAX_AGE);
+            application.mThumbDiskCache = cache;
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    cache.trimStale();
+                }
+            });
+        }
+        return application.mThumbDiskCache;
+    }
+
+    /**
+     * @return null if it is not enabled
+     */
+    @Nullable
+    public static AshmemThumbStore getAshmemThumbStore(@NonNull Context context) {
+        NMBApplication application = ((NMBApplication) context.getApplicationContext());
+        if (application.mUseAshmemThumbStore && application.mAshmemThumbStore == null) {
+            application.mAshmemThumbStore = new AshmemThumbStore(DeviceProfile.getAshmemThumbStoreSize());
+        }
+        return application.mAshmemThumbStore;
+    }
+
+    @NonNull
+    public static GifPlaybackGovernor getGifPlaybackGovernor(@NonNull Context context) {
+        NMBApplication application = ((NMBApplication) context.getApplicationContext());
+        if (application.mGifPlaybackGovernor == null) {
+            application.mGifPlaybackGovernor = new GifPlaybackGovernor(getGifMemoryBudget(context));
+        }
+        return application.mGifPlaybackGovernor;
+    }
+
     @NonNull
     public static SimpleDrawableHelper getSimpleDrawableHelper(@NonNull Context context) {
         NMBApplication application = ((NMBApplication) context.getApplicationContext());
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.client;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Run download tasks in a executor and count the results. Tasks are
+ * added while enumerating, it is finished when enumerated and all tasks
+ * are done, or when cancelled. Tasks added after finished or cancelled
+ * are dropped, the executor is never used after shutdown.
+ */
+final class DownloadTracker {
+
+    public static final int RESULT_SAVED = 0;
+    public static final int RESULT_SKIPPED = 1;
+    public static final int RESULT_FAILED = 2;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Callback mCallback;
+
+    // Guarded by this
+    private int mTotal;
+    private int mSaved;
+    private int mSkipped;
+    private int mFailed;
+    private boolean mEnumerated;
+    private boolean mCancelled;
+    private boolean mFinished;
+
+    public DownloadTracker(ThreadPoolExecutor executor, Callback callback) {
+        mExecutor = executor;
+        mCallback = callback;
+    }
+
+    public synchronized int getTotal() {
+        return mTotal;
+    }
+
+    public synchronized int getSaved() {
+        return mSaved;
+    }
+
+    public synchronized int getSkipped() {
+        return mSkipped;
+    }
+
+    public synchronized int getFailed() {
+        return mFailed;
+    }
+
+    /**
+     * @return the count of saved, skipped and failed tasks
+     */
+    public synchronized int getFinished() {
+        return mSaved + mSkipped + mFailed;
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public synchronized boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * @return false if cancelled or finished, the task is dropped
+     */
+    public boolean submit(final Task task) {
+        // Check and execute in the same lock, so checkFinish
+        // can't shutdown the executor between them
+        synchronized (this) {
+            if (mCancelled || mFinished) {
+                return false;
+            }
+            mTotal++;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    onTaskDone(task.run());
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * No more task will be submitted
+     */
+    public void onEnumerated() {
+        synchronized (this) {
+            mEnumerated = true;
+        }
+        checkFinish();
+    }
+
+    public void cancel() {
+        synchronized (this) {
+            mCancelled = true;
+            mEnumerated = true;
+        }
+        mExecutor.getQueue().clear();
+        checkFinish();
+    }
+
+    private void onTaskDone(int result) {
+        synchronized (this) {
+            switch (result) {
+                case RESULT_SAVED:
+                    mSaved++;
+                    break;
+                case RESULT_SKIPPED:
+                    mSkipped++;
+                    break;
+                default:
+                case RESULT_FAILED:
+                    mFailed++;
+                    break;
+            }
+        }
+        mCallback.onProgress();
+        checkFinish();
+    }
+
+    private void checkFinish() {
+        synchronized (this) {
+            if (mFinished || !mEnumerated || (!mCancelled && mSaved + mSkipped + mFailed < mTotal)) {
+                return;
+            }
+            mFinished = true;
+        }
+
+        mExecutor.shutdown();
+        mCallback.onFinish();
+    }
+
+    public interface Task {
+
+        /**
+         * Called in executor thread
+         *
+         * @return one of {@link #RESULT_SAVED}, {@link #RESULT_SKIPPED} and {@link #RESULT_FAILED}
+         */
+        int run();
+    }
+
+    /**
+     * The methods might be called in any thread
+     */
+    public interface Callback {
+
+        /**
+         * Called when a task is done
+         */
+        void onProgress();
+
+        /**
+         * Called only once
+         */
+        void onFinish();
+    }
+}
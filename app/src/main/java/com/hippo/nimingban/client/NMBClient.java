@@ -18,17 +18,26 @@ package com.hippo.nimingban.client;
 
 import android.content.Context;
 import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.hippo.httpclient.HttpClient;
 import com.hippo.httpclient.HttpRequest;
+import com.hippo.httpclient.ResponseCodeException;
 import com.hippo.nimingban.NMBApplication;
 import com.hippo.nimingban.client.ac.ACEngine;
+import com.hippo.nimingban.client.ac.ACHostSelector;
 import com.hippo.nimingban.client.ac.data.ACPostStruct;
 import com.hippo.nimingban.client.ac.data.ACReplyStruct;
 import com.hippo.nimingban.client.data.Site;
+import com.hippo.nimingban.network.CircuitBreaker;
+import com.hippo.nimingban.network.CircuitOpenException;
 import com.hippo.nimingban.network.NMBHttpRequest;
 import com.hippo.yorozuya.PriorityThreadFactory;
 
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
@@ -63,6 +72,13 @@ public class NMBClient {
 
     public static final int METHOD_SEARCH = 9;
 
+    private static final int MAX_RETRIES = 2;
+    private static final long BASE_RETRY_DELAY = 500;
+    private static final long MAX_RETRY_DELAY = 4000;
+    private static final long RETRY_SLEEP_STEP = 100;
+
+    private static final Random sRandom = new Random();
+
     private final ThreadPoolExecutor mRequestThreadPool;
     private final HttpClient mHttpClient;
 
@@ -86,6 +102,57 @@ public class NMBClient {
         }
     }
 
+    /**
+     * Only requests without side effect can be sent again.
+     * Never add reply or createPost here.
+     */
+    private static boolean isIdempotent(int method) {
+        switch (method) {
+            case METHOD_GET_FORUM_LIST:
+            case METHOD_GET_POST_LIST:
+            case METHOD_GET_POST:
+            case METHOD_GET_REFERENCE:
+            case METHOD_GET_FEED:
+            case METHOD_SEARCH:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isRetryable(Exception e) {
+        if (e instanceof ResponseCodeException) {
+            return ((ResponseCodeException) e).getResponseCode() >= 500;
+        } else {
+            // Too many redirections won't be better
+            return e instanceof IOException && !(e instanceof ProtocolException);
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter
+     */
+    private static long getRetryDelay(int attempt) {
+        long max = Math.min(MAX_RETRY_DELAY, BASE_RETRY_DELAY << attempt);
+        synchronized (sRandom) {
+            return BASE_RETRY_DELAY / 2 + (long) (sRandom.nextDouble() * (max - BASE_RETRY_DELAY / 2));
+        }
+    }
+
+    private static void sleepForRetry(HttpRequest httpRequest, int attempt) throws CancelledException {
+        long end = SystemClock.elapsedRealtime() + getRetryDelay(attempt);
+        long now;
+        while ((now = SystemClock.elapsedRealtime()) < end) {
+            if (httpRequest.isCancelled()) {
+                throw new CancelledException();
+            }
+            SystemClock.sleep(Math.min(RETRY_SLEEP_STEP, end - now));
+        }
+        if (httpRequest.isCancelled()) {
+            throw new CancelledException();
+        }
+    }
+
     class Task extends AsyncTask<Object, Void, Object> {
 
         private int mMethod;
@@ -224,36 +291,63 @@ public class NMBClient {
             }
         }
 
+        private Object doRequest(Object... params) throws Exception {
+            switch (mMethod) {
+                case METHOD_UPDATE:
+                    return UpdateEngine.update(mHttpClient, mHttpRequest, (Integer) params[0]);
+                case METHOD_GET_FORUM_LIST:
+                    return getForumList();
+                case METHOD_GET_COOKIE:
+                    return getCookie();
+                case METHOD_GET_POST_LIST:
+                    return getPostList(params);
+                case METHOD_GET_POST:
+                    return getPost(params);
+                case METHOD_GET_REFERENCE:
+                    return getReference(params);
+                case METHOD_REPLY:
+                    return reply(params);
+                case METHOD_GET_FEED:
+                    return getFeed(params);
+                case METHOD_ADD_FEED:
+                    return addFeed(params);
+                case METHOD_DEL_FEED:
+                    return delFeed(params);
+                case METHOD_CREATE_POST:
+                    return createPost(params);
+                case METHOD_SEARCH:
+                    return search(params);
+                default:
+                    return new IllegalStateException("Can't detect method " + mMethod);
+            }
+        }
+
+        private void checkCircuit() throws CircuitOpenException {
+            if (mMethod != METHOD_UPDATE && mSite != null && mSite.getId() == Site.AC) {
+                String host = ACHostSelector.getInstance().getHost();
+                if (!CircuitBreaker.getInstance().allowRequest(host)) {
+                    throw new CircuitOpenException(host);
+                }
+            }
+        }
+
         @Override
         protected Object doInBackground(Object... params) {
+            HttpRequest httpRequest = mHttpRequest;
+            boolean idempotent = isIdempotent(mMethod);
             try {
-                switch (mMethod) {
-                    case METHOD_UPDATE:
-                        return UpdateEngine.update(mHttpClient, mHttpRequest, (Integer) params[0]);
-                    case METHOD_GET_FORUM_LIST:
-                        return getForumList();
-                    case METHOD_GET_COOKIE:
-                        return getCookie();
-                    case METHOD_GET_POST_LIST:
-                        return getPostList(params);
-                    case METHOD_GET_POST:
-                        return getPost(params);
-                    case METHOD_GET_REFERENCE:
-                        return getReference(params);
-                    case METHOD_REPLY:
-                        return reply(params);
-                    case METHOD_GET_FEED:
-                        return getFeed(params);
-                    case METHOD_ADD_FEED:
-                        return addFeed(params);
-                    case METHOD_DEL_FEED:
-                        return delFeed(params);
-                    case METHOD_CREATE_POST:
-                        return createPost(params);
-                    case METHOD_SEARCH:
-                        return search(params);
-                    default:
-                        return new IllegalStateException("Can't detect method " + mMethod);
+                for (int attempt = 0; ; attempt++) {
+                    checkCircuit();
+                    try {
+                        return doRequest(params);
+                    } catch (Exception e) {
+                        if (!idempotent || attempt >= MAX_RETRIES || !isRetryable(e) ||
+                                httpRequest == null || httpRequest.isCancelled()) {
+                            throw e;
+                        }
+                        Log.d(TAG, "Retry method " + mMethod + " after " + e);
+                        sleepForRetry(httpRequest, attempt);
+                    }
                 }
             } catch (Exception e) {
                 return e;
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.client;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.app.NotificationCompat;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Pair;
+
+import com.hippo.conaco.Conaco;
+import com.hippo.httpclient.HttpClient;
+import com.hippo.httpclient.HttpRequest;
+import com.hippo.network.DownloadClient;
+import com.hippo.network.DownloadRequest;
+import com.hippo.nimingban.NMBApplication;
+import com.hippo.nimingban.R;
+import com.hippo.nimingban.client.ac.ACEngine;
+import com.hippo.nimingban.client.ac.ACHostSelector;
+import com.hippo.nimingban.client.data.Post;
+import com.hippo.nimingban.client.data.Reply;
+import com.hippo.nimingban.client.data.Site;
+import com.hippo.nimingban.network.NMBHttpRequest;
+import com.hippo.nimingban.util.ImageSaver;
+import com.hippo.nimingban.util.Settings;
+import com.hippo.unifile.UniFile;
+import com.hippo.yorozuya.FileUtils;
+import com.hippo.yorozuya.MathUtils;
+import com.hippo.yorozuya.PriorityThreadFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save all images in a thread to image save location. The pages are
+ * got one by one in a enumerating thread, the images are downloaded in a pool of
+ * {@link Settings#getDownloadConcurrency()} threads. The job belongs
+ * to application, not activity. Progress is shown in notification.
+ */
+public final class ThreadImageDownloader {
+
+    private static final String TAG = ThreadImageDownloader.class.getSimpleName();
+
+    /**
+     * Key to running downloader, only touch it in UI thread
+     */
+    private static final Map<String, ThreadImageDownloader> sDownloaders = new HashMap<>();
+
+    private static int sNextNotifyId = 1;
+
+    private static final UrlBuilder DEFAULT_URL_BUILDER = new UrlBuilder() {
+        @Override
+        public String getPageUrl(Site site, String postId, int page) {
+            return NMBUrl.getPostUrl(site, postId, page);
+        }
+
+        @Override
+        public String getImageUrl(String image) {
+            return ACHostSelector.getInstance().route(image);
+        }
+    };
+
+    private final Context mContext;
+    private final Site mSite;
+    private final String mPostId;
+    private final UniFile mDir;
+    private final HttpClient mHttpClient;
+    private final UrlBuilder mUrlBuilder;
+    private final Conaco mConaco;
+    private final DownloadTracker mTracker;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final NotificationManager mNotifyManager;
+    private final NotificationCompat.Builder mBuilder;
+    private final int mNotifyId;
+
+    private final List<OnProgressListener> mListeners = new ArrayList<>();
+
+    /**
+     * Image urls already added
+     */
+    private final Set<String> mImages = new HashSet<>();
+    /**
+     * Filenames without extension in target dir
+     */
+    private final Set<String> mSavedNames = new HashSet<>();
+    private final Set<HttpRequest> mRequests = new HashSet<>();
+
+    /**
+     * @param dir the target dir
+     * @param poolSize the count of images downloaded at the same time
+     */
+    ThreadImageDownloader(Context context, Site site, String postId, UniFile dir,
+            HttpClient httpClient, UrlBuilder urlBuilder, int poolSize) {
+        mContext = context.getApplicationContext();
+        mSite = site;
+        mPostId = postId;
+        mDir = dir;
+        mHttpClient = httpClient;
+        mUrlBuilder = urlBuilder;
+        mConaco = NMBApplication.getConaco(context);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 1L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new PriorityThreadFactory(TAG,
+                android.os.Process.THREAD_PRIORITY_BACKGROUND));
+        mTracker = new DownloadTracker(executor, new DownloadTracker.Callback() {
+            @Override
+            public void onProgress() {
+                notifyProgress();
+            }
+
+            @Override
+            public void onFinish() {
+                notifyFinish();
+            }
+        });
+
+        mNotifyId = sNextNotifyId++;
+        mNotifyManager = (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        mBuilder = new NotificationCompat.Builder(mContext);
+        mBuilder.setContentTitle(mContext.getString(R.string.downloading_images))
+                .setSubText(mSite.getPostTitle(mContext, mPostId))
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setOngoing(true)
+                .setAutoCancel(false)
+                .setProgress(0, 0, true);
+    }
+
+    private static String getKey(Site site, String postId) {
+        return site.getId() + "/" + postId;
+    }
+
+    /**
+     * @return the running downloader for the thread, null for none
+     */
+    @Nullable
+    public static ThreadImageDownloader get(@NonNull Site site, @NonNull String postId) {
+        return sDownloaders.get(getKey(site, postId));
+    }
+
+    /**
+     * Start to download all images of the thread, or get the running one.
+     *
+     * @return null if image save location is not available
+     */
+    @Nullable
+    public static ThreadImageDownloader start(@NonNull Context context,
+            @NonNull Site site, @NonNull String postId) {
+        ThreadImageDownloader downloader = get(site, postId);
+        if (downloader != null) {
+            return downloader;
+        }
+
+        UniFile dir = Settings.getImageSaveLocation();
+        if (dir == null) {
+            return null;
+        }
+
+        downloader = new ThreadImageDownloader(context, site, postId, dir,
+                NMBApplication.getNMBHttpClient(context), DEFAULT_URL_BUILDER,
+                Settings.getDownloadConcurrency());
+        sDownloaders.put(getKey(site, postId), downloader);
+        downloader.start();
+        return downloader;
+    }
+
+    public void addOnProgressListener(@NonNull OnProgressListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnProgressListener(@NonNull OnProgressListener listener) {
+        mListeners.remove(listener);
+    }
+
+    public int getTotal() {
+        return mTracker.getTotal();
+    }
+
+    /**
+     * @return the count of saved, skipped and failed images
+     */
+    public int getFinished() {
+        return mTracker.getFinished();
+    }
+
+    public boolean isFinished() {
+        return mTracker.isFinished();
+    }
+
+    int getSaved() {
+        return mTracker.getSaved();
+    }
+
+    int getSkipped() {
+        return mTracker.getSkipped();
+    }
+
+    public void cancel() {
+        mTracker.cancel();
+        synchronized (mRequests) {
+            for (HttpRequest request : mRequests) {
+                request.cancel();
+            }
+        }
+    }
+
+    void start() {
+        mNotifyManager.notify(mNotifyId, mBuilder.build());
+        // Enumerate in its own thread, not to take a slot of image download
+        new Thread(TAG) {
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                listSavedNames();
+                enumerate();
+            }
+        }.start();
+    }
+
+    private void listSavedNames() {
+        UniFile[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        synchronized (mSavedNames) {
+            for (UniFile file : files) {
+                String name = file.getName();
+                if (name != null) {
+                    mSavedNames.add(FileUtils.getNameFromFilename(name));
+                }
+            }
+        }
+    }
+
+    private Pair<Post, List<Reply>> getPage(int page) throws Exception {
+        HttpRequest request = new NMBHttpRequest(mSite);
+        synchronized (mRequests) {
+            mRequests.add(request);
+        }
+        try {
+            switch (mSite.getId()) {
+                case Site.AC:
+                    return ACEngine.getPost(mHttpClient, request, mUrlBuilder.getPageUrl(mSite, mPostId, page));
+                default:
+                    throw new IllegalStateException("Can't detect site " + mSite);
+            }
+        } finally {
+            synchronized (mRequests) {
+                mRequests.remove(request);
+            }
+        }
+    }
+
+    /**
+     * Get pages one by one, add images as soon as one page is got
+     */
+    private void enumerate() {
+        int pageSize = -1;
+        int pages = Integer.MAX_VALUE;
+        for (int page = 0; page < pages && !mTracker.isCancelled(); page++) {
+            Pair<Post, List<Reply>> result;
+            try {
+                result = getPage(page);
+            } catch (Exception e) {
+                Log.w(TAG, "Can't get page " + page, e);
+                break;
+            }
+
+            Post post = result.first;
+            List<Reply> replies = result.second;
+            if (page == 0) {
+                pageSize = replies.size();
+                replies.add(0, post);
+            }
+            if (replies.isEmpty()) {
+                break;
+            }
+            pages = pageSize > 0 ? MathUtils.ceilDivide(post.getNMBReplyCount(), pageSize) : 1;
+
+            for (Reply reply : replies) {
+                String image = reply.getNMBImageUrl();
+                if (!TextUtils.isEmpty(image) && mImages.add(image)
+                        && !mTracker.submit(new ImageTask(reply.getNMBId(), image))) {
+                    // Cancelled
+                    return;
+                }
+            }
+            notifyProgress();
+        }
+
+        mTracker.onEnumerated();
+    }
+
+    private void notifyFinish() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                sDownloaders.remove(getKey(mSite, mPostId));
+
+                int saved;
+                int skipped;
+                int failed;
+                synchronized (mTracker) {
+                    saved = mTracker.getSaved();
+                    skipped = mTracker.getSkipped();
+                    failed = mTracker.getFailed();
+                }
+                mBuilder.setContentTitle(mContext.getString(R.string.download_images_finished))
+                        .setContentText(mContext.getString(R.string.download_images_result, saved, skipped, failed))
+                        .setSmallIcon(android.R.drawable.stat_sys_download_done)
+                        .setOngoing(false)
+                        .setAutoCancel(true)
+                        .setProgress(0, 0, false);
+                mNotifyManager.notify(mNotifyId, mBuilder.build());
+
+                for (OnProgressListener listener : new ArrayList<>(mListeners)) {
+                    listener.onFinish(ThreadImageDownloader.this);
+                }
+                mListeners.clear();
+            }
+        });
+    }
+
+    private void notifyProgress() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isFinished()) {
+                    return;
+                }
+
+                int total;
+                int finished;
+                synchronized (mTracker) {
+                    total = mTracker.getTotal();
+                    finished = mTracker.getFinished();
+                }
+                mBuilder.setContentText(mContext.getString(R.string.downloading_images_progress, finished, total))
+                        .setProgress(total, finished, total == 0);
+                mNotifyManager.notify(mNotifyId, mBuilder.build());
+
+                for (OnProgressListener listener : new ArrayList<>(mListeners)) {
+                    listener.onProgress(ThreadImageDownloader.this, finished, total);
+                }
+            }
+        });
+    }
+
+    private class ImageTask implements DownloadTracker.Task {
+
+        private final String mId;
+        private final String mImage;
+
+        public ImageTask(String id, String image) {
+            mId = id;
+            mImage = image;
+        }
+
+        @Override
+        public int run() {
+            // Same name as saving in gallery
+            String name = mSite.getReadableName(mContext) + "-" + mId;
+            synchronized (mSavedNames) {
+                if (mSavedNames.contains(name)) {
+                    return DownloadTracker.RESULT_SKIPPED;
+                }
+            }
+
+            // Try disk cache first
+            UniFile file = mDir.createFile(name);
+            if (file != null && ImageSaver.save(mConaco, mImage, file)) {
+                return DownloadTracker.RESULT_SAVED;
+            }
+
+            HttpRequest httpRequest = new HttpRequest();
+            synchronized (mRequests) {
+                mRequests.add(httpRequest);
+            }
+            DownloadRequest request = new DownloadRequest();
+            request.setHttpClient(mHttpClient);
+            request.setHttpRequest(httpRequest);
+            request.setUrl(mUrlBuilder.getImageUrl(mImage));
+            request.setDir(mDir);
+            request.setFilename(name);
+            request.setListener(new DownloadClient.SimpleDownloadListener() {
+                @Override
+                public String onFixname(String fileFirstname, String extension, String oldFilename) {
+                    return extension != null ? oldFilename + "." + extension : oldFilename;
+                }
+            });
+            boolean ok = DownloadClient.execute(request);
+            synchronized (mRequests) {
+                mRequests.remove(httpRequest);
+            }
+            return ok ? DownloadTracker.RESULT_SAVED : DownloadTracker.RESULT_FAILED;
+        }
+    }
+
+    /**
+     * Where pages and images are got from
+     */
+    interface UrlBuilder {
+
+        String getPageUrl(Site site, String postId, int page);
+
+        /**
+         * @param image the image url of the reply
+         */
+        String getImageUrl(String image);
+    }
+
+    public interface OnProgressListener {
+
+        void onProgress(ThreadImageDownloader downloader, int finished, int total);
+
+        void onFinish(ThreadImageDownloader downloader);
+    }
+}
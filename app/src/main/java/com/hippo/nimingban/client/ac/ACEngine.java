@@ -71,7 +71,7 @@ public class ACEngine {
 
     public static Boolean getCookie(HttpClient httpClient, HttpRequest httpRequest) throws Exception {
         try {
-            httpRequest.setUrl(API_GET_COOKIE);
+            httpRequest.setUrl(ACHostSelector.getInstance().route(API_GET_COOKIE));
             HttpResponse response = httpClient.execute(httpRequest);
             String content = response.getString();
 
@@ -91,7 +91,7 @@ public class ACEngine {
 
     public static List<ACForumGroup> getForumList(HttpClient httpClient, HttpRequest httpRequest) throws Exception {
         try {
-            httpRequest.setUrl(API_GET_FORUM_LIST);
+            httpRequest.setUrl(ACHostSelector.getInstance().route(API_GET_FORUM_LIST));
             HttpResponse response = httpClient.execute(httpRequest);
             List<ACForumGroup> result = JSON.parseArray(response.getString(), ACForumGroup.class);
             if (result == null) {
@@ -111,9 +111,9 @@ public class ACEngine {
 
     public static List<Post> getPostList(HttpClient httpClient, HttpRequest httpRequest, String url) throws Exception {
         try {
-            httpRequest.setUrl(url);
-            HttpResponse response = httpClient.execute(httpRequest);
-            List<ACPost> acPosts = JSON.parseArray(response.getString(), ACPost.class);
+            // Hedge slow request to another mirror
+            String content = ACHostSelector.getInstance().getString(httpClient, httpRequest, url);
+            List<ACPost> acPosts = JSON.parseArray(content, ACPost.class);
             if (acPosts == null) {
                 throw new NMBException(ACSite.getInstance(), "Can't parse json when getPostList");
             }
@@ -141,9 +141,9 @@ public class ACEngine {
     public static Pair<Post, List<Reply>> getPost(HttpClient httpClient,
             HttpRequest httpRequest, String url) throws Exception {
         try {
-            httpRequest.setUrl(url);
-            HttpResponse response = httpClient.execute(httpRequest);
-            ACPost acPost = JSON.parseObject(response.getString(), ACPost.class);
+            // Hedge slow request to another mirror
+            String content = ACHostSelector.getInstance().getString(httpClient, httpRequest, url);
+            ACPost acPost = JSON.parseObject(content, ACPost.class);
             if (acPost == null) {
                 throw new NMBException(ACSite.getInstance(), "Can't parse json when getPost");
             }
@@ -163,7 +163,7 @@ public class ACEngine {
     public static Reply getReference(HttpClient httpClient,
             HttpRequest httpRequest, String url) throws Exception {
         try {
-            httpRequest.setUrl(url);
+            httpRequest.setUrl(ACHostSelector.getInstance().route(url));
             HttpResponse response = httpClient.execute(httpRequest);
 
             ACReference reference = new ACReference();
@@ -264,7 +264,7 @@ public class ACEngine {
             }
 
             FormDataPoster httpImpl = new FormDataPoster(name, email, title, content, resto, image);
-            httpRequest.setUrl(API_REPLY);
+            httpRequest.setUrl(ACHostSelector.getInstance().route(API_REPLY));
             httpRequest.setHttpImpl(httpImpl);
             HttpResponse response = httpClient.execute(httpRequest);
 
@@ -348,7 +348,7 @@ public class ACEngine {
             }
 
             FormDataPoster httpImpl = new FormDataPoster(name, email, title, emotion, content, image);
-            String url = ACUrl.HOST + "/api/t/" + struct.resto + "/create";
+            String url = ACHostSelector.getInstance().route(ACUrl.HOST + "/api/t/" + struct.resto + "/create");
             httpRequest.setUrl(url);
             httpRequest.setHttpImpl(httpImpl);
             HttpResponse response = httpClient.execute(httpRequest);
@@ -396,7 +396,7 @@ public class ACEngine {
             String uuid, int page) throws Exception {
         try {
 
-            httpRequest.setUrl(ACUrl.getFeedUrl(uuid, page));
+            httpRequest.setUrl(ACHostSelector.getInstance().route(ACUrl.getFeedUrl(uuid, page)));
             HttpResponse response = httpClient.execute(httpRequest);
             String body = response.getString();
 
@@ -429,7 +429,7 @@ public class ACEngine {
     public static Void addFeed(HttpClient httpClient, HttpRequest httpRequest,
             String uuid, String tid) throws Exception {
         try {
-            httpRequest.setUrl(ACUrl.getAddFeedUrl(uuid, tid));
+            httpRequest.setUrl(ACHostSelector.getInstance().route(ACUrl.getAddFeedUrl(uuid, tid)));
             HttpResponse response = httpClient.execute(httpRequest);
             String body = response.getString();
 
@@ -452,7 +452,7 @@ public class ACEngine {
     public static Void delFeed(HttpClient httpClient, HttpRequest httpRequest,
             String uuid, String tid) throws Exception {
         try {
-            httpRequest.setUrl(ACUrl.getDelFeedUrl(uuid, tid));
+            httpRequest.setUrl(ACHostSelector.getInstance().route(ACUrl.getDelFeedUrl(uuid, tid)));
             HttpResponse response = httpClient.execute(httpRequest);
             String body = response.getString();
 
@@ -512,7 +512,7 @@ public class ACEngine {
             }
 
             FormDataPoster httpImpl = new FormDataPoster(name, email, title, content, resto, image);
-            httpRequest.setUrl(ACUrl.API_CREATE_POST);
+            httpRequest.setUrl(ACHostSelector.getInstance().route(ACUrl.getCreatePostUrl()));
             httpRequest.setHttpImpl(httpImpl);
             HttpResponse response = httpClient.execute(httpRequest);
 
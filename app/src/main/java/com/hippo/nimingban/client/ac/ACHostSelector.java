@@ -0,0 +1,456 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.client.ac;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.hippo.httpclient.HttpClient;
+import com.hippo.httpclient.HttpRequest;
+import com.hippo.httpclient.HttpResponse;
+import com.hippo.nimingban.client.CancelledException;
+import com.hippo.nimingban.network.ConnectionWarmer;
+import com.hippo.nimingban.network.NMBHttpRequest;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Choose the best mirror of AC by rolling latency and error rate.
+ * Urls are kept in {@link ACUrl#HOST} in data and cache keys, call
+ * {@link #route(String)} before sending them.
+ */
+public final class ACHostSelector {
+
+    private static final String TAG = ACHostSelector.class.getSimpleName();
+
+    public static final String[] HOSTS = {
+            "h.nimingban.com",
+            "h.acfun.tv"
+    };
+
+    private static final String SCHEME = "http://";
+
+    /**
+     * Weight of new sample
+     */
+    private static final float ALPHA = 0.3f;
+
+    private static final float DEFAULT_LATENCY = 1000.0f;
+    private static final float ERROR_WEIGHT = 4.0f;
+
+    /**
+     * The other host must be better than it to switch
+     */
+    private static final float SWITCH_RATIO = 0.8f;
+
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    private static final long FAILURE_COOLDOWN = 30 * 1000;
+
+    private static final long MIN_HEDGE_DELAY = 1000;
+    private static final long MAX_HEDGE_DELAY = 4000;
+
+    private static final long PROBE_INTERVAL = 60 * 1000;
+    private static final int PROBE_TIMEOUT = 5000;
+
+    private static final ACHostSelector sInstance = new ACHostSelector();
+
+    private final String[] mHosts;
+    private final HostState[] mStates;
+    private int mCurrent;
+
+    private long mLastProbe;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    public static ACHostSelector getInstance() {
+        return sInstance;
+    }
+
+    private ACHostSelector() {
+        this(HOSTS);
+    }
+
+    /**
+     * Only for test, choose from the hosts instead of {@link #HOSTS}
+     */
+    ACHostSelector(String[] hosts) {
+        mHosts = hosts;
+        mStates = new HostState[hosts.length];
+        for (int i = 0; i < hosts.length; i++) {
+            mStates[i] = new HostState();
+        }
+    }
+
+    private static int indexOfHost(String[] hosts, String host) {
+        for (int i = 0; i < hosts.length; i++) {
+            if (hosts[i].equalsIgnoreCase(host)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOfHost(String host) {
+        return indexOfHost(mHosts, host);
+    }
+
+    /**
+     * @return true if it is a mirror of AC
+     */
+    public static boolean isMirror(String host) {
+        return indexOfHost(HOSTS, host) >= 0;
+    }
+
+    /**
+     * @return the host of the url if it is one of the hosts, or null
+     */
+    @Nullable
+    private static String getHostOf(String url, String[] hosts) {
+        if (url == null || !url.startsWith(SCHEME)) {
+            return null;
+        }
+        int end = url.indexOf('/', SCHEME.length());
+        String host = url.substring(SCHEME.length(), end < 0 ? url.length() : end);
+        return indexOfHost(hosts, host) >= 0 ? host : null;
+    }
+
+    @Nullable
+    private String getMirrorOf(String url) {
+        return getHostOf(url, mHosts);
+    }
+
+    private static String replaceHost(String url, String oldHost, String newHost) {
+        return SCHEME + newHost + url.substring(SCHEME.length() + oldHost.length());
+    }
+
+    /**
+     * Move the url of the mirror to {@link ACUrl#HOST}
+     */
+    public static String canonicalize(String url) {
+        String host = getHostOf(url, HOSTS);
+        String canonicalHost = ACUrl.HOST.substring(SCHEME.length());
+        if (host == null || host.equalsIgnoreCase(canonicalHost)) {
+            return url;
+        } else {
+            return replaceHost(url, host, canonicalHost);
+        }
+    }
+
+    public synchronized String getHost() {
+        return mHosts[mCurrent];
+    }
+
+    /**
+     * Move the url to the best mirror, others are unchanged
+     */
+    public String route(String url) {
+        String host = getMirrorOf(url);
+        String best = getHost();
+        if (host == null || host.equalsIgnoreCase(best)) {
+            return url;
+        } else {
+            return replaceHost(url, host, best);
+        }
+    }
+
+    private float getScore(HostState state, long now) {
+        float latency = state.latency < 0 ? DEFAULT_LATENCY : state.latency;
+        float score = latency * (1.0f + ERROR_WEIGHT * state.errorRate);
+        if (state.consecutiveFailures >= MAX_CONSECUTIVE_FAILURES &&
+                now - state.lastFailure < FAILURE_COOLDOWN) {
+            // It is down
+            score += 1000000.0f;
+        }
+        return score;
+    }
+
+    /**
+     * @return the new host if switched, or null
+     */
+    @Nullable
+    private String updateCurrent() {
+        long now = SystemClock.elapsedRealtime();
+        float currentScore = getScore(mStates[mCurrent], now);
+        int best = mCurrent;
+        float bestScore = currentScore * SWITCH_RATIO;
+        for (int i = 0; i < mStates.length; i++) {
+            float score = getScore(mStates[i], now);
+            if (i != mCurrent && score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        if (best != mCurrent) {
+            Log.d(TAG, "Switch to " + mHosts[best]);
+            mCurrent = best;
+            return mHosts[best];
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Connections to the new host are opened before requests go to it
+     */
+    private static void onSwitch(@Nullable String host) {
+        if (host != null) {
+            ConnectionWarmer.getInstance().warm(host);
+        }
+    }
+
+    public void onSuccess(String host, long latency) {
+        String newHost;
+        synchronized (this) {
+            int index = indexOfHost(host);
+            if (index < 0) {
+                return;
+            }
+            HostState state = mStates[index];
+            state.latency = state.latency < 0 ? latency : state.latency + ALPHA * (latency - state.latency);
+            state.errorRate -= ALPHA * state.errorRate;
+            state.consecutiveFailures = 0;
+            newHost = updateCurrent();
+        }
+        onSwitch(newHost);
+    }
+
+    public void onFailure(String host) {
+        String newHost;
+        boolean probe;
+        synchronized (this) {
+            int index = indexOfHost(host);
+            if (index < 0) {
+                return;
+            }
+            HostState state = mStates[index];
+            state.errorRate += ALPHA * (1.0f - state.errorRate);
+            state.consecutiveFailures++;
+            state.lastFailure = SystemClock.elapsedRealtime();
+            newHost = updateCurrent();
+            probe = index == mCurrent && state.consecutiveFailures >= MAX_CONSECUTIVE_FAILURES;
+        }
+        onSwitch(newHost);
+        if (probe) {
+            probe();
+        }
+    }
+
+    /**
+     * Request each mirror in background to get latency
+     */
+    public void probe() {
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            if (mLastProbe != 0 && now - mLastProbe < PROBE_INTERVAL) {
+                return;
+            }
+            mLastProbe = now;
+        }
+
+        for (final String host : mHosts) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    probe(host);
+                }
+            });
+        }
+    }
+
+    private void probe(String host) {
+        HttpURLConnection conn = null;
+        long start = SystemClock.elapsedRealtime();
+        try {
+            conn = (HttpURLConnection) new URL(SCHEME + host + "/").openConnection();
+            conn.setRequestMethod("HEAD");
+            conn.setConnectTimeout(PROBE_TIMEOUT);
+            conn.setReadTimeout(PROBE_TIMEOUT);
+            int code = conn.getResponseCode();
+            if (code < 500) {
+                onSuccess(host, SystemClock.elapsedRealtime() - start);
+            } else {
+                onFailure(host);
+            }
+        } catch (Exception e) {
+            onFailure(host);
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private synchronized long getHedgeDelay(String host) {
+        int index = indexOfHost(host);
+        float latency = index < 0 ? -1 : mStates[index].latency;
+        if (latency < 0) {
+            return MAX_HEDGE_DELAY;
+        }
+        return Math.max(MIN_HEDGE_DELAY, Math.min(MAX_HEDGE_DELAY, (long) (latency * 3)));
+    }
+
+    /**
+     * @return the best host except the one, null if no other
+     */
+    @Nullable
+    private synchronized String getBackupHost(String host) {
+        long now = SystemClock.elapsedRealtime();
+        String backup = null;
+        float backupScore = Float.MAX_VALUE;
+        for (int i = 0; i < mHosts.length; i++) {
+            if (mHosts[i].equalsIgnoreCase(host)) {
+                continue;
+            }
+            float score = getScore(mStates[i], now);
+            if (score < backupScore) {
+                backup = mHosts[i];
+                backupScore = score;
+            }
+        }
+        return backup;
+    }
+
+    /**
+     * Get the response body. If the mirror is slow, send the same request
+     * to another mirror, the first result wins. Only for idempotent requests.
+     */
+    public String getString(HttpClient httpClient, HttpRequest httpRequest, String url) throws Exception {
+        url = route(url);
+        String host = getMirrorOf(url);
+        String backup = host == null ? null : getBackupHost(host);
+        if (backup == null) {
+            httpRequest.setUrl(url);
+            return httpClient.execute(httpRequest).getString();
+        }
+
+        CompletionService<String> service = new ExecutorCompletionService<>(mExecutor);
+        Future<String> primary = service.submit(new Attempt(httpClient, httpRequest, url));
+        Future<String> done = service.poll(getHedgeDelay(host), TimeUnit.MILLISECONDS);
+        if (done != null) {
+            return getResult(done);
+        }
+
+        Log.d(TAG, "Hedge " + url + " to " + backup);
+        HttpRequest hedgeRequest = copy(httpRequest);
+        service.submit(new Attempt(httpClient, hedgeRequest, replaceHost(url, host, backup)));
+        Exception exception = null;
+        try {
+            for (int i = 0; i < 2; i++) {
+                done = service.take();
+                if (httpRequest.isCancelled()) {
+                    throw new CancelledException();
+                }
+                try {
+                    String result = getResult(done);
+                    // Stop the loser
+                    if (done == primary) {
+                        hedgeRequest.cancel();
+                    } else {
+                        primary.cancel(false);
+                        httpRequest.cancel();
+                    }
+                    return result;
+                } catch (Exception e) {
+                    exception = e;
+                }
+            }
+            throw exception;
+        } finally {
+            if (httpRequest.isCancelled()) {
+                hedgeRequest.cancel();
+            }
+            hedgeRequest.disconnect();
+        }
+    }
+
+    /**
+     * A new request of the same type and site, for the hedge
+     */
+    private static HttpRequest copy(HttpRequest request) {
+        if (request instanceof NMBHttpRequest) {
+            return new NMBHttpRequest(((NMBHttpRequest) request).getSite());
+        } else {
+            return new HttpRequest();
+        }
+    }
+
+    private static String getResult(Future<String> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    public synchronized String getDescription() {
+        StringBuilder sb = new StringBuilder();
+        long now = SystemClock.elapsedRealtime();
+        for (int i = 0; i < mHosts.length; i++) {
+            HostState state = mStates[i];
+            if (i != 0) {
+                sb.append('\n');
+            }
+            sb.append(mHosts[i]).append(i == mCurrent ? " *" : "")
+                    .append(": ").append((long) state.latency).append("ms, error ")
+                    .append((int) (state.errorRate * 100)).append("%, score ")
+                    .append((long) getScore(state, now));
+        }
+        return sb.toString();
+    }
+
+    private static class Attempt implements Callable<String> {
+
+        private final HttpClient mHttpClient;
+        private final HttpRequest mHttpRequest;
+        private final String mUrl;
+
+        public Attempt(HttpClient httpClient, HttpRequest httpRequest, String url) {
+            mHttpClient = httpClient;
+            mHttpRequest = httpRequest;
+            mUrl = url;
+        }
+
+        @Override
+        public String call() throws Exception {
+            mHttpRequest.setUrl(mUrl);
+            HttpResponse response = mHttpClient.execute(mHttpRequest);
+            return response.getString();
+        }
+    }
+
+    private static class HostState {
+        public float latency = -1.0f;
+        public float errorRate;
+        public int consecutiveFailures;
+        public long lastFailure;
+    }
+}
@@ -37,6 +37,10 @@ public class ACUrl {
 
     public static final String API_CREATE_POST = HOST + "/Home/Forum/doPostThread.html";
 
+    public static String getCreatePostUrl() {
+        return API_CREATE_POST;
+    }
+
     public static String getPostListUrl(String forum, int page) {
         return API_POST_LIST + "?id=" + forum + "&page=" + (page + 1);
     }
@@ -21,18 +21,12 @@ import android.support.annotation.NonNull;
 
 import com.hippo.nimingban.client.data.ACSite;
 import com.hippo.nimingban.client.data.Site;
-import com.hippo.yorozuya.Utilities;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public final class NMBUriParser {
 
-    private static final String[] AC_HOSTS = {
-            "h.nimingban.com",
-            "h.acfun.tv"
-    };
-
     private static final Pattern ID_PATTERN = Pattern.compile("^/t/(\\d+)");
 
     @NonNull
@@ -42,7 +36,7 @@ public final class NMBUriParser {
             return result;
         }
 
-        if (Utilities.contain(AC_HOSTS, uri.getHost())) {
+        if (ACHostSelector.isMirror(uri.getHost())) {
             result.site = ACSite.getInstance();
         }
 
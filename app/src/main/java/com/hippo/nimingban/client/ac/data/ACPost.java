@@ -34,6 +34,7 @@ import com.hippo.nimingban.client.ac.ACUrl;
 import com.hippo.nimingban.client.data.ACSite;
 import com.hippo.nimingban.client.data.Post;
 import com.hippo.nimingban.client.data.Site;
+import com.hippo.nimingban.util.FrameStats;
 import com.hippo.yorozuya.NumberUtils;
 import com.hippo.yorozuya.StringUtils;
 
@@ -61,6 +62,8 @@ public class ACPost extends Post {
     private static final String NO_TITLE = "无标题";
     private static final String NO_NAME = "无名氏";
 
+    private static final ForegroundColorSpan ADMIN_SPAN = new ForegroundColorSpan(Color.RED);
+
     static {
         // The website use GMT+08:00
         DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("GMT+08:00"));
@@ -245,14 +248,35 @@ public class ACPost extends Post {
         return builder == null ? content : builder;
     }
 
-    public static CharSequence generateContent(String content) {
-        CharSequence charSequence;
-        charSequence = Html.fromHtml(content);
-        charSequence = fixURLSpan(charSequence);
-        charSequence = handleReference(charSequence);
-        charSequence = handleTextUrl(charSequence);
+    /**
+     * User ids are plain text, only parse it if it looks like html.
+     * The span of admin is shared, don't modify the returned text.
+     */
+    public static CharSequence generateUser(String userid, boolean admin) {
+        if (admin) {
+            Spannable spannable = new SpannableString(userid);
+            spannable.setSpan(ADMIN_SPAN, 0, userid.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            return spannable;
+        } else if (userid.indexOf('<') >= 0 || userid.indexOf('&') >= 0) {
+            return Html.fromHtml(userid);
+        } else {
+            return userid;
+        }
+    }
 
-        return charSequence;
+    public static CharSequence generateContent(String content) {
+        FrameStats.beginSection("ACPost.generateContent");
+        try {
+            CharSequence charSequence;
+            charSequence = Html.fromHtml(content);
+            charSequence = fixURLSpan(charSequence);
+            charSequence = handleReference(charSequence);
+            charSequence = handleTextUrl(charSequence);
+
+            return charSequence;
+        } finally {
+            FrameStats.endSection();
+        }
     }
 
     public static CharSequence generateContent(String content, String sage, String title, String name) {
@@ -303,13 +327,7 @@ public class ACPost extends Post {
 
         mTime = parseTime(now);
 
-        if ("1".equals(admin)) {
-            Spannable spannable = new SpannableString(userid);
-            spannable.setSpan(new ForegroundColorSpan(Color.RED), 0, userid.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            mUser = spannable;
-        } else {
-            mUser = Html.fromHtml(userid);
-        }
+        mUser = generateUser(userid, "1".equals(admin));
 
         mReplyCount = NumberUtils.parseIntSafely(replyCount, -1);
 
@@ -404,6 +422,7 @@ public class ACPost extends Post {
         dest.writeString(this.title);
         dest.writeString(this.content);
         dest.writeString(this.admin);
+        dest.writeString(this.sage);
         dest.writeString(this.replyCount);
         dest.writeInt(this.mSite.getId());
     }
@@ -423,6 +442,7 @@ public class ACPost extends Post {
         this.title = in.readString();
         this.content = in.readString();
         this.admin = in.readString();
+        this.sage = in.readString();
         this.replyCount = in.readString();
         this.mSite = Site.fromId(in.readInt());
     }
@@ -16,14 +16,8 @@
 
 package com.hippo.nimingban.client.ac.data;
 
-import android.graphics.Color;
 import android.os.Parcel;
-import android.text.Html;
-import android.text.Spannable;
-import android.text.SpannableString;
-import android.text.Spanned;
 import android.text.TextUtils;
-import android.text.style.ForegroundColorSpan;
 
 import com.hippo.nimingban.client.ac.ACUrl;
 import com.hippo.nimingban.client.data.Reply;
@@ -65,13 +59,7 @@ public class ACReference extends Reply {
 
         mTime = ACPost.parseTime(time);
 
-        if (admin) {
-            Spannable spannable = new SpannableString(userId);
-            spannable.setSpan(new ForegroundColorSpan(Color.RED), 0, userId.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            mUser = spannable;
-        } else {
-            mUser = Html.fromHtml(userId);
-        }
+        mUser = ACPost.generateUser(userId, admin);
 
         mContent = ACPost.generateContent(content, "", title, "");
 
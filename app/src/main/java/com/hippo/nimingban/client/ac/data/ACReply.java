@@ -16,14 +16,8 @@
 
 package com.hippo.nimingban.client.ac.data;
 
-import android.graphics.Color;
 import android.os.Parcel;
-import android.text.Html;
-import android.text.Spannable;
-import android.text.SpannableString;
-import android.text.Spanned;
 import android.text.TextUtils;
-import android.text.style.ForegroundColorSpan;
 
 import com.hippo.nimingban.client.ac.ACUrl;
 import com.hippo.nimingban.client.data.Reply;
@@ -66,13 +60,7 @@ public class ACReply extends Reply {
 
         mTime = ACPost.parseTime(now);
 
-        if ("1".equals(admin)) {
-            Spannable spannable = new SpannableString(userid);
-            spannable.setSpan(new ForegroundColorSpan(Color.RED), 0, userid.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            mUser = spannable;
-        } else {
-            mUser = Html.fromHtml(userid);
-        }
+        mUser = ACPost.generateUser(userid, "1".equals(admin));
 
         mContent = ACPost.generateContent(content, sage, title, name);
 
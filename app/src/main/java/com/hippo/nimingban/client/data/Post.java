@@ -21,4 +21,10 @@ public abstract class Post extends Reply {
     public abstract int getNMBReplyCount();
 
     public abstract CharSequence getNMBReplyDisplayCount();
+
+    @Override
+    public boolean isSameContent(Reply reply) {
+        return super.isSameContent(reply) && reply instanceof Post &&
+                getNMBReplyCount() == ((Post) reply).getNMBReplyCount();
+    }
 }
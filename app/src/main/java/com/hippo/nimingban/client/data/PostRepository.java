@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.client.data;
+
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generated posts keyed by site and id, so activities only pass the key
+ * and get the post without parcelling and generating it again.
+ * The loaded pages of a thread are kept in the same way, keyed by the post.
+ * It is in memory only, the post may be missing after the process restarts.
+ */
+public final class PostRepository {
+
+    private static final int MAX_SIZE = 50;
+    private static final int MAX_THREAD_SIZE = 5;
+
+    private static final PostRepository sInstance = new PostRepository();
+
+    private final LruCache<String, Post> mCache = new LruCache<>(MAX_SIZE);
+    private final LruCache<String, ThreadPages> mThreads = new LruCache<>(MAX_THREAD_SIZE);
+
+    public static PostRepository getInstance() {
+        return sInstance;
+    }
+
+    private PostRepository() {
+    }
+
+    private static String getKey(Site site, String id) {
+        return site.getId() + "/" + id;
+    }
+
+    /**
+     * The post must be generated
+     */
+    public void put(Post post) {
+        Site site = post.getNMBSite();
+        String id = post.getNMBId();
+        if (site != null && id != null) {
+            mCache.put(getKey(site, id), post);
+        }
+    }
+
+    @Nullable
+    public Post get(Site site, String id) {
+        return mCache.get(getKey(site, id));
+    }
+
+    public void putThreadPages(Site site, String id, ThreadPages pages) {
+        mThreads.put(getKey(site, id), pages);
+    }
+
+    @Nullable
+    public ThreadPages getThreadPages(Site site, String id) {
+        return mThreads.get(getKey(site, id));
+    }
+
+    /**
+     * The generated replies in loaded pages of a thread,
+     * the post is the first one if the start page is 0
+     */
+    public static final class ThreadPages {
+
+        public final List<Reply> replies;
+        /**
+         * The first page got
+         */
+        public final int startPage;
+        /**
+         * The last page got + 1
+         */
+        public final int endPage;
+        public final int pages;
+        /**
+         * -1 for unknown
+         */
+        public final int pageSize;
+
+        public ThreadPages(List<Reply> replies, int startPage, int endPage, int pages, int pageSize) {
+            this.replies = new ArrayList<>(replies);
+            this.startPage = startPage;
+            this.endPage = endPage;
+            this.pages = pages;
+            this.pageSize = pageSize;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.hippo.nimingban.client.data;
 
 import android.os.Parcelable;
+import android.text.TextUtils;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -33,6 +34,11 @@ public abstract class Reply implements Parcelable {
         }
     }
 
+    /**
+     * The username shown in a thread, it is not parcelled
+     */
+    private CharSequence mThreadUsername;
+
     public abstract void generate(Site site);
 
     public abstract Site getNMBSite();
@@ -50,4 +56,24 @@ public abstract class Reply implements Parcelable {
     public abstract String getNMBThumbUrl();
 
     public abstract String getNMBImageUrl();
+
+    /**
+     * @return the username with the poster highlighted, or the display username if not set
+     */
+    public CharSequence getNMBThreadUsername() {
+        return mThreadUsername != null ? mThreadUsername : getNMBDisplayUsername();
+    }
+
+    public void setNMBThreadUsername(CharSequence username) {
+        mThreadUsername = username;
+    }
+
+    /**
+     * @return true if the shown fields are the same
+     */
+    public boolean isSameContent(Reply reply) {
+        return TextUtils.equals(getNMBDisplayUsername(), reply.getNMBDisplayUsername()) &&
+                TextUtils.equals(getNMBDisplayContent(), reply.getNMBDisplayContent()) &&
+                TextUtils.equals(getNMBThumbUrl(), reply.getNMBThumbUrl());
+    }
 }
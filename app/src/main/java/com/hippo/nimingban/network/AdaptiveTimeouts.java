@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.network;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Connect and read timeouts of each host from percentiles of the
+ * recent latencies. A timeout counts as a sample of the timeout itself,
+ * so slow network makes timeouts longer instead of failing again and again.
+ */
+public final class AdaptiveTimeouts {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 10000;
+
+    private static final int MIN_CONNECT_TIMEOUT = 3000;
+    private static final int MAX_CONNECT_TIMEOUT = 15000;
+    private static final int MIN_READ_TIMEOUT = 5000;
+    private static final int MAX_READ_TIMEOUT = 20000;
+
+    private static final int CONNECT_MULTIPLE = 3;
+    private static final int READ_MULTIPLE = 4;
+
+    private static final int WINDOW_SIZE = 32;
+    private static final int MIN_SAMPLES = 8;
+
+    private static final AdaptiveTimeouts sInstance = new AdaptiveTimeouts();
+
+    private final Map<String, Window> mWindows = new HashMap<>();
+
+    public static AdaptiveTimeouts getInstance() {
+        return sInstance;
+    }
+
+    private AdaptiveTimeouts() {
+    }
+
+    private Window getWindow(String host) {
+        Window window = mWindows.get(host);
+        if (window == null) {
+            window = new Window();
+            mWindows.put(host, window);
+        }
+        return window;
+    }
+
+    /**
+     * @param latency time to the response header
+     */
+    public synchronized void onLatency(String host, long latency) {
+        if (latency >= 0) {
+            getWindow(host).add(latency);
+        }
+    }
+
+    public synchronized void onTimeout(String host) {
+        getWindow(host).add(getReadTimeout(host));
+    }
+
+    public synchronized int getConnectTimeout(String host) {
+        Window window = mWindows.get(host);
+        if (window == null || window.count < MIN_SAMPLES) {
+            return DEFAULT_CONNECT_TIMEOUT;
+        }
+        long timeout = window.getPercentile(90) * CONNECT_MULTIPLE;
+        return (int) Math.max(MIN_CONNECT_TIMEOUT, Math.min(MAX_CONNECT_TIMEOUT, timeout));
+    }
+
+    public synchronized int getReadTimeout(String host) {
+        Window window = mWindows.get(host);
+        if (window == null || window.count < MIN_SAMPLES) {
+            return DEFAULT_READ_TIMEOUT;
+        }
+        long timeout = window.getPercentile(95) * READ_MULTIPLE;
+        return (int) Math.max(MIN_READ_TIMEOUT, Math.min(MAX_READ_TIMEOUT, timeout));
+    }
+
+    public synchronized String getDescription() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Window> entry : mWindows.entrySet()) {
+            String host = entry.getKey();
+            Window window = entry.getValue();
+            if (sb.length() != 0) {
+                sb.append('\n');
+            }
+            sb.append(host).append(": p50 ").append(window.getPercentile(50))
+                    .append("ms, p95 ").append(window.getPercentile(95))
+                    .append("ms, timeout ").append(getConnectTimeout(host))
+                    .append('/').append(getReadTimeout(host)).append("ms");
+        }
+        return sb.toString();
+    }
+
+    private static class Window {
+
+        private final long[] mSamples = new long[WINDOW_SIZE];
+        private int mNext;
+        public int count;
+
+        public void add(long sample) {
+            mSamples[mNext] = sample;
+            mNext = (mNext + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+        }
+
+        public long getPercentile(int percent) {
+            if (count == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(mSamples, count);
+            Arrays.sort(sorted);
+            int index = Math.min(count - 1, (count * percent + 99) / 100 - 1);
+            return sorted[Math.max(0, index)];
+        }
+    }
+}
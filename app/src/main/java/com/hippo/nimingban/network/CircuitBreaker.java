@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.network;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fail fast when a host keeps failing. After {@link #FAILURE_THRESHOLD}
+ * failures in a row the circuit of the host opens, and requests to it fail
+ * at once for {@link #OPEN_DURATION}. Then one request is let through,
+ * its result closes or opens the circuit again.
+ */
+public final class CircuitBreaker {
+
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_DURATION = 20 * 1000;
+
+    private static final int STATE_CLOSED = 0;
+    private static final int STATE_OPEN = 1;
+    private static final int STATE_HALF_OPEN = 2;
+
+    private static final CircuitBreaker sInstance = new CircuitBreaker();
+
+    private final Map<String, Circuit> mCircuits = new HashMap<>();
+
+    public static CircuitBreaker getInstance() {
+        return sInstance;
+    }
+
+    private CircuitBreaker() {
+    }
+
+    private Circuit getCircuit(String host) {
+        Circuit circuit = mCircuits.get(host);
+        if (circuit == null) {
+            circuit = new Circuit();
+            mCircuits.put(host, circuit);
+        }
+        return circuit;
+    }
+
+    /**
+     * @return false if the request should fail at once
+     */
+    public synchronized boolean allowRequest(String host) {
+        Circuit circuit = mCircuits.get(host);
+        if (circuit == null) {
+            return true;
+        }
+        switch (circuit.state) {
+            default:
+            case STATE_CLOSED:
+                return true;
+            case STATE_OPEN:
+            case STATE_HALF_OPEN:
+                // In half open, wait for the trial. If it never reports, try again.
+                long now = SystemClock.elapsedRealtime();
+                if (now - circuit.openTime >= OPEN_DURATION) {
+                    // Let this one try
+                    circuit.state = STATE_HALF_OPEN;
+                    circuit.openTime = now;
+                    return true;
+                } else {
+                    return false;
+                }
+        }
+    }
+
+    public synchronized void onSuccess(String host) {
+        Circuit circuit = mCircuits.get(host);
+        if (circuit != null) {
+            circuit.state = STATE_CLOSED;
+            circuit.failures = 0;
+        }
+    }
+
+    public synchronized void onFailure(String host) {
+        Circuit circuit = getCircuit(host);
+        circuit.failures++;
+        if (circuit.state == STATE_HALF_OPEN || circuit.failures >= FAILURE_THRESHOLD) {
+            circuit.state = STATE_OPEN;
+            circuit.openTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public synchronized String getDescription() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Circuit> entry : mCircuits.entrySet()) {
+            Circuit circuit = entry.getValue();
+            if (sb.length() != 0) {
+                sb.append('\n');
+            }
+            sb.append(entry.getKey()).append(": ")
+                    .append(circuit.state == STATE_CLOSED ? "closed" :
+                            circuit.state == STATE_OPEN ? "open" : "half open")
+                    .append(", ").append(circuit.failures).append(" failures");
+        }
+        return sb.toString();
+    }
+
+    private static class Circuit {
+        public int state = STATE_CLOSED;
+        public int failures;
+        public long openTime;
+    }
+}
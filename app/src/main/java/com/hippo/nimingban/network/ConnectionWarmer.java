@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.network;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.hippo.yorozuya.IOUtils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Open idle keep-alive connections in background, so requests taken
+ * from the pool don't wait for DNS and TCP handshake. Only the pooled
+ * connection is kept warm, no resolution is cached here, and the cache
+ * of InetAddress only keeps a lookup for a few seconds. A host is warmed
+ * again only after TTL, while its connection is assumed alive.
+ * If a request starts before the warming is done, it opens its own
+ * connection, the warmed one still serves the thumbnails after it.
+ */
+public final class ConnectionWarmer {
+
+    private static final String TAG = ConnectionWarmer.class.getSimpleName();
+
+    /**
+     * Idle connection is assumed alive in it
+     */
+    private static final long CONNECTION_TTL = 60 * 1000;
+
+    private static final int TIMEOUT = 5000;
+
+    private static final ConnectionWarmer sInstance = new ConnectionWarmer();
+
+    private final Map<String, Long> mConnectTimes = new HashMap<>();
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(TAG) {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            };
+        }
+    });
+
+    public static ConnectionWarmer getInstance() {
+        return sInstance;
+    }
+
+    private ConnectionWarmer() {
+    }
+
+    /**
+     * Forget warmed hosts, call it when network changes
+     */
+    public synchronized void reset() {
+        mConnectTimes.clear();
+    }
+
+    private synchronized boolean needConnect(String host) {
+        Long time = mConnectTimes.get(host);
+        return time == null || SystemClock.elapsedRealtime() - time >= CONNECTION_TTL;
+    }
+
+    /**
+     * Warm up the hosts over http in background
+     */
+    public void warm(final String... hosts) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String host : hosts) {
+                    connect(host);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send a HEAD request and read it to end without disconnecting,
+     * so the connection goes back to the pool for next request.
+     */
+    private void connect(String host) {
+        if (!needConnect(host)) {
+            return;
+        }
+
+        HttpURLConnection conn = null;
+        InputStream is = null;
+        try {
+            conn = (HttpURLConnection) new URL("http://" + host + "/").openConnection();
+            conn.setRequestMethod("HEAD");
+            conn.setConnectTimeout(TIMEOUT);
+            conn.setReadTimeout(TIMEOUT);
+            conn.getResponseCode();
+            is = conn.getInputStream();
+            IOUtils.copy(is, new NullOutputStream());
+            synchronized (this) {
+                mConnectTimes.put(host, SystemClock.elapsedRealtime());
+            }
+        } catch (Exception e) {
+            Log.d(TAG, "Can't connect " + host, e);
+            if (conn != null) {
+                conn.disconnect();
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int oneByte) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) {
+        }
+    }
+}
@@ -17,12 +17,20 @@
 package com.hippo.nimingban.network;
 
 import android.content.Context;
+import android.os.SystemClock;
 
 import com.hippo.httpclient.Cookie;
 import com.hippo.httpclient.HttpClient;
+import com.hippo.httpclient.HttpRequest;
+import com.hippo.httpclient.HttpResponse;
 import com.hippo.nimingban.NMBApplication;
+import com.hippo.nimingban.client.ac.ACHostSelector;
+
+import org.apache.http.conn.ConnectTimeoutException;
 
 import java.net.HttpCookie;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.List;
 
@@ -30,17 +38,82 @@ public class NMBHttpClient extends HttpClient {
 
     private SimpleCookieStore mCookieStore;
 
+    /**
+     * The url of current request in this thread, got when filling cookie
+     */
+    private final ThreadLocal<URL> mRequestUrl = new ThreadLocal<>();
+
     public NMBHttpClient(Context context) {
         mCookieStore = NMBApplication.getSimpleCookieStore(context);
-        setConnectTimeout(10000); // 10s
-        setReadTimeout(10000); // 10s
+    }
+
+    private static boolean isTimeout(Exception e) {
+        return e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws Exception {
+        mRequestUrl.set(null);
+        // Timeouts are of the client, not the request. Execute with
+        // a client for this request only, so requests in other threads
+        // keep their timeouts.
+        AdaptiveTimeouts timeouts = AdaptiveTimeouts.getInstance();
+        URL requestUrl = request.getUrl();
+        String timeoutHost = requestUrl != null ? requestUrl.getHost() : ACHostSelector.getInstance().getHost();
+        HttpClient client = new RequestClient();
+        client.setConnectTimeout(timeouts.getConnectTimeout(timeoutHost));
+        client.setReadTimeout(timeouts.getReadTimeout(timeoutHost));
+
+        long start = SystemClock.elapsedRealtime();
+        HttpResponse response;
+        try {
+            response = client.execute(request);
+        } catch (Exception e) {
+            URL url = mRequestUrl.get();
+            if (url != null && !request.isCancelled()) {
+                String host = url.getHost();
+                ACHostSelector.getInstance().onFailure(host);
+                CircuitBreaker.getInstance().onFailure(host);
+                if (isTimeout(e)) {
+                    timeouts.onTimeout(host);
+                }
+            }
+            throw e;
+        }
+        // Time to the response header
+        long latency = SystemClock.elapsedRealtime() - start;
+        NetworkQualityEstimator.getInstance().onLatency(latency);
+        URL url = mRequestUrl.get();
+        if (url != null) {
+            String host = url.getHost();
+            ACHostSelector.getInstance().onSuccess(host, latency);
+            CircuitBreaker.getInstance().onSuccess(host);
+            timeouts.onLatency(host, latency);
+        }
+        return response;
+    }
+
+    /**
+     * Mirrors of AC share cookies of {@link com.hippo.nimingban.client.ac.ACUrl#HOST}
+     */
+    private static URL getCookieUrl(URL url) {
+        if (ACHostSelector.isMirror(url.getHost())) {
+            try {
+                return new URL(ACHostSelector.canonicalize(url.toString()));
+            } catch (MalformedURLException e) {
+                return url;
+            }
+        } else {
+            return url;
+        }
     }
 
     @Override
     protected void fillCookie(URL url, Cookie cookie) {
         super.fillCookie(url, cookie);
+        mRequestUrl.set(url);
 
-        List<HttpCookie> httpCookies = mCookieStore.get(url);
+        List<HttpCookie> httpCookies = mCookieStore.get(getCookieUrl(url));
         for (HttpCookie httpCookie : httpCookies) {
             cookie.put(httpCookie.getName(), httpCookie.getValue());
         }
@@ -53,10 +126,26 @@ public class NMBHttpClient extends HttpClient {
         try {
             List<HttpCookie> httpCookies = HttpCookie.parse(key + ": " + value);
             for (HttpCookie httpCookie : httpCookies) {
-                mCookieStore.add(url, httpCookie);
+                mCookieStore.add(getCookieUrl(url), httpCookie);
             }
         } catch (Exception e) {
             // Ignore
         }
     }
+
+    /**
+     * Holds the timeouts of one request, cookies go to the outer client
+     */
+    private class RequestClient extends HttpClient {
+
+        @Override
+        protected void fillCookie(URL url, Cookie cookie) {
+            NMBHttpClient.this.fillCookie(url, cookie);
+        }
+
+        @Override
+        protected void storeCookie(URL url, String key, String value) {
+            NMBHttpClient.this.storeCookie(url, key, value);
+        }
+    }
 }
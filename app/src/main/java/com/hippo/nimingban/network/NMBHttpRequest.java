@@ -26,4 +26,8 @@ public class NMBHttpRequest extends HttpRequest {
     public NMBHttpRequest(Site site) {
         mSite = site;
     }
+
+    public Site getSite() {
+        return mSite;
+    }
 }
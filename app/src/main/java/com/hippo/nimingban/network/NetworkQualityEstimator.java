@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.network;
+
+import android.content.Context;
+
+import com.hippo.nimingban.NMBApplication;
+import com.hippo.nimingban.util.Settings;
+
+/**
+ * Estimate latency and bandwidth from real transfers, and decide
+ * whether thumbnails should be loaded. The data used on the network
+ * which is not Wi-Fi is counted for the budget of this session.
+ */
+public final class NetworkQualityEstimator {
+
+    public static final int QUALITY_UNKNOWN = 0;
+    public static final int QUALITY_POOR = 1;
+    public static final int QUALITY_MODERATE = 2;
+    public static final int QUALITY_GOOD = 3;
+
+    public static final int IMAGE_LOAD = 0;
+    /**
+     * Load from cache now, load from network when idle
+     */
+    public static final int IMAGE_DEFER = 1;
+    /**
+     * Load from cache only
+     */
+    public static final int IMAGE_SKIP = 2;
+
+    /**
+     * Weight of new sample
+     */
+    private static final float ALPHA = 0.25f;
+
+    /**
+     * Too small transfer tells latency, not bandwidth
+     */
+    private static final long MIN_BANDWIDTH_SAMPLE_BYTES = 8 * 1024;
+
+    private static final int MIN_SAMPLES = 3;
+
+    private static final long POOR_LATENCY = 1500;
+    private static final long GOOD_LATENCY = 400;
+    private static final long POOR_BANDWIDTH = 30 * 1024;
+    private static final long GOOD_BANDWIDTH = 300 * 1024;
+
+    private static final NetworkQualityEstimator sInstance = new NetworkQualityEstimator();
+
+    private float mLatency;
+    private int mLatencySamples;
+    private float mBandwidth;
+    private int mBandwidthSamples;
+
+    private boolean mMetered;
+    private long mMeteredBytes;
+
+    public static NetworkQualityEstimator getInstance() {
+        return sInstance;
+    }
+
+    private NetworkQualityEstimator() {
+    }
+
+    /**
+     * Forget the samples, call it when network changes
+     */
+    public synchronized void reset(boolean wifi) {
+        mLatencySamples = 0;
+        mBandwidthSamples = 0;
+        mMetered = !wifi;
+    }
+
+    /**
+     * @param millis time to the first byte of the response
+     */
+    public synchronized void onLatency(long millis) {
+        if (millis < 0) {
+            return;
+        }
+        mLatency = mLatencySamples == 0 ? millis : mLatency + ALPHA * (millis - mLatency);
+        mLatencySamples++;
+    }
+
+    /**
+     * Image bodies from network are reported to it: thumbnails, prefetched
+     * thumbnails, full images and downloads. API responses are small text
+     * and not reported, so the data budget is for images only.
+     *
+     * @param bytes the size of the body
+     * @param millis time to read the body
+     */
+    public synchronized void onTransfer(long bytes, long millis) {
+        if (bytes <= 0) {
+            return;
+        }
+
+        if (mMetered) {
+            mMeteredBytes += bytes;
+        }
+
+        if (bytes >= MIN_BANDWIDTH_SAMPLE_BYTES && millis > 0) {
+            float bandwidth = bytes * 1000.0f / millis;
+            mBandwidth = mBandwidthSamples == 0 ? bandwidth : mBandwidth + ALPHA * (bandwidth - mBandwidth);
+            mBandwidthSamples++;
+        }
+    }
+
+    public synchronized long getLatency() {
+        return mLatencySamples == 0 ? -1 : (long) mLatency;
+    }
+
+    /**
+     * @return bytes per second, -1 for unknown
+     */
+    public synchronized long getBandwidth() {
+        return mBandwidthSamples == 0 ? -1 : (long) mBandwidth;
+    }
+
+    public synchronized long getMeteredBytes() {
+        return mMeteredBytes;
+    }
+
+    public synchronized int getQuality() {
+        boolean hasLatency = mLatencySamples >= MIN_SAMPLES;
+        boolean hasBandwidth = mBandwidthSamples >= MIN_SAMPLES;
+        if (!hasLatency && !hasBandwidth) {
+            return QUALITY_UNKNOWN;
+        }
+
+        if ((hasLatency && mLatency >= POOR_LATENCY) || (hasBandwidth && mBandwidth <= POOR_BANDWIDTH)) {
+            return QUALITY_POOR;
+        } else if ((!hasLatency || mLatency <= GOOD_LATENCY) && (!hasBandwidth || mBandwidth >= GOOD_BANDWIDTH)) {
+            return QUALITY_GOOD;
+        } else {
+            return QUALITY_MODERATE;
+        }
+    }
+
+    public synchronized boolean isOverBudget() {
+        long budget = Settings.getDataBudget();
+        return mMetered && budget > 0 && mMeteredBytes >= budget;
+    }
+
+    /**
+     * @return {@link #IMAGE_LOAD}, {@link #IMAGE_DEFER} or {@link #IMAGE_SKIP}
+     */
+    public int getImageDecision(Context context) {
+        switch (Settings.getImageLoadingStrategy()) {
+            case Settings.IMAGE_LOADING_STRATEGY_ALL:
+                return IMAGE_LOAD;
+            case Settings.IMAGE_LOADING_STRATEGY_WIFI:
+                return NMBApplication.isConnectedWifi(context) ? IMAGE_LOAD : IMAGE_SKIP;
+            case Settings.IMAGE_LOADING_STRATEGY_NO:
+                return IMAGE_SKIP;
+            default:
+            case Settings.IMAGE_LOADING_STRATEGY_AUTO:
+                if (isOverBudget()) {
+                    return IMAGE_SKIP;
+                } else {
+                    return getQuality() == QUALITY_POOR ? IMAGE_DEFER : IMAGE_LOAD;
+                }
+        }
+    }
+
+    public synchronized String getDescription() {
+        return "latency: " + getLatency() + "ms\n" +
+                "bandwidth: " + (getBandwidth() < 0 ? -1 : getBandwidth() / 1024) + "KB/s\n" +
+                "quality: " + getQuality() + "\n" +
+                "metered data: " + mMeteredBytes / 1024 + "KB";
+    }
+}
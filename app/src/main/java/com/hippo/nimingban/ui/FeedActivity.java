@@ -33,11 +33,15 @@ import com.hippo.nimingban.client.NMBClient;
 import com.hippo.nimingban.client.NMBRequest;
 import com.hippo.nimingban.client.data.ACSite;
 import com.hippo.nimingban.client.data.Post;
+import com.hippo.nimingban.client.data.PostRepository;
 import com.hippo.nimingban.client.data.Site;
+import com.hippo.nimingban.network.NetworkQualityEstimator;
 import com.hippo.nimingban.util.ReadableTime;
 import com.hippo.nimingban.util.Settings;
 import com.hippo.nimingban.widget.ContentLayout;
+import com.hippo.nimingban.widget.FrameMonitor;
 import com.hippo.nimingban.widget.LoadImageView;
+import com.hippo.nimingban.widget.MeasuredAdapter;
 import com.hippo.rippleold.RippleSalon;
 import com.hippo.widget.recyclerview.EasyRecyclerView;
 import com.hippo.widget.recyclerview.MarginItemDecoration;
@@ -85,6 +89,7 @@ public final class FeedActivity extends AbsActivity implements EasyRecyclerView.
         mFeedAdapter = new FeedAdapter();
         recyclerView.setAdapter(mFeedAdapter);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        FrameMonitor.attach(recyclerView);
         recyclerView.setSelector(RippleSalon.generateRippleDrawable(ResourcesUtils.getAttrBoolean(this, R.attr.dark)));
         recyclerView.setDrawSelectorOnTop(true);
         recyclerView.setOnItemClickListener(this);
@@ -110,8 +115,11 @@ public final class FeedActivity extends AbsActivity implements EasyRecyclerView.
     @Override
     public boolean onItemClick(EasyRecyclerView parent, View view, int position, long id) {
         Intent intent = new Intent(this, PostActivity.class);
-        intent.setAction(PostActivity.ACTION_POST);
-        intent.putExtra(PostActivity.KEY_POST, mFeedHelper.getDataAt(position));
+        Post post = mFeedHelper.getDataAt(position);
+        PostRepository.getInstance().put(post);
+        intent.setAction(PostActivity.ACTION_SITE_ID);
+        intent.putExtra(PostActivity.KEY_SITE, post.getNMBSite().getId());
+        intent.putExtra(PostActivity.KEY_ID, post.getNMBId());
         startActivity(intent);
         return true;
     }
@@ -148,13 +156,14 @@ public final class FeedActivity extends AbsActivity implements EasyRecyclerView.
                     intent.putExtra(GalleryActivity2.KEY_SITE, post.getNMBSite().getId());
                     intent.putExtra(GalleryActivity2.KEY_ID, post.getNMBId());
                     intent.putExtra(GalleryActivity2.KEY_IMAGE, image);
+                    intent.putExtra(GalleryActivity2.KEY_THUMB, post.getNMBThumbUrl());
                     FeedActivity.this.startActivity(intent);
                 }
             }
         }
     }
 
-    private class FeedAdapter extends RecyclerView.Adapter<FeedHolder> {
+    private class FeedAdapter extends MeasuredAdapter<FeedHolder> {
 
         @Override
         public FeedHolder onCreateViewHolder(ViewGroup viewGroup, int i) {
@@ -162,7 +171,7 @@ public final class FeedActivity extends AbsActivity implements EasyRecyclerView.
         }
 
         @Override
-        public void onBindViewHolder(FeedHolder holder, int i) {
+        public void onBind(FeedHolder holder, int i) {
             Post post = mFeedHelper.getDataAt(i);
             holder.leftText.setText(post.getNMBDisplayUsername());
             holder.centerText.setText("No." + post.getNMBId());
@@ -171,24 +180,20 @@ public final class FeedActivity extends AbsActivity implements EasyRecyclerView.
 
             String thumbUrl = post.getNMBThumbUrl();
 
-            boolean showImage;
-            boolean loadFromNetwork;
-            int ils = Settings.getImageLoadingStrategy();
-            if (ils == Settings.IMAGE_LOADING_STRATEGY_ALL ||
-                    (ils == Settings.IMAGE_LOADING_STRATEGY_WIFI && NMBApplication.isConnectedWifi(FeedActivity.this))) {
-                showImage = true;
-                loadFromNetwork = true;
-            } else {
-                showImage = Settings.getImageLoadingStrategy2();
-                loadFromNetwork = false;
-            }
+            int decision = NetworkQualityEstimator.getInstance().getImageDecision(FeedActivity.this);
+            boolean showImage = decision != NetworkQualityEstimator.IMAGE_SKIP ||
+                    Settings.getImageLoadingStrategy2();
 
             if (!TextUtils.isEmpty(thumbUrl) && showImage) {
                 holder.thumb.setVisibility(View.VISIBLE);
-                holder.thumb.load(thumbUrl, thumbUrl, loadFromNetwork);
+                if (decision == NetworkQualityEstimator.IMAGE_DEFER) {
+                    holder.thumb.loadDeferred(thumbUrl, thumbUrl);
+                } else {
+                    holder.thumb.load(thumbUrl, thumbUrl, decision == NetworkQualityEstimator.IMAGE_LOAD);
+                }
             } else {
                 holder.thumb.setVisibility(View.GONE);
-                mConaco.load(holder.thumb, null);
+                holder.thumb.unload();
             }
 
             holder.content.setTextSize(Settings.getFontSize());
@@ -234,6 +239,21 @@ public final class FeedActivity extends AbsActivity implements EasyRecyclerView.
         protected void notifyItemRangeInserted(int positionStart, int itemCount) {
             mFeedAdapter.notifyItemRangeInserted(positionStart, itemCount);
         }
+
+        @Override
+        protected void notifyItemRangeChanged(int positionStart, int itemCount) {
+            mFeedAdapter.notifyItemRangeChanged(positionStart, itemCount);
+        }
+
+        @Override
+        protected String getDataId(Post data) {
+            return data.getNMBId();
+        }
+
+        @Override
+        protected boolean isSameContent(Post oldData, Post newData) {
+            return oldData.isSameContent(newData);
+        }
     }
 
     private class FeedListener implements NMBClient.Callback<List<Post>> {
@@ -16,57 +16,71 @@
 
 package com.hippo.nimingban.ui;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.view.ViewPager;
+import android.text.TextUtils;
+import android.util.Pair;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.webkit.MimeTypeMap;
 import android.widget.Toast;
 
-import com.hippo.conaco.Conaco;
 import com.hippo.io.FileInputStreamPipe;
 import com.hippo.nimingban.NMBApplication;
 import com.hippo.nimingban.R;
+import com.hippo.nimingban.client.NMBClient;
+import com.hippo.nimingban.client.NMBRequest;
+import com.hippo.nimingban.client.NMBUrl;
+import com.hippo.nimingban.client.data.Post;
+import com.hippo.nimingban.client.data.PostRepository;
+import com.hippo.nimingban.client.data.Reply;
 import com.hippo.nimingban.client.data.Site;
+import com.hippo.nimingban.util.ImageSaver;
 import com.hippo.nimingban.util.Settings;
 import com.hippo.nimingban.widget.GalleryPage;
 import com.hippo.unifile.UniFile;
 import com.hippo.widget.viewpager.PagerHolder;
 import com.hippo.widget.viewpager.RecyclerPagerAdapter;
-import com.hippo.yorozuya.FileUtils;
-import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.MathUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
-// TODO show all image in post
 public class GalleryActivity2 extends SwipeActivity {
 
     public static final String ACTION_SINGLE_IMAGE = "com.hippo.nimingban.ui.GalleryActivity2.action.SINGLE_IMAGE";
     public static final String ACTION_IMAGE_FILE = "com.hippo.nimingban.ui.GalleryActivity2.action.IMAGE_FILE";
+    public static final String ACTION_THREAD_IMAGES = "com.hippo.nimingban.ui.GalleryActivity2.action.THREAD_IMAGES";
 
     public static final String KEY_SITE = "site";
     public static final String KEY_ID = "id";
     public static final String KEY_IMAGE = "image";
+    public static final String KEY_THUMB = "thumb";
     public static final String KEY_FILE_URI = "file_uri";
+    public static final String KEY_REPLY_ID = "reply_id";
+
+    /**
+     * Get more thread pages when the distance to the end is less than it
+     */
+    private static final int LOAD_MORE_DISTANCE = 3;
 
     private ViewPager mViewPager;
     private GalleryAdapter mGalleryAdapter;
 
     private SaveTask mSaveTask;
 
+    private int mStartPosition;
+
     private boolean handlerIntent(Intent intent) {
         if (intent == null) {
             return false;
@@ -77,8 +91,26 @@ public class GalleryActivity2 extends SwipeActivity {
             int site = intent.getIntExtra(KEY_SITE, -1);
             String id = intent.getStringExtra(KEY_ID);
             String image = intent.getStringExtra(KEY_IMAGE);
+            String thumb = intent.getStringExtra(KEY_THUMB);
             if (Site.isValid(site) && id != null && image != null) {
-                mGalleryAdapter = new SingleImageAdapter(Site.fromId(site), id, image);
+                mGalleryAdapter = new SingleImageAdapter(Site.fromId(site), id, image, thumb);
+                return true;
+            }
+        } else if (ACTION_THREAD_IMAGES.equals(action)) {
+            int site = intent.getIntExtra(KEY_SITE, -1);
+            String id = intent.getStringExtra(KEY_ID);
+            String replyId = intent.getStringExtra(KEY_REPLY_ID);
+            if (Site.isValid(site) && id != null && replyId != null) {
+                // Pages are got again if they are not in repository
+                Site threadSite = Site.fromId(site);
+                ThreadImagesAdapter adapter = new ThreadImagesAdapter(threadSite, id,
+                        PostRepository.getInstance().getThreadPages(threadSite, id));
+                mStartPosition = adapter.indexOfId(replyId);
+                if (mStartPosition < 0) {
+                    mStartPosition = 0;
+                    adapter.setTargetId(replyId);
+                }
+                mGalleryAdapter = adapter;
                 return true;
             }
         } else if (ACTION_IMAGE_FILE.equals(action)) {
@@ -116,6 +148,28 @@ public class GalleryActivity2 extends SwipeActivity {
         mViewPager = (ViewPager) findViewById(R.id.view_pager);
 
         mViewPager.setAdapter(mGalleryAdapter);
+
+        if (mGalleryAdapter instanceof ThreadImagesAdapter) {
+            final ThreadImagesAdapter adapter = (ThreadImagesAdapter) mGalleryAdapter;
+            mViewPager.setOffscreenPageLimit(getPrefetchWindow());
+            mViewPager.setCurrentItem(MathUtils.clamp(mStartPosition, 0, Math.max(adapter.getCount() - 1, 0)));
+            mViewPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+                @Override
+                public void onPageSelected(int position) {
+                    adapter.onPageSelected(position);
+                }
+            });
+            adapter.onPageSelected(mViewPager.getCurrentItem());
+        }
+    }
+
+    /**
+     * How many images are loaded and decoded on each side of current one,
+     * the full images are large, so it depends on memory class.
+     */
+    private int getPrefetchWindow() {
+        ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        return MathUtils.clamp(activityManager.getMemoryClass() / 64, 1, 3);
     }
 
     @Override
@@ -136,6 +190,10 @@ public class GalleryActivity2 extends SwipeActivity {
             mSaveTask.onActivityDestory();
             mSaveTask = null;
         }
+
+        if (mGalleryAdapter instanceof ThreadImagesAdapter) {
+            ((ThreadImagesAdapter) mGalleryAdapter).cancelRequest();
+        }
     }
 
     @Override
@@ -250,16 +308,18 @@ public class GalleryActivity2 extends SwipeActivity {
         private Site mSite;
         private String mId;
         private String mImage;
+        private String mThumb;
 
-        public SingleImageAdapter(Site site, String id, String image) {
+        public SingleImageAdapter(Site site, String id, String image, String thumb) {
             mSite = site;
             mId = id;
             mImage = image;
+            mThumb = thumb;
         }
 
         @Override
         public void bindPagerHolder(GalleryHolder holder, int position) {
-            holder.galleryPage.load(mId, mImage);
+            holder.galleryPage.load(mId, mImage, mThumb);
         }
 
         @Override
@@ -297,33 +357,246 @@ public class GalleryActivity2 extends SwipeActivity {
         }
     }
 
-    private static abstract class SaveTask extends AsyncTask<Void, Void, Boolean> {
+    private class ThreadImagesAdapter extends GalleryAdapter {
 
-        public abstract void onActivityDestory();
+        private Site mSite;
+        private String mPostId;
+        private final ArrayList<String> mIds = new ArrayList<>();
+        private final ArrayList<String> mImages = new ArrayList<>();
+        private final ArrayList<String> mThumbs = new ArrayList<>();
+
+        /**
+         * The first page got
+         */
+        private int mStartPage;
+        /**
+         * The last page got + 1
+         */
+        private int mEndPage;
+        private int mPages;
+        private int mPageSize;
+
+        /**
+         * The reply to show when its page is got
+         */
+        private String mTargetId;
+
+        private NMBRequest mNMBRequest;
+
+        /**
+         * @param threadPages null to get pages from the first one
+         */
+        public ThreadImagesAdapter(Site site, String postId,
+                @Nullable PostRepository.ThreadPages threadPages) {
+            mSite = site;
+            mPostId = postId;
+            if (threadPages != null) {
+                addImages(0, threadPages.replies);
+                mStartPage = threadPages.startPage;
+                mEndPage = threadPages.endPage;
+                mPages = threadPages.pages;
+                mPageSize = threadPages.pageSize;
+            } else {
+                mStartPage = 0;
+                mEndPage = 0;
+                mPages = Integer.MAX_VALUE;
+                mPageSize = -1;
+            }
+        }
+
+        public int indexOfId(String id) {
+            return mIds.indexOf(id);
+        }
+
+        public void setTargetId(String id) {
+            mTargetId = id;
+        }
+
+        /**
+         * @return the count of added images
+         */
+        private int addImages(int index, List<Reply> replies) {
+            int count = 0;
+            for (Reply reply : replies) {
+                String image = reply.getNMBImageUrl();
+                if (!TextUtils.isEmpty(image)) {
+                    mIds.add(index + count, reply.getNMBId());
+                    mImages.add(index + count, image);
+                    mThumbs.add(index + count, reply.getNMBThumbUrl());
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void bindPagerHolder(GalleryHolder holder, int position) {
+            holder.galleryPage.load(mIds.get(position), mImages.get(position), mThumbs.get(position));
+        }
+
+        @Override
+        public void unbindPagerHolder(GalleryHolder holder, int position) {
+            holder.galleryPage.unload();
+        }
+
+        @Override
+        public int getCount() {
+            return mImages.size();
+        }
+
+        public void onPageSelected(int position) {
+            if (mNMBRequest != null) {
+                return;
+            }
+
+            if (position >= getCount() - LOAD_MORE_DISTANCE && mEndPage < mPages) {
+                getPage(mEndPage);
+            } else if (position < LOAD_MORE_DISTANCE && mStartPage > 0) {
+                getPage(mStartPage - 1);
+            }
+        }
+
+        private void getPage(int page) {
+            NMBRequest request = new NMBRequest();
+            mNMBRequest = request;
+            request.setSite(mSite);
+            request.setMethod(NMBClient.METHOD_GET_POST);
+            request.setArgs(NMBUrl.getPostUrl(mSite, mPostId, page));
+            request.setCallback(new ThreadPageListener(this, page, request));
+            NMBApplication.getNMBClient(GalleryActivity2.this).execute(request);
+        }
+
+        public void cancelRequest() {
+            if (mNMBRequest != null) {
+                mNMBRequest.cancel();
+                mNMBRequest = null;
+            }
+        }
+
+        public void onGetPage(NMBRequest request, int page, Post post, List<Reply> replies) {
+            if (mNMBRequest != request) {
+                return;
+            }
+            mNMBRequest = null;
+
+            if (page == 0) {
+                if (mPageSize <= 0) {
+                    mPageSize = replies.size();
+                }
+                replies.add(0, post);
+            }
+            if (mPageSize > 0) {
+                mPages = Math.max(1, MathUtils.ceilDivide(post.getNMBReplyCount(), mPageSize));
+            }
+
+            if (page == mEndPage) {
+                mEndPage++;
+                if (replies.isEmpty()) {
+                    // No more
+                    mPages = page;
+                }
+                int start = mImages.size();
+                int count = addImages(start, replies);
+                if (count > 0) {
+                    notifyItemRangeInserted(start, count);
+                }
+            } else if (page == mStartPage - 1) {
+                mStartPage--;
+                int count = addImages(0, replies);
+                if (count > 0) {
+                    // ViewPager moves current item with the holder
+                    notifyItemRangeInserted(0, count);
+                }
+            }
+
+            if (mTargetId != null) {
+                int index = mIds.indexOf(mTargetId);
+                if (index >= 0) {
+                    mTargetId = null;
+                    mViewPager.setCurrentItem(index, false);
+                } else if (mEndPage < mPages) {
+                    // Go on to the page of the reply
+                    getPage(mEndPage);
+                    return;
+                } else {
+                    // Not found
+                    mTargetId = null;
+                }
+            }
+
+            // A page might have no image, keep going
+            onPageSelected(mViewPager.getCurrentItem());
+        }
+
+        public void onGetPageFailed(NMBRequest request) {
+            if (mNMBRequest == request) {
+                mNMBRequest = null;
+            }
+        }
+
+        @Override
+        public void saveCurrentImage() {
+            int position = mViewPager.getCurrentItem();
+            GalleryHolder holder = getPagerHolder(position);
+            if (holder == null || !holder.galleryPage.isLoaded()) {
+                onSaveTaskOver(false);
+                return;
+            }
+
+            UniFile dir = Settings.getImageSaveLocation();
+            if (dir == null) {
+                onSaveTaskOver(false);
+                return;
+            }
+
+            UniFile uniFile = dir.createFile(mSite.getReadableName(GalleryActivity2.this) + "-" + mIds.get(position));
+            if (uniFile == null) {
+                onSaveTaskOver(false);
+                return;
+            }
+
+            mSaveTask = new SingleImageSaveTask(GalleryActivity2.this, uniFile, mImages.get(position));
+            mSaveTask.execute();
+        }
     }
 
-    private static boolean addImageExtension(UniFile uniFile) {
-        String filename = uniFile.getName();
-        String extension = FileUtils.getExtensionFromFilename(filename);
-        if (extension != null) {
-            return true;
-        }
-
-        // Get extexsin
-        InputStream is = null;
-        try {
-            is = uniFile.openInputStream();
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(is, null, options);
-            extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(options.outMimeType);
-        } catch (IOException e) {
-            return false;
-        } finally {
-            IOUtils.closeQuietly(is);
+    private static class ThreadPageListener implements NMBClient.Callback<Pair<Post, List<Reply>>> {
+
+        private ThreadImagesAdapter mAdapter;
+        private int mPage;
+        private NMBRequest mRequest;
+
+        public ThreadPageListener(ThreadImagesAdapter adapter, int page, NMBRequest request) {
+            mAdapter = adapter;
+            mPage = page;
+            mRequest = request;
         }
 
-        return uniFile.renameTo(filename + "." + extension);
+        @Override
+        public void onSuccess(Pair<Post, List<Reply>> result) {
+            mAdapter.onGetPage(mRequest, mPage, result.first, result.second);
+            mAdapter = null;
+            mRequest = null;
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            mAdapter.onGetPageFailed(mRequest);
+            mAdapter = null;
+            mRequest = null;
+        }
+
+        @Override
+        public void onCancelled() {
+            mAdapter.onGetPageFailed(mRequest);
+            mAdapter = null;
+            mRequest = null;
+        }
+    }
+
+    private static abstract class SaveTask extends AsyncTask<Void, Void, Boolean> {
+
+        public abstract void onActivityDestory();
     }
 
     private static class ImageFileSaveTask extends SaveTask {
@@ -340,28 +613,7 @@ public class GalleryActivity2 extends SwipeActivity {
 
         @Override
         protected Boolean doInBackground(Void... params) {
-            boolean ok = true;
-
-            InputStream is = null;
-            OutputStream os = null;
-            try {
-                is = new FileInputStream(mFrom);
-                os = mTo.openOutputStream();
-                IOUtils.copy(is, os);
-                ok = true;
-            } catch (IOException e) {
-                ok = false;
-            } finally {
-                IOUtils.closeQuietly(is);
-                IOUtils.closeQuietly(os);
-            }
-
-            if (!ok) {
-                mTo.delete();
-                return false;
-            }
-
-            return addImageExtension(mTo);
+            return ImageSaver.save(mFrom, mTo);
         }
 
         @Override
@@ -391,25 +643,8 @@ public class GalleryActivity2 extends SwipeActivity {
 
         @Override
         protected Boolean doInBackground(Void... params) {
-            boolean ok = true;
-
-            OutputStream os = null;
-            try {
-                os = mUniFile.openOutputStream();
-                Conaco conaco = NMBApplication.getConaco(mContext);
-                ok = conaco.getBeerBelly().pullFromDiskCache(mKey, os);
-            } catch (IOException e) {
-                ok = false;
-            } finally {
-                IOUtils.closeQuietly(os);
-            }
-
-            if (!ok) {
-                mUniFile.delete();
-                return false;
-            }
-
-            return addImageExtension(mUniFile);
+            // Only from disk cache
+            return ImageSaver.save(NMBApplication.getConaco(mContext), mKey, mUniFile);
         }
 
         @Override
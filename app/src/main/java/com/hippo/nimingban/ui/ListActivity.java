@@ -52,21 +52,31 @@ import com.hippo.nimingban.client.NMBException;
 import com.hippo.nimingban.client.NMBRequest;
 import com.hippo.nimingban.client.NMBUrl;
 import com.hippo.nimingban.client.UpdateHelper;
+import com.hippo.nimingban.client.ac.ACHostSelector;
 import com.hippo.nimingban.client.data.ACSite;
 import com.hippo.nimingban.client.data.DisplayForum;
 import com.hippo.nimingban.client.data.DumpSite;
 import com.hippo.nimingban.client.data.Forum;
 import com.hippo.nimingban.client.data.Post;
+import com.hippo.nimingban.client.data.PostRepository;
 import com.hippo.nimingban.client.data.UpdateInfo;
 import com.hippo.nimingban.client.data.UpdateStatus;
+import com.hippo.nimingban.network.ConnectionWarmer;
+import com.hippo.nimingban.network.NetworkQualityEstimator;
 import com.hippo.nimingban.util.Crash;
 import com.hippo.nimingban.util.DB;
 import com.hippo.nimingban.util.ReadableTime;
 import com.hippo.nimingban.util.Settings;
 import com.hippo.nimingban.widget.ContentLayout;
+import com.hippo.nimingban.widget.FrameMonitor;
 import com.hippo.nimingban.widget.LeftDrawer;
 import com.hippo.nimingban.widget.LoadImageView;
+import com.hippo.nimingban.widget.MeasuredAdapter;
 import com.hippo.nimingban.widget.RightDrawer;
+import com.hippo.nimingban.widget.TextLayoutPrecomputer;
+import com.hippo.nimingban.widget.TextLayoutView;
+import com.hippo.nimingban.widget.ThumbPrefetcher;
+import com.hippo.nimingban.widget.ViewPreinflater;
 import com.hippo.rippleold.RippleSalon;
 import com.hippo.unifile.UniFile;
 import com.hippo.util.ActivityHelper;
@@ -80,6 +90,7 @@ import com.hippo.yorozuya.LayoutUtils;
 import com.hippo.yorozuya.ResourcesUtils;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 public final class ListActivity extends AbsActivity
@@ -87,6 +98,11 @@ public final class ListActivity extends AbsActivity
 
     private static final int BACK_PRESSED_INTERVAL = 2000;
 
+    /**
+     * About cards in the first screen
+     */
+    private static final int PREINFLATE_COUNT = 6;
+
     public static final int REQUEST_CODE_SETTINGS = 0;
     public static final int REQUEST_CODE_SORT_FORUMS = 1;
     public static final int REQUEST_CODE_CREATE_POST = 2;
@@ -109,6 +125,8 @@ public final class ListActivity extends AbsActivity
 
     private PostHelper mPostHelper;
     private PostAdapter mPostAdapter;
+    private ThumbPrefetcher mThumbPrefetcher;
+    private TextLayoutPrecomputer mTextPrecomputer;
 
     private NMBRequest mNMBRequest;
     private NMBRequest mUpdateRequest;
@@ -196,12 +214,22 @@ public final class ListActivity extends AbsActivity
         mRecyclerView.setDrawSelectorOnTop(true);
         mRecyclerView.setOnItemClickListener(new ClickPostListener());
         mRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        FrameMonitor.attach(mRecyclerView);
         mRecyclerView.hasFixedSize();
         mRecyclerView.setClipToPadding(false);
         int halfInterval = LayoutUtils.dp2pix(this, 4);
         mRecyclerView.addItemDecoration(new MarginItemDecoration(halfInterval));
         mRecyclerView.setPadding(halfInterval, halfInterval, halfInterval, halfInterval);
 
+        mThumbPrefetcher = new ThumbPrefetcher(this, mRecyclerView, mPostHelper);
+        mTextPrecomputer = new TextLayoutPrecomputer();
+
+        // Rows of the first screen are inflated while the first request is running.
+        // LoadImageView gets them in constructor, get them in UI thread first.
+        NMBApplication.getImageTaskQueue(this);
+        NMBApplication.getGifPlaybackGovernor(this);
+        ViewPreinflater.getInstance().preinflate(mRecyclerView, R.layout.item_list, 0, PREINFLATE_COUNT);
+
         mLeftDrawer.setHelper(this);
 
         mRightDrawer.setOnSelectForumListener(this);
@@ -215,6 +243,16 @@ public final class ListActivity extends AbsActivity
     protected void onDestroy() {
         super.onDestroy();
 
+        if (mThumbPrefetcher != null) {
+            mThumbPrefetcher.destroy();
+            mThumbPrefetcher = null;
+        }
+
+        if (mTextPrecomputer != null) {
+            mTextPrecomputer.clear();
+            mTextPrecomputer = null;
+        }
+
         if (mUpdateRequest != null) {
             mUpdateRequest.cancel();
             mUpdateRequest = null;
@@ -491,6 +529,9 @@ public final class ListActivity extends AbsActivity
                 (mCurrentForum.getNMBSite() != forum.getNMBSite() ||
                         !mCurrentForum.getNMBId().equals(forum.getNMBId()))) {
             mCurrentForum = forum;
+            // Thumbnails of the new forum need more connections,
+            // it does nothing if the host is warmed in TTL
+            ConnectionWarmer.getInstance().warm(ACHostSelector.getInstance().getHost());
             updateTitleByForum(mCurrentForum);
             mSlidingDrawerLayout.closeDrawer(Gravity.RIGHT);
             mPostHelper.refresh();
@@ -586,8 +627,11 @@ public final class ListActivity extends AbsActivity
         @Override
         public boolean onItemClick(EasyRecyclerView parent, View view, int position, long id) {
             Intent intent = new Intent(ListActivity.this, PostActivity.class);
-            intent.setAction(PostActivity.ACTION_POST);
-            intent.putExtra(PostActivity.KEY_POST, mPostHelper.getDataAt(position));
+            Post post = mPostHelper.getDataAt(position);
+            PostRepository.getInstance().put(post);
+            intent.setAction(PostActivity.ACTION_SITE_ID);
+            intent.putExtra(PostActivity.KEY_SITE, post.getNMBSite().getId());
+            intent.putExtra(PostActivity.KEY_ID, post.getNMBId());
             startActivity(intent);
             return true;
         }
@@ -598,7 +642,7 @@ public final class ListActivity extends AbsActivity
         public TextView leftText;
         public TextView centerText;
         public TextView rightText;
-        public TextView content;
+        public TextLayoutView content;
         public TextView bottomText;
         public LoadImageView thumb;
 
@@ -608,7 +652,7 @@ public final class ListActivity extends AbsActivity
             leftText = (TextView) itemView.findViewById(R.id.left_text);
             centerText = (TextView) itemView.findViewById(R.id.center_text);
             rightText = (TextView) itemView.findViewById(R.id.right_text);
-            content = (TextView) itemView.findViewById(R.id.content);
+            content = (TextLayoutView) itemView.findViewById(R.id.content);
             bottomText = (TextView) itemView.findViewById(R.id.bottom_text);
             thumb = (LoadImageView) itemView.findViewById(R.id.thumb);
 
@@ -627,47 +671,56 @@ public final class ListActivity extends AbsActivity
                     intent.putExtra(GalleryActivity2.KEY_SITE, post.getNMBSite().getId());
                     intent.putExtra(GalleryActivity2.KEY_ID, post.getNMBId());
                     intent.putExtra(GalleryActivity2.KEY_IMAGE, image);
+                    intent.putExtra(GalleryActivity2.KEY_THUMB, post.getNMBThumbUrl());
                     ListActivity.this.startActivity(intent);
                 }
             }
         }
     }
 
-    private class PostAdapter extends RecyclerView.Adapter<ListHolder> {
+    private class PostAdapter extends MeasuredAdapter<ListHolder>
+            implements ViewPreinflater.Adapter {
+
+        private View mPreinflatedView;
+
+        @Override
+        public void setPreinflatedView(View view) {
+            mPreinflatedView = view;
+        }
 
         @Override
         public ListHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-            return new ListHolder(getLayoutInflater().inflate(R.layout.item_list, parent, false));
+            View view = mPreinflatedView;
+            mPreinflatedView = null;
+            if (view == null) {
+                view = getLayoutInflater().inflate(R.layout.item_list, parent, false);
+            }
+            return new ListHolder(view);
         }
 
         @Override
-        public void onBindViewHolder(ListHolder holder, int position) {
+        public void onBind(ListHolder holder, int position) {
             Post post = mPostHelper.getDataAt(position);
             holder.leftText.setText(post.getNMBDisplayUsername());
             holder.centerText.setText("No." + post.getNMBId());
             holder.rightText.setText(ReadableTime.getDisplayTime(post.getNMBTime()));
-            holder.content.setText(post.getNMBDisplayContent());
             holder.bottomText.setText(post.getNMBReplyDisplayCount());
 
             TextView bottomText = holder.bottomText;
             RelativeLayout.LayoutParams lp = (RelativeLayout.LayoutParams) bottomText.getLayoutParams();
             String thumbUrl = post.getNMBThumbUrl();
 
-            boolean showImage;
-            boolean loadFromNetwork;
-            int ils = Settings.getImageLoadingStrategy();
-            if (ils == Settings.IMAGE_LOADING_STRATEGY_ALL ||
-                    (ils == Settings.IMAGE_LOADING_STRATEGY_WIFI && NMBApplication.isConnectedWifi(ListActivity.this))) {
-                showImage = true;
-                loadFromNetwork = true;
-            } else {
-                showImage = Settings.getImageLoadingStrategy2();
-                loadFromNetwork = false;
-            }
+            int decision = NetworkQualityEstimator.getInstance().getImageDecision(ListActivity.this);
+            boolean showImage = decision != NetworkQualityEstimator.IMAGE_SKIP ||
+                    Settings.getImageLoadingStrategy2();
 
             if (!TextUtils.isEmpty(thumbUrl) && showImage) {
                 holder.thumb.setVisibility(View.VISIBLE);
-                holder.thumb.load(thumbUrl, thumbUrl, loadFromNetwork);
+                if (decision == NetworkQualityEstimator.IMAGE_DEFER) {
+                    holder.thumb.loadDeferred(thumbUrl, thumbUrl);
+                } else {
+                    holder.thumb.load(thumbUrl, thumbUrl, decision == NetworkQualityEstimator.IMAGE_LOAD);
+                }
 
                 lp.addRule(RelativeLayout.ALIGN_BOTTOM, R.id.thumb);
                 lp.addRule(RelativeLayout.BELOW, 0);
@@ -682,7 +735,8 @@ public final class ListActivity extends AbsActivity
             }
 
             holder.content.setTextSize(Settings.getFontSize());
-            holder.content.setLineSpacing(LayoutUtils.dp2pix(ListActivity.this, Settings.getLineSpacing()), 1.0f);
+            holder.content.setLineSpacing(LayoutUtils.dp2pix(ListActivity.this, Settings.getLineSpacing()));
+            mTextPrecomputer.bind(holder.content, post.getNMBId(), post.getNMBDisplayContent());
         }
 
         @Override
@@ -712,19 +766,63 @@ public final class ListActivity extends AbsActivity
 
         @Override
         protected void notifyDataSetChanged() {
+            mThumbPrefetcher.reset();
+            precomputeText(0, size());
             mPostAdapter.notifyDataSetChanged();
         }
 
         @Override
         protected void notifyItemRangeRemoved(int positionStart, int itemCount) {
+            // Prefetch tasks are kept by position
+            mThumbPrefetcher.reset();
             mPostAdapter.notifyItemRangeRemoved(positionStart, itemCount);
         }
 
         @Override
         protected void notifyItemRangeInserted(int positionStart, int itemCount) {
+            if (positionStart + itemCount < size()) {
+                // Prefetch tasks are kept by position
+                mThumbPrefetcher.reset();
+            }
+            precomputeText(positionStart, itemCount);
             mPostAdapter.notifyItemRangeInserted(positionStart, itemCount);
         }
 
+        @Override
+        protected void notifyItemRangeChanged(int positionStart, int itemCount) {
+            precomputeText(positionStart, itemCount);
+            mPostAdapter.notifyItemRangeChanged(positionStart, itemCount);
+        }
+
+        private void precomputeText(int positionStart, int itemCount) {
+            List<String> keys = new ArrayList<>(itemCount);
+            List<CharSequence> texts = new ArrayList<>(itemCount);
+            for (int i = positionStart, n = positionStart + itemCount; i < n; i++) {
+                Post data = getDataAt(i);
+                keys.add(data.getNMBId());
+                texts.add(data.getNMBDisplayContent());
+            }
+            mTextPrecomputer.precompute(keys, texts);
+        }
+
+        @Override
+        protected String getDataId(Post data) {
+            return data.getNMBId();
+        }
+
+        @Override
+        protected boolean isSameContent(Post oldData, Post newData) {
+            return oldData.isSameContent(newData);
+        }
+
+        @Override
+        protected void cancelPageData() {
+            if (mNMBRequest != null) {
+                mNMBRequest.cancel();
+                mNMBRequest = null;
+            }
+        }
+
         @Override
         protected void getPageData(int taskId, int type, int page) {
             if (mNMBRequest != null) {
@@ -18,13 +18,19 @@ package com.hippo.nimingban.ui;
 
 import android.annotation.SuppressLint;
 import android.app.Dialog;
+import android.content.BroadcastReceiver;
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -53,16 +59,25 @@ import com.hippo.nimingban.client.NMBClient;
 import com.hippo.nimingban.client.NMBRequest;
 import com.hippo.nimingban.client.NMBUrl;
 import com.hippo.nimingban.client.ReferenceSpan;
+import com.hippo.nimingban.client.ThreadImageDownloader;
 import com.hippo.nimingban.client.ac.NMBUriParser;
 import com.hippo.nimingban.client.ac.data.ACReference;
 import com.hippo.nimingban.client.data.Post;
+import com.hippo.nimingban.client.data.PostRepository;
 import com.hippo.nimingban.client.data.Reply;
 import com.hippo.nimingban.client.data.Site;
+import com.hippo.nimingban.network.NetworkQualityEstimator;
 import com.hippo.nimingban.util.ReadableTime;
 import com.hippo.nimingban.util.Settings;
 import com.hippo.nimingban.widget.ContentLayout;
+import com.hippo.nimingban.widget.FrameMonitor;
 import com.hippo.nimingban.widget.LinkifyTextView;
 import com.hippo.nimingban.widget.LoadImageView;
+import com.hippo.nimingban.widget.MeasuredAdapter;
+import com.hippo.nimingban.widget.TextLayoutPrecomputer;
+import com.hippo.nimingban.widget.TextLayoutView;
+import com.hippo.nimingban.widget.ThumbPrefetcher;
+import com.hippo.nimingban.widget.ViewPreinflater;
 import com.hippo.rippleold.RippleSalon;
 import com.hippo.util.ActivityHelper;
 import com.hippo.util.ExceptionUtils;
@@ -73,21 +88,27 @@ import com.hippo.yorozuya.LayoutUtils;
 import com.hippo.yorozuya.MathUtils;
 import com.hippo.yorozuya.ResourcesUtils;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public final class PostActivity extends SwipeActivity
         implements EasyRecyclerView.OnItemClickListener,
         EasyRecyclerView.OnItemLongClickListener {
 
-    public static final String ACTION_POST = "com.hippo.nimingban.ui.PostActivity.action.POST";
     public static final String ACTION_SITE_ID = "com.hippo.nimingban.ui.PostActivity.action.SITE_ID";
 
-    public static final String KEY_POST = "post";
     public static final String KEY_SITE = "site";
     public static final String KEY_ID = "id";
 
     public static final int REQUEST_CODE_REPLY = 0;
 
+    /**
+     * About rows in the first screen
+     */
+    private static final int PREINFLATE_COUNT = 10;
+
+    private static final StyleSpan OP_STYLE_SPAN = new StyleSpan(Typeface.BOLD);
+
     private NMBClient mNMBClient;
     private Conaco mConaco;
 
@@ -96,6 +117,9 @@ public final class PostActivity extends SwipeActivity
 
     private ReplyHelper mReplyHelper;
     private ReplyAdapter mReplyAdapter;
+    private ThumbPrefetcher mThumbPrefetcher;
+    private TextLayoutPrecomputer mTextPrecomputer;
+    private Follower mFollower;
 
     private NMBRequest mNMBRequest;
 
@@ -104,10 +128,22 @@ public final class PostActivity extends SwipeActivity
 
     private CharSequence mPostUser;
 
-    private int mOpColor;
+    private ForegroundColorSpan mOpColorSpan;
 
     private int mPageSize = -1;
 
+    private final ThreadImageDownloader.OnProgressListener mDownloadListener =
+            new ThreadImageDownloader.OnProgressListener() {
+                @Override
+                public void onProgress(ThreadImageDownloader downloader, int finished, int total) {
+                }
+
+                @Override
+                public void onFinish(ThreadImageDownloader downloader) {
+                    supportInvalidateOptionsMenu();
+                }
+            };
+
     // false for error
     private boolean handlerIntent(Intent intent) {
         if (intent == null) {
@@ -115,15 +151,7 @@ public final class PostActivity extends SwipeActivity
         }
 
         String action = intent.getAction();
-        if (ACTION_POST.equals(action)) {
-            Post post = intent.getParcelableExtra(KEY_POST);
-            if (post != null) {
-                mSite = post.getNMBSite();
-                mId = post.getNMBId();
-                mPostUser = post.getNMBDisplayUsername();
-                return true;
-            }
-        } else if (ACTION_SITE_ID.equals(action)) {
+        if (ACTION_SITE_ID.equals(action)) {
             int site = intent.getIntExtra(KEY_SITE, -1);
             String id = intent.getStringExtra(KEY_ID);
             if (Site.isValid(site) && id != null) {
@@ -179,20 +207,87 @@ public final class PostActivity extends SwipeActivity
         mRecyclerView.setAdapter(mReplyAdapter);
         mRecyclerView.setSelector(RippleSalon.generateRippleDrawable(ResourcesUtils.getAttrBoolean(this, R.attr.dark)));
         mRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        FrameMonitor.attach(mRecyclerView);
         mRecyclerView.setOnItemClickListener(this);
         mRecyclerView.setOnItemLongClickListener(this);
         mRecyclerView.hasFixedSize();
 
-        mOpColor = getResources().getColor(R.color.green_ntr);
+        mThumbPrefetcher = new ThumbPrefetcher(this, mRecyclerView, mReplyHelper);
+        mTextPrecomputer = new TextLayoutPrecomputer();
+
+        // Rows of the first screen are inflated while the first request is running.
+        // LoadImageView gets them in constructor, get them in UI thread first.
+        NMBApplication.getImageTaskQueue(this);
+        NMBApplication.getGifPlaybackGovernor(this);
+        ViewPreinflater.getInstance().preinflate(mRecyclerView, R.layout.item_post, 0, PREINFLATE_COUNT);
+        mFollower = new Follower();
+
+        // The downloader is still running after recreated
+        ThreadImageDownloader downloader = ThreadImageDownloader.get(mSite, mId);
+        if (downloader != null) {
+            downloader.addOnProgressListener(mDownloadListener);
+        }
+
+        mOpColorSpan = new ForegroundColorSpan(getResources().getColor(R.color.green_ntr));
+
+        // The generated post is there if opened from a list, show it at once.
+        // Replies are merged after refreshing.
+        Post post = PostRepository.getInstance().get(mSite, mId);
+        if (post != null) {
+            mPostUser = post.getNMBDisplayUsername();
+            markOp(post);
+            List<Reply> data = new ArrayList<>(1);
+            data.add(post);
+            mReplyHelper.firstRefresh(data);
+        } else {
+            mReplyHelper.firstRefresh();
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        if (mFollower != null) {
+            mFollower.setBackground(false);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
 
-        // Refresh
-        mReplyHelper.firstRefresh();
+        if (mFollower != null) {
+            mFollower.setBackground(true);
+        }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
+        if (mFollower != null) {
+            mFollower.stop();
+            mFollower = null;
+        }
+
+        if (mThumbPrefetcher != null) {
+            mThumbPrefetcher.destroy();
+            mThumbPrefetcher = null;
+        }
+
+        if (mTextPrecomputer != null) {
+            mTextPrecomputer.clear();
+            mTextPrecomputer = null;
+        }
+
+        if (mSite != null && mId != null) {
+            ThreadImageDownloader downloader = ThreadImageDownloader.get(mSite, mId);
+            if (downloader != null) {
+                downloader.removeOnProgressListener(mDownloadListener);
+            }
+        }
+
         if (mNMBRequest != null) {
             mNMBRequest.cancel();
             mNMBRequest = null;
@@ -206,12 +301,14 @@ public final class PostActivity extends SwipeActivity
     }
 
     private class GoToDialogHelper implements View.OnClickListener,
-            DialogInterface.OnDismissListener {
+            DialogInterface.OnDismissListener, Slider.OnSetProgressListener {
 
         private int mPages;
 
         private View mView;
         private Slider mSlider;
+        private TextView mLoaded;
+        private String mLoadedRanges;
 
         private Dialog mDialog;
 
@@ -227,6 +324,48 @@ public final class PostActivity extends SwipeActivity
             Log.d("TAG", "pages = " + pages);
 
             mSlider.setProgress(currentPage + 1);
+
+            mLoaded = (TextView) mView.findViewById(R.id.loaded);
+            mLoadedRanges = getLoadedRanges();
+            if (mLoadedRanges != null) {
+                mLoaded.setVisibility(View.VISIBLE);
+                updateLoaded(currentPage);
+                mSlider.setOnSetProgressListener(this);
+            }
+        }
+
+        /**
+         * @return pages like "1-3, 50", one-based, null if only one range
+         */
+        private String getLoadedRanges() {
+            List<int[]> ranges = mReplyHelper.getLoadedRanges();
+            if (ranges.size() <= 1) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int[] range : ranges) {
+                if (sb.length() != 0) {
+                    sb.append(", ");
+                }
+                sb.append(range[0] + 1);
+                if (range[1] - range[0] > 1) {
+                    sb.append('-').append(range[1]);
+                }
+            }
+            return sb.toString();
+        }
+
+        private void updateLoaded(int page) {
+            String text = getString(R.string.go_to_loaded_pages, mLoadedRanges);
+            if (mReplyHelper.isPageLoaded(page)) {
+                text += "\n" + getString(R.string.go_to_page_loaded, page + 1);
+            }
+            mLoaded.setText(text);
+        }
+
+        @Override
+        public void onSetProgress(Slider slider, int newProgress, int oldProgress, boolean byUser, boolean confirm) {
+            updateLoaded(newProgress - 1);
         }
 
         public View getView() {
@@ -259,6 +398,35 @@ public final class PostActivity extends SwipeActivity
         }
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem item = menu.findItem(R.id.action_download_all_images);
+        if (item != null) {
+            item.setTitle(ThreadImageDownloader.get(mSite, mId) != null ?
+                    R.string.stop_downloading_images : R.string.download_all_images);
+        }
+        item = menu.findItem(R.id.action_follow);
+        if (item != null) {
+            item.setChecked(mFollower != null && mFollower.isFollowing());
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    private void toggleDownloadAllImages() {
+        ThreadImageDownloader downloader = ThreadImageDownloader.get(mSite, mId);
+        if (downloader != null) {
+            downloader.cancel();
+        } else {
+            downloader = ThreadImageDownloader.start(this, mSite, mId);
+            if (downloader == null) {
+                Toast.makeText(this, R.string.cant_get_image_save_location, Toast.LENGTH_SHORT).show();
+            } else {
+                downloader.addOnProgressListener(mDownloadListener);
+            }
+        }
+        supportInvalidateOptionsMenu();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -307,6 +475,18 @@ public final class PostActivity extends SwipeActivity
                 return true;
             case R.id.action_open_in_other_app:
                 ActivityHelper.openUri(this, Uri.parse(NMBUrl.getBrowsablePostUrl(mSite, mId, 0)));
+                return true;
+            case R.id.action_download_all_images:
+                toggleDownloadAllImages();
+                return true;
+            case R.id.action_follow:
+                if (mFollower.isFollowing()) {
+                    mFollower.stop();
+                } else {
+                    mFollower.start();
+                }
+                supportInvalidateOptionsMenu();
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -402,6 +582,7 @@ public final class PostActivity extends SwipeActivity
                     intent.putExtra(GalleryActivity2.KEY_SITE, mSite.getId());
                     intent.putExtra(GalleryActivity2.KEY_ID, mReply.getNMBId());
                     intent.putExtra(GalleryActivity2.KEY_IMAGE, mReply.getNMBImageUrl());
+                    intent.putExtra(GalleryActivity2.KEY_THUMB, mReply.getNMBThumbUrl());
                     PostActivity.this.startActivity(intent);
                 }
             }
@@ -438,31 +619,27 @@ public final class PostActivity extends SwipeActivity
         private void onGetReference(final Reply reply, boolean animation) {
             mReply = reply;
 
-            mLeftText.setText(highlightOp(reply));
+            mLeftText.setText(reply.getNMBThreadUsername());
             mCenterText.setText("No." + reply.getNMBId());
             mRightText.setText(ReadableTime.getDisplayTime(reply.getNMBTime()));
             mContent.setText(reply.getNMBDisplayContent());
 
             String thumbUrl = reply.getNMBThumbUrl();
 
-            boolean showImage;
-            boolean loadFromNetwork;
-            int ils = Settings.getImageLoadingStrategy();
-            if (ils == Settings.IMAGE_LOADING_STRATEGY_ALL ||
-                    (ils == Settings.IMAGE_LOADING_STRATEGY_WIFI && NMBApplication.isConnectedWifi(PostActivity.this))) {
-                showImage = true;
-                loadFromNetwork = true;
-            } else {
-                showImage = Settings.getImageLoadingStrategy2();
-                loadFromNetwork = false;
-            }
+            int decision = NetworkQualityEstimator.getInstance().getImageDecision(PostActivity.this);
+            boolean showImage = decision != NetworkQualityEstimator.IMAGE_SKIP ||
+                    Settings.getImageLoadingStrategy2();
 
             if (!TextUtils.isEmpty(thumbUrl) && showImage) {
                 mThumb.setVisibility(View.VISIBLE);
-                mThumb.load(thumbUrl, thumbUrl, loadFromNetwork);
+                if (decision == NetworkQualityEstimator.IMAGE_DEFER) {
+                    mThumb.loadDeferred(thumbUrl, thumbUrl);
+                } else {
+                    mThumb.load(thumbUrl, thumbUrl, decision == NetworkQualityEstimator.IMAGE_LOAD);
+                }
             } else {
                 mThumb.setVisibility(View.GONE);
-                mConaco.load(mThumb, null);
+                mThumb.unload();
             }
 
             mContent.setTextSize(Settings.getFontSize());
@@ -492,6 +669,7 @@ public final class PostActivity extends SwipeActivity
 
         @Override
         public void onSuccess(ACReference result) {
+            markOp(result);
             onGetReference(result, true);
         }
 
@@ -528,27 +706,28 @@ public final class PostActivity extends SwipeActivity
         }
     }
 
-    private CharSequence highlightOp(Reply reply) {
-        CharSequence user = reply.getNMBDisplayUsername();
+    /**
+     * Set the usernames shown in the thread, the spans are shared
+     */
+    private void markOp(List<Reply> replies) {
+        for (int i = 0, n = replies.size(); i < n; i++) {
+            markOp(replies.get(i));
+        }
+    }
 
-        if (!TextUtils.isEmpty(user) && TextUtils2.contentEquals(user, mPostUser)) {
-            Spannable spannable;
-            if (user instanceof Spannable) {
-                spannable = (Spannable) user;
-            } else {
-                spannable = new SpannableString(user);
-            }
+    private void markOp(Reply reply) {
+        CharSequence user = reply.getNMBDisplayUsername();
 
+        // Admin username has its own span
+        if (!TextUtils.isEmpty(user) && TextUtils2.contentEquals(user, mPostUser) &&
+                !(user instanceof Spanned && ((Spanned) user).getSpans(0, user.length(), Object.class).length != 0)) {
             int length = user.length();
-            if (spannable.getSpans(0, length, Object.class).length == 0) {
-                StyleSpan styleSpan = new StyleSpan(android.graphics.Typeface.BOLD);
-                ForegroundColorSpan colorSpan = new ForegroundColorSpan(mOpColor);
-                spannable.setSpan(styleSpan, 0, length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                spannable.setSpan(colorSpan, 0, length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            }
-            return spannable;
+            Spannable spannable = new SpannableString(user);
+            spannable.setSpan(OP_STYLE_SPAN, 0, length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            spannable.setSpan(mOpColorSpan, 0, length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            reply.setNMBThreadUsername(spannable);
         } else {
-            return user;
+            reply.setNMBThreadUsername(user);
         }
     }
 
@@ -632,12 +811,32 @@ public final class PostActivity extends SwipeActivity
         return false;
     }
 
+    /**
+     * Show all images in loaded pages in gallery, start from the one at the position.
+     * The loaded pages go to repository, only the key is passed.
+     */
+    private void showThreadImages(int position) {
+        List<Reply> replies = new ArrayList<>(mReplyHelper.size());
+        for (int i = 0, n = mReplyHelper.size(); i < n; i++) {
+            replies.add(mReplyHelper.getDataAt(i));
+        }
+        PostRepository.getInstance().putThreadPages(mSite, mId, new PostRepository.ThreadPages(replies,
+                mReplyHelper.getStartPage(), mReplyHelper.getEndPage(), mReplyHelper.getPages(), mPageSize));
+
+        Intent intent = new Intent(PostActivity.this, GalleryActivity2.class);
+        intent.setAction(GalleryActivity2.ACTION_THREAD_IMAGES);
+        intent.putExtra(GalleryActivity2.KEY_SITE, mSite.getId());
+        intent.putExtra(GalleryActivity2.KEY_ID, mId);
+        intent.putExtra(GalleryActivity2.KEY_REPLY_ID, mReplyHelper.getDataAt(position).getNMBId());
+        startActivity(intent);
+    }
+
     private class ReplyHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         public TextView leftText;
         public TextView centerText;
         public TextView rightText;
-        public LinkifyTextView content;
+        public TextLayoutView content;
         public LoadImageView thumb;
 
         public ReplyHolder(View itemView) {
@@ -646,7 +845,7 @@ public final class PostActivity extends SwipeActivity
             leftText = (TextView) itemView.findViewById(R.id.left_text);
             centerText = (TextView) itemView.findViewById(R.id.center_text);
             rightText = (TextView) itemView.findViewById(R.id.right_text);
-            content = (LinkifyTextView) itemView.findViewById(R.id.content);
+            content = (TextLayoutView) itemView.findViewById(R.id.content);
             thumb = (LoadImageView) itemView.findViewById(R.id.thumb);
 
             thumb.setOnClickListener(this);
@@ -659,56 +858,60 @@ public final class PostActivity extends SwipeActivity
                 Reply reply = mReplyHelper.getDataAt(position);
                 String image = reply.getNMBImageUrl();
                 if (!TextUtils.isEmpty(image)) {
-                    Intent intent = new Intent(PostActivity.this, GalleryActivity2.class);
-                    intent.setAction(GalleryActivity2.ACTION_SINGLE_IMAGE);
-                    intent.putExtra(GalleryActivity2.KEY_SITE, reply.getNMBSite().getId());
-                    intent.putExtra(GalleryActivity2.KEY_ID, reply.getNMBId());
-                    intent.putExtra(GalleryActivity2.KEY_IMAGE, image);
-                    PostActivity.this.startActivity(intent);
+                    showThreadImages(position);
                 }
             }
         }
     }
 
-    private class ReplyAdapter extends RecyclerView.Adapter<ReplyHolder> {
+    private class ReplyAdapter extends MeasuredAdapter<ReplyHolder>
+            implements ViewPreinflater.Adapter {
+
+        private View mPreinflatedView;
+
+        @Override
+        public void setPreinflatedView(View view) {
+            mPreinflatedView = view;
+        }
 
         @Override
         public ReplyHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-            return new ReplyHolder(getLayoutInflater().inflate(R.layout.item_post, parent, false));
+            View view = mPreinflatedView;
+            mPreinflatedView = null;
+            if (view == null) {
+                view = getLayoutInflater().inflate(R.layout.item_post, parent, false);
+            }
+            return new ReplyHolder(view);
         }
 
         @Override
-        public void onBindViewHolder(ReplyHolder holder, int position) {
+        public void onBind(ReplyHolder holder, int position) {
             Reply reply = mReplyHelper.getDataAt(position);
-            holder.leftText.setText(highlightOp(reply));
+            holder.leftText.setText(reply.getNMBThreadUsername());
             holder.centerText.setText("No." + reply.getNMBId());
             holder.rightText.setText(ReadableTime.getDisplayTime(reply.getNMBTime()));
-            holder.content.setText(reply.getNMBDisplayContent());
 
             String thumbUrl = reply.getNMBThumbUrl();
 
-            boolean showImage;
-            boolean loadFromNetwork;
-            int ils = Settings.getImageLoadingStrategy();
-            if (ils == Settings.IMAGE_LOADING_STRATEGY_ALL ||
-                    (ils == Settings.IMAGE_LOADING_STRATEGY_WIFI && NMBApplication.isConnectedWifi(PostActivity.this))) {
-                showImage = true;
-                loadFromNetwork = true;
-            } else {
-                showImage = Settings.getImageLoadingStrategy2();
-                loadFromNetwork = false;
-            }
+            int decision = NetworkQualityEstimator.getInstance().getImageDecision(PostActivity.this);
+            boolean showImage = decision != NetworkQualityEstimator.IMAGE_SKIP ||
+                    Settings.getImageLoadingStrategy2();
 
             if (!TextUtils.isEmpty(thumbUrl) && showImage) {
                 holder.thumb.setVisibility(View.VISIBLE);
-                holder.thumb.load(thumbUrl, thumbUrl, loadFromNetwork);
+                if (decision == NetworkQualityEstimator.IMAGE_DEFER) {
+                    holder.thumb.loadDeferred(thumbUrl, thumbUrl);
+                } else {
+                    holder.thumb.load(thumbUrl, thumbUrl, decision == NetworkQualityEstimator.IMAGE_LOAD);
+                }
             } else {
                 holder.thumb.setVisibility(View.GONE);
-                mConaco.load(holder.thumb, null);
+                holder.thumb.unload();
             }
 
             holder.content.setTextSize(Settings.getFontSize());
-            holder.content.setLineSpacing(LayoutUtils.dp2pix(PostActivity.this, Settings.getLineSpacing()), 1.0f);
+            holder.content.setLineSpacing(LayoutUtils.dp2pix(PostActivity.this, Settings.getLineSpacing()));
+            mTextPrecomputer.bind(holder.content, reply.getNMBId(), reply.getNMBDisplayContent());
         }
 
         @Override
@@ -726,19 +929,63 @@ public final class PostActivity extends SwipeActivity
 
         @Override
         protected void notifyDataSetChanged() {
+            mThumbPrefetcher.reset();
+            precomputeText(0, size());
             mReplyAdapter.notifyDataSetChanged();
         }
 
         @Override
         protected void notifyItemRangeRemoved(int positionStart, int itemCount) {
+            // Prefetch tasks are kept by position
+            mThumbPrefetcher.reset();
             mReplyAdapter.notifyItemRangeRemoved(positionStart, itemCount);
         }
 
         @Override
         protected void notifyItemRangeInserted(int positionStart, int itemCount) {
+            if (positionStart + itemCount < size()) {
+                // Prefetch tasks are kept by position
+                mThumbPrefetcher.reset();
+            }
+            precomputeText(positionStart, itemCount);
             mReplyAdapter.notifyItemRangeInserted(positionStart, itemCount);
         }
 
+        @Override
+        protected void notifyItemRangeChanged(int positionStart, int itemCount) {
+            precomputeText(positionStart, itemCount);
+            mReplyAdapter.notifyItemRangeChanged(positionStart, itemCount);
+        }
+
+        private void precomputeText(int positionStart, int itemCount) {
+            List<String> keys = new ArrayList<>(itemCount);
+            List<CharSequence> texts = new ArrayList<>(itemCount);
+            for (int i = positionStart, n = positionStart + itemCount; i < n; i++) {
+                Reply data = getDataAt(i);
+                keys.add(data.getNMBId());
+                texts.add(data.getNMBDisplayContent());
+            }
+            mTextPrecomputer.precompute(keys, texts);
+        }
+
+        @Override
+        protected String getDataId(Reply data) {
+            return data.getNMBId();
+        }
+
+        @Override
+        protected boolean isSameContent(Reply oldData, Reply newData) {
+            return oldData.isSameContent(newData);
+        }
+
+        @Override
+        protected void cancelPageData() {
+            if (mNMBRequest != null) {
+                mNMBRequest.cancel();
+                mNMBRequest = null;
+            }
+        }
+
         @Override
         protected void getPageData(int taskId, int type, int page) {
             if (mNMBRequest != null) {
@@ -770,6 +1017,18 @@ public final class PostActivity extends SwipeActivity
             mRequest = request;
         }
 
+        /**
+         * Pages out of the window are not in the helper, so count the replies by page size
+         */
+        private boolean isLastPage(Post post, List<Reply> replies) {
+            if (mPageSize > 0) {
+                int count = mPage == 0 ? replies.size() - 1 : replies.size(); // post is in page 0
+                return mPage * mPageSize + count >= post.getNMBReplyCount();
+            } else {
+                return mReplyHelper.size() == post.getNMBReplyCount() + 1; // post is in data, so +1
+            }
+        }
+
         @Override
         public void onSuccess(Pair<Post, List<Reply>> result) {
             if (mNMBRequest == mRequest) {
@@ -780,12 +1039,14 @@ public final class PostActivity extends SwipeActivity
 
                 Post post = result.first;
                 mPostUser = post.getNMBDisplayUsername();
+                PostRepository.getInstance().put(post);
 
                 List<Reply> replies = result.second;
                 if (mPage == 0) {
                     mPageSize = replies.size();
                     replies.add(0, post);
                 }
+                markOp(replies);
 
                 boolean empty;
                 if (replies.isEmpty()) {
@@ -800,7 +1061,7 @@ public final class PostActivity extends SwipeActivity
                         mTaskType == ContentLayout.ContentHelper.TYPE_NEXT_PAGE_KEEP_POS ||
                         mTaskType == ContentLayout.ContentHelper.TYPE_REFRESH ||
                         mTaskType == ContentLayout.ContentHelper.TYPE_SOMEWHERE) &&
-                        mReplyHelper.size() == post.getNMBReplyCount() + 1) { // post is in data, so +1
+                        isLastPage(post, replies)) {
                     mReplyHelper.setPages(mPage + 1); // this is the last page
                 } else if (mPageSize == 0) {
                     mReplyHelper.setPages(1); // Only post, no reply
@@ -856,6 +1117,226 @@ public final class PostActivity extends SwipeActivity
         }
     }
 
+    /**
+     * Poll the last page for new replies. The interval gets shorter when
+     * replies come, and gets longer when the thread is quiet or the activity
+     * is in background. It pauses when the screen is off.
+     */
+    private class Follower extends BroadcastReceiver implements Runnable {
+
+        private static final long MIN_INTERVAL = 5 * 1000;
+        private static final long INITIAL_INTERVAL = 15 * 1000;
+        private static final long MAX_INTERVAL = 2 * 60 * 1000;
+        private static final long MIN_BACKGROUND_INTERVAL = 60 * 1000;
+        private static final float BACK_OFF_FACTOR = 1.5f;
+
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        private boolean mFollowing;
+        private boolean mBackground;
+        private boolean mScreenOff;
+
+        private long mInterval;
+        /**
+         * Reply count of last poll, -1 for none
+         */
+        private int mReplyCount;
+        /**
+         * Reply count when new replies are added, -1 for none
+         */
+        private int mAddedReplyCount;
+        /**
+         * The page after the shown end, -1 for none
+         */
+        private int mNextPage;
+
+        private NMBRequest mRequest;
+
+        public boolean isFollowing() {
+            return mFollowing;
+        }
+
+        @SuppressWarnings("deprecation")
+        public void start() {
+            if (mFollowing) {
+                return;
+            }
+            mFollowing = true;
+            mInterval = INITIAL_INTERVAL;
+            mReplyCount = -1;
+            mAddedReplyCount = -1;
+            mNextPage = -1;
+
+            IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+            filter.addAction(Intent.ACTION_SCREEN_ON);
+            registerReceiver(this, filter);
+            PowerManager pm = (PowerManager) getSystemService(POWER_SERVICE);
+            mScreenOff = !pm.isScreenOn();
+
+            schedule(0);
+        }
+
+        public void stop() {
+            if (!mFollowing) {
+                return;
+            }
+            mFollowing = false;
+            unregisterReceiver(this);
+            cancel();
+        }
+
+        public void setBackground(boolean background) {
+            if (mBackground == background) {
+                return;
+            }
+            mBackground = background;
+            if (!background && mFollowing && mRequest == null) {
+                // Check it when back
+                schedule(0);
+            }
+        }
+
+        private void cancel() {
+            mHandler.removeCallbacks(this);
+            if (mRequest != null) {
+                mRequest.cancel();
+                mRequest = null;
+            }
+        }
+
+        private void schedule(long delay) {
+            mHandler.removeCallbacks(this);
+            if (mFollowing && !mScreenOff) {
+                mHandler.postDelayed(this, delay);
+            }
+        }
+
+        private long getDelay() {
+            return mBackground ? Math.max(mInterval, MIN_BACKGROUND_INTERVAL) : mInterval;
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                mScreenOff = true;
+                cancel();
+            } else if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                mScreenOff = false;
+                schedule(0);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!mFollowing || mScreenOff || mRequest != null) {
+                return;
+            }
+
+            int page;
+            int pages = mReplyHelper.getPages();
+            if (mNextPage >= 0 && mNextPage == mReplyHelper.getEndPage()) {
+                // The shown end is full
+                page = mNextPage;
+            } else if (mReplyHelper.isEndShown()) {
+                page = mReplyHelper.getEndPage() - 1;
+            } else if (pages > 0 && pages != Integer.MAX_VALUE) {
+                // Only get the reply count
+                page = pages - 1;
+            } else {
+                // Not loaded yet
+                schedule(getDelay());
+                return;
+            }
+            mNextPage = -1;
+
+            NMBRequest request = new NMBRequest();
+            mRequest = request;
+            request.setSite(mSite);
+            request.setMethod(NMBClient.METHOD_GET_POST);
+            request.setArgs(NMBUrl.getPostUrl(mSite, mId, page));
+            request.setCallback(new FollowListener(page, request));
+            mNMBClient.execute(request);
+        }
+
+        private void onPoll(int page, Post post, List<Reply> replies) {
+            int replyCount = post.getNMBReplyCount();
+            if (mReplyCount >= 0) {
+                if (replyCount > mReplyCount) {
+                    mInterval = Math.max(MIN_INTERVAL, mInterval / 2);
+                } else {
+                    mInterval = Math.min(MAX_INTERVAL, (long) (mInterval * BACK_OFF_FACTOR));
+                }
+            }
+            mReplyCount = replyCount;
+
+            boolean more = false;
+            // The same reply count, nothing new
+            if (replyCount != mAddedReplyCount) {
+                if (page == 0) {
+                    replies.add(0, post);
+                }
+                markOp(replies);
+                boolean added = mReplyHelper.appendNewData(page, replies) >= 0;
+                if (added) {
+                    mAddedReplyCount = replyCount;
+                }
+                if (mPageSize > 0) {
+                    int pages = Math.max(1, MathUtils.ceilDivide(replyCount, mPageSize));
+                    mReplyHelper.setPages(pages);
+                    if (added && page + 1 < pages && mReplyHelper.getEndPage() == page + 1) {
+                        // Get the new page at once
+                        mNextPage = page + 1;
+                        more = true;
+                    }
+                }
+            }
+
+            schedule(more ? 0 : getDelay());
+        }
+
+        private void onPollFailed() {
+            mInterval = Math.min(MAX_INTERVAL, mInterval * 2);
+            schedule(getDelay());
+        }
+
+        private class FollowListener implements NMBClient.Callback<Pair<Post, List<Reply>>> {
+
+            private final int mPage;
+            private NMBRequest mThisRequest;
+
+            public FollowListener(int page, NMBRequest request) {
+                mPage = page;
+                mThisRequest = request;
+            }
+
+            @Override
+            public void onSuccess(Pair<Post, List<Reply>> result) {
+                if (mRequest == mThisRequest) {
+                    mRequest = null;
+                    onPoll(mPage, result.first, result.second);
+                }
+                mThisRequest = null;
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (mRequest == mThisRequest) {
+                    mRequest = null;
+                    onPollFailed();
+                }
+                mThisRequest = null;
+            }
+
+            @Override
+            public void onCancelled() {
+                if (mRequest == mThisRequest) {
+                    mRequest = null;
+                }
+                mThisRequest = null;
+            }
+        }
+    }
+
     private static class FeedListener implements NMBClient.Callback<Void> {
 
         private Context mContext;
@@ -21,6 +21,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
@@ -32,6 +33,8 @@ import com.hippo.nimingban.client.NMBRequest;
 import com.hippo.nimingban.client.ac.data.ACSearchItem;
 import com.hippo.nimingban.client.data.ACSite;
 import com.hippo.nimingban.widget.ContentLayout;
+import com.hippo.nimingban.widget.FrameMonitor;
+import com.hippo.nimingban.widget.MeasuredAdapter;
 import com.hippo.rippleold.RippleSalon;
 import com.hippo.widget.recyclerview.EasyRecyclerView;
 import com.hippo.widget.recyclerview.MarginItemDecoration;
@@ -107,6 +110,7 @@ public class SearchActivity extends AbsActivity implements EasyRecyclerView.OnIt
         mSearchAdapter = new SearchAdapter();
         recyclerView.setAdapter(mSearchAdapter);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        FrameMonitor.attach(recyclerView);
         recyclerView.setSelector(RippleSalon.generateRippleDrawable(ResourcesUtils.getAttrBoolean(this, R.attr.dark)));
         recyclerView.setDrawSelectorOnTop(true);
         recyclerView.setOnItemClickListener(this);
@@ -152,7 +156,7 @@ public class SearchActivity extends AbsActivity implements EasyRecyclerView.OnIt
         }
     }
 
-    private class SearchAdapter extends RecyclerView.Adapter<SearchHolder> {
+    private class SearchAdapter extends MeasuredAdapter<SearchHolder> {
 
         @Override
         public SearchHolder onCreateViewHolder(ViewGroup parent, int viewType) {
@@ -160,7 +164,7 @@ public class SearchActivity extends AbsActivity implements EasyRecyclerView.OnIt
         }
 
         @Override
-        public void onBindViewHolder(SearchHolder holder, int position) {
+        public void onBind(SearchHolder holder, int position) {
             ACSearchItem item = mSearchHelper.getDataAt(position);
             holder.leftText.setText("No." + item.id);
             holder.content.setText(item.context);
@@ -174,6 +178,14 @@ public class SearchActivity extends AbsActivity implements EasyRecyclerView.OnIt
 
     private class SearchHelper extends ContentLayout.ContentHelper<ACSearchItem> {
 
+        @Override
+        protected void cancelPageData() {
+            if (mNMBRequest != null) {
+                mNMBRequest.cancel();
+                mNMBRequest = null;
+            }
+        }
+
         @Override
         protected void getPageData(int taskId, int type, int page) {
             if (mNMBRequest != null) {
@@ -209,6 +221,21 @@ public class SearchActivity extends AbsActivity implements EasyRecyclerView.OnIt
         protected void notifyItemRangeInserted(int positionStart, int itemCount) {
             mSearchAdapter.notifyItemRangeInserted(positionStart, itemCount);
         }
+
+        @Override
+        protected void notifyItemRangeChanged(int positionStart, int itemCount) {
+            mSearchAdapter.notifyItemRangeChanged(positionStart, itemCount);
+        }
+
+        @Override
+        protected String getDataId(ACSearchItem data) {
+            return data.id;
+        }
+
+        @Override
+        protected boolean isSameContent(ACSearchItem oldData, ACSearchItem newData) {
+            return TextUtils.equals(oldData.context, newData.context);
+        }
     }
 
     private class SearchListener implements NMBClient.Callback<List<ACSearchItem>> {
@@ -46,11 +46,19 @@ import com.hippo.nimingban.Constants;
 import com.hippo.nimingban.NMBAppConfig;
 import com.hippo.nimingban.NMBApplication;
 import com.hippo.nimingban.R;
+import com.hippo.nimingban.client.ac.ACHostSelector;
 import com.hippo.nimingban.client.data.ACSite;
+import com.hippo.nimingban.network.AdaptiveTimeouts;
+import com.hippo.nimingban.network.CircuitBreaker;
+import com.hippo.nimingban.network.NetworkQualityEstimator;
 import com.hippo.nimingban.network.SimpleCookieStore;
 import com.hippo.nimingban.network.TransportableHttpCookie;
+import com.hippo.nimingban.util.DeviceProfile;
+import com.hippo.nimingban.util.FrameStats;
+import com.hippo.nimingban.util.HeapStats;
 import com.hippo.nimingban.util.ReadableTime;
 import com.hippo.nimingban.util.Settings;
+import com.hippo.nimingban.widget.DiskCacheTiers;
 import com.hippo.unifile.UniFile;
 import com.hippo.util.ActivityHelper;
 import com.hippo.widget.Slider;
@@ -98,6 +106,8 @@ public class SettingsActivity extends AbsActivity {
         private static final String KEY_AC_COOKIES = "ac_cookies";
         private static final String KEY_SAVE_COOKIES = "save_cookies";
         private static final String KEY_RESTORE_COOKIES = "restore_cookies";
+        private static final String KEY_DEVICE_PROFILE = "device_profile";
+        private static final String KEY_EXPORT_FRAME_STATS = "export_frame_stats";
         private static final String KEY_AUTHOR = "author";
         private static final String KEY_SOURCE = "source";
 
@@ -111,6 +121,9 @@ public class SettingsActivity extends AbsActivity {
         private Preference mRestoreCookies;
         private Preference mFeedId;
         private Preference mImageSaveLocation;
+        private Preference mDeviceProfile;
+        private Preference mFrameStats;
+        private Preference mExportFrameStats;
         private Preference mAuthor;
         private Preference mSource;
 
@@ -151,11 +164,15 @@ public class SettingsActivity extends AbsActivity {
             mRestoreCookies = findPreference(KEY_RESTORE_COOKIES);
             mFeedId = findPreference(Settings.KEY_FEED_ID);
             mImageSaveLocation = findPreference(Settings.KEY_IMAGE_SAVE_LOACTION);
+            mDeviceProfile = findPreference(KEY_DEVICE_PROFILE);
+            mFrameStats = findPreference(Settings.KEY_FRAME_STATS);
+            mExportFrameStats = findPreference(KEY_EXPORT_FRAME_STATS);
             mAuthor = findPreference(KEY_AUTHOR);
             mSource = findPreference(KEY_SOURCE);
 
             mDarkTheme.setOnPreferenceChangeListener(this);
             mPrettyTime.setOnPreferenceChangeListener(this);
+            mFrameStats.setOnPreferenceChangeListener(this);
 
             mTextFormat.setOnPreferenceClickListener(this);
             mACCookies.setOnPreferenceClickListener(this);
@@ -163,6 +180,8 @@ public class SettingsActivity extends AbsActivity {
             mRestoreCookies.setOnPreferenceClickListener(this);
             mFeedId.setOnPreferenceClickListener(this);
             mImageSaveLocation.setOnPreferenceClickListener(this);
+            mDeviceProfile.setOnPreferenceClickListener(this);
+            mExportFrameStats.setOnPreferenceClickListener(this);
             mAuthor.setOnPreferenceClickListener(this);
             mSource.setOnPreferenceClickListener(this);
 
@@ -181,6 +200,8 @@ public class SettingsActivity extends AbsActivity {
 
             updateImageSaveLocation();
 
+            mDeviceProfile.setSummary(DeviceProfile.getDeviceClassName());
+
             mAuthor.setSummary("Hippo <hipposeven332$gmail.com>".replaceAll("\\$", "@"));
         }
 
@@ -317,6 +338,51 @@ public class SettingsActivity extends AbsActivity {
             }
         }
 
+        private class ExportFrameStatsTask extends AsyncTask<Void, Void, String> {
+
+            private final Context mContext = getContext().getApplicationContext();
+
+            @Override
+            protected String doInBackground(Void... params) {
+                return FrameStats.export(mContext);
+            }
+
+            @Override
+            protected void onPostExecute(String path) {
+                mExportFrameStats.setEnabled(true);
+                Toast.makeText(mContext, path == null ? mContext.getString(R.string.export_frame_stats_failed) :
+                        mContext.getString(R.string.export_frame_stats_to, path), Toast.LENGTH_SHORT).show();
+            }
+        }
+
+        private class DeviceProfileTask extends AsyncTask<Void, Void, String> {
+
+            @Override
+            protected String doInBackground(Void... params) {
+                return DeviceProfile.getDescription() + "\n\n" +
+                        HeapStats.getDescription() + "\n\n" +
+                        DiskCacheTiers.getDescription(getContext()) + "\n\n" +
+                        NetworkQualityEstimator.getInstance().getDescription() + "\n\n" +
+                        ACHostSelector.getInstance().getDescription() + "\n\n" +
+                        AdaptiveTimeouts.getInstance().getDescription() + "\n\n" +
+                        CircuitBreaker.getInstance().getDescription() + "\n\n" +
+                        FrameStats.getDescription();
+            }
+
+            @Override
+            protected void onPostExecute(String description) {
+                mDeviceProfile.setEnabled(true);
+                if (getActivity() == null) {
+                    return;
+                }
+                new AlertDialog.Builder(getContext())
+                        .setTitle(R.string.main_device_profile)
+                        .setMessage(description)
+                        .setPositiveButton(android.R.string.ok, null)
+                        .show();
+            }
+        }
+
         private class RestoreCookieDialogHelper implements DialogInterface.OnClickListener {
 
             private File[] mFiles;
@@ -557,6 +623,12 @@ public class SettingsActivity extends AbsActivity {
                 } else {
                     showDirPickerDialogL();
                 }
+            } else if (KEY_DEVICE_PROFILE.equals(key)) {
+                mDeviceProfile.setEnabled(false);
+                new DeviceProfileTask().execute();
+            } else if (KEY_EXPORT_FRAME_STATS.equals(key)) {
+                mExportFrameStats.setEnabled(false);
+                new ExportFrameStatsTask().execute();
             } else if (KEY_AUTHOR.equals(key)) {
                 ActivityHelper.sendEmail(getActivity(),
                         "hipposeven332$gmail.com".replaceAll("\\$", "@"),
@@ -576,6 +648,8 @@ public class SettingsActivity extends AbsActivity {
             } else if (Settings.KEY_PRETTY_TIME.equals(key)) {
                 ((SettingsActivity) getContext()).setResult(RESULT_OK);
                 return true;
+            } else if (Settings.KEY_FRAME_STATS.equals(key)) {
+                FrameStats.setEnabled((Boolean) newValue);
             }
             return true;
         }
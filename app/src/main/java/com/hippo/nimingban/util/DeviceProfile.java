@@ -0,0 +1,405 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.util;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.opengl.GLES10;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+/**
+ * What the device can do. It is measured in background at first start,
+ * and the limits of image loading are got from it.
+ */
+public final class DeviceProfile {
+
+    private static final String TAG = DeviceProfile.class.getSimpleName();
+
+    private static final String PREFS_NAME = "device_profile";
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_MAX_TEXTURE_SIZE = "max_texture_size";
+    private static final String KEY_DECODE_SPEED = "decode_speed";
+
+    /**
+     * Measure again if it changes
+     */
+    private static final int VERSION = 1;
+
+    private static final int DEFAULT_MAX_TEXTURE_SIZE = 2048;
+
+    public static final int CLASS_LOW = 0;
+    public static final int CLASS_MEDIUM = 1;
+    public static final int CLASS_HIGH = 2;
+
+    private static final int SAMPLE_SIZE = 512;
+    private static final int SAMPLE_TIMES = 5;
+
+    private static SharedPreferences sPrefs;
+
+    private static int sMemoryClass;
+    private static int sCores;
+    private static volatile int sMaxTextureSize;
+    /**
+     * Megapixels decoded per second, 0 for unknown
+     */
+    private static volatile float sDecodeSpeed;
+    private static volatile boolean sMeasured;
+
+    private DeviceProfile() {
+    }
+
+    public static void initialize(Context context) {
+        sPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        ActivityManager activityManager = (ActivityManager) context.
+                getSystemService(Context.ACTIVITY_SERVICE);
+        sMemoryClass = activityManager.getMemoryClass();
+        sCores = Runtime.getRuntime().availableProcessors();
+
+        if (sPrefs.getInt(KEY_VERSION, 0) == VERSION) {
+            sMaxTextureSize = sPrefs.getInt(KEY_MAX_TEXTURE_SIZE, DEFAULT_MAX_TEXTURE_SIZE);
+            sDecodeSpeed = sPrefs.getFloat(KEY_DECODE_SPEED, 0.0f);
+            sMeasured = true;
+        } else {
+            sMaxTextureSize = DEFAULT_MAX_TEXTURE_SIZE;
+            sDecodeSpeed = 0.0f;
+            sMeasured = false;
+            new Thread(TAG) {
+                @Override
+                public void run() {
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                    measure();
+                }
+            }.start();
+        }
+    }
+
+    private static void measure() {
+        int maxTextureSize = measureMaxTextureSize();
+        float decodeSpeed = measureDecodeSpeed();
+
+        if (maxTextureSize > 0) {
+            sMaxTextureSize = maxTextureSize;
+        }
+        sDecodeSpeed = decodeSpeed;
+        sMeasured = true;
+
+        sPrefs.edit()
+                .putInt(KEY_VERSION, VERSION)
+                .putInt(KEY_MAX_TEXTURE_SIZE, sMaxTextureSize)
+                .putFloat(KEY_DECODE_SPEED, sDecodeSpeed)
+                .apply();
+
+        Log.d(TAG, getDescription());
+    }
+
+    /**
+     * Create a pbuffer EGL context to ask GL_MAX_TEXTURE_SIZE
+     *
+     * @return 0 for failure
+     */
+    private static int measureMaxTextureSize() {
+        EGL10 egl = (EGL10) EGLContext.getEGL();
+        EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+        if (display == EGL10.EGL_NO_DISPLAY || !egl.eglInitialize(display, new int[2])) {
+            return 0;
+        }
+
+        EGLSurface surface = EGL10.EGL_NO_SURFACE;
+        EGLContext context = EGL10.EGL_NO_CONTEXT;
+        try {
+            int[] configAttribs = {
+                    EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT,
+                    EGL10.EGL_NONE
+            };
+            EGLConfig[] configs = new EGLConfig[1];
+            int[] numConfigs = new int[1];
+            if (!egl.eglChooseConfig(display, configAttribs, configs, 1, numConfigs) ||
+                    numConfigs[0] == 0) {
+                return 0;
+            }
+
+            int[] surfaceAttribs = {
+                    EGL10.EGL_WIDTH, 1,
+                    EGL10.EGL_HEIGHT, 1,
+                    EGL10.EGL_NONE
+            };
+            surface = egl.eglCreatePbufferSurface(display, configs[0], surfaceAttribs);
+            context = egl.eglCreateContext(display, configs[0], EGL10.EGL_NO_CONTEXT, null);
+            if (surface == EGL10.EGL_NO_SURFACE || context == EGL10.EGL_NO_CONTEXT ||
+                    !egl.eglMakeCurrent(display, surface, surface, context)) {
+                return 0;
+            }
+
+            int[] maxSize = new int[1];
+            GLES10.glGetIntegerv(GLES10.GL_MAX_TEXTURE_SIZE, maxSize, 0);
+            return maxSize[0];
+        } catch (Throwable tr) {
+            Log.w(TAG, "Can't get max texture size", tr);
+            return 0;
+        } finally {
+            egl.eglMakeCurrent(display, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+            if (surface != EGL10.EGL_NO_SURFACE) {
+                egl.eglDestroySurface(display, surface);
+            }
+            if (context != EGL10.EGL_NO_CONTEXT) {
+                egl.eglDestroyContext(display, context);
+            }
+            egl.eglTerminate(display);
+        }
+    }
+
+    /**
+     * Decode a jpeg several times
+     *
+     * @return megapixels per second, 0 for failure
+     */
+    private static float measureDecodeSpeed() {
+        try {
+            Bitmap bitmap = Bitmap.createBitmap(SAMPLE_SIZE, SAMPLE_SIZE, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            Paint paint = new Paint();
+            // Not a solid color, or it is too easy to decode
+            paint.setShader(new LinearGradient(0, 0, SAMPLE_SIZE, SAMPLE_SIZE,
+                    0xff2196f3, 0xffff5722, Shader.TileMode.MIRROR));
+            canvas.drawPaint(paint);
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+            bitmap.recycle();
+            byte[] data = os.toByteArray();
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            long start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < SAMPLE_TIMES; i++) {
+                Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                if (decoded == null) {
+                    return 0.0f;
+                }
+                options.inBitmap = decoded;
+            }
+            long time = Math.max(1, SystemClock.elapsedRealtime() - start);
+            if (options.inBitmap != null) {
+                options.inBitmap.recycle();
+            }
+
+            return (float) SAMPLE_SIZE * SAMPLE_SIZE * SAMPLE_TIMES / 1000000.0f / (time / 1000.0f);
+        } catch (Throwable tr) {
+            Log.w(TAG, "Can't measure decode speed", tr);
+            return 0.0f;
+        }
+    }
+
+    public static boolean isMeasured() {
+        return sMeasured;
+    }
+
+    public static int getMemoryClass() {
+        return sMemoryClass;
+    }
+
+    public static int getCores() {
+        return sCores;
+    }
+
+    public static int getMaxTextureSize() {
+        return sMaxTextureSize;
+    }
+
+    public static float getDecodeSpeed() {
+        return sDecodeSpeed;
+    }
+
+    /**
+     * @return {@link #CLASS_LOW}, {@link #CLASS_MEDIUM} or {@link #CLASS_HIGH}
+     */
+    public static int getDeviceClass() {
+        float decodeSpeed = sDecodeSpeed;
+        if (sMemoryClass <= 48 || sCores <= 1 || (decodeSpeed > 0.0f && decodeSpeed < 5.0f)) {
+            return CLASS_LOW;
+        } else if (sMemoryClass >= 192 && sCores >= 4 && (decodeSpeed == 0.0f || decodeSpeed >= 20.0f)) {
+            return CLASS_HIGH;
+        } else {
+            return CLASS_MEDIUM;
+        }
+    }
+
+    public static int getMemoryCacheSize() {
+        float ratio;
+        int max;
+        switch (getDeviceClass()) {
+            case CLASS_LOW:
+                ratio = 0.15f;
+                max = 12 * 1024 * 1024;
+                break;
+            default:
+            case CLASS_MEDIUM:
+                ratio = 0.2f;
+                max = 20 * 1024 * 1024;
+                break;
+            case CLASS_HIGH:
+                ratio = 0.2f;
+                max = 40 * 1024 * 1024;
+                break;
+        }
+        return Math.min(max, Math.round(ratio * sMemoryClass * 1024 * 1024));
+    }
+
+    /**
+     * The disk cache size of Conaco
+     */
+    public static int getImageDiskCacheSize() {
+        switch (getDeviceClass()) {
+            case CLASS_LOW:
+                return 40 * 1024 * 1024;
+            default:
+            case CLASS_MEDIUM:
+                return 80 * 1024 * 1024;
+            case CLASS_HIGH:
+                return 160 * 1024 * 1024;
+        }
+    }
+
+    public static int getThumbDiskCacheSize() {
+        switch (getDeviceClass()) {
+            case CLASS_LOW:
+                return 20 * 1024 * 1024;
+            default:
+            case CLASS_MEDIUM:
+                return 40 * 1024 * 1024;
+            case CLASS_HIGH:
+                return 80 * 1024 * 1024;
+        }
+    }
+
+    /**
+     * The max size of {@link com.hippo.nimingban.widget.AshmemThumbStore}
+     */
+    public static int getAshmemThumbStoreSize() {
+        switch (getDeviceClass()) {
+            case CLASS_LOW:
+                return 8 * 1024 * 1024;
+            default:
+            case CLASS_MEDIUM:
+                return 16 * 1024 * 1024;
+            case CLASS_HIGH:
+                return 32 * 1024 * 1024;
+        }
+    }
+
+    /**
+     * The most items {@link com.hippo.nimingban.widget.ThumbPrefetcher} looks ahead
+     */
+    public static int getThumbPrefetchMaxAhead() {
+        switch (getDeviceClass()) {
+            case CLASS_LOW:
+                return 6;
+            default:
+            case CLASS_MEDIUM:
+                return 15;
+            case CLASS_HIGH:
+                return 24;
+        }
+    }
+
+    /**
+     * Bytes of thumbnails prefetched but not shown yet
+     */
+    public static long getThumbPrefetchByteBudget() {
+        switch (getDeviceClass()) {
+            case CLASS_LOW:
+                return 1024 * 1024;
+            default:
+            case CLASS_MEDIUM:
+                return 2 * 1024 * 1024;
+            case CLASS_HIGH:
+                return 4 * 1024 * 1024;
+        }
+    }
+
+    /**
+     * The image is decoded to {@link com.hippo.drawable.TiledBitmapDrawable}
+     * if width or height is not smaller than it.
+     */
+    public static int getLargeImageThreshold() {
+        int threshold = getDeviceClass() == CLASS_HIGH ? 2048 : 1024;
+        // Bitmap larger than max texture size can't be drawn with hardware acceleration
+        return Math.min(threshold, sMaxTextureSize);
+    }
+
+    /**
+     * {@link com.hippo.drawable.TiledBitmapDrawable} is scaled down
+     * to keep pixels in side * side.
+     */
+    public static int getTiledBudgetSide() {
+        switch (getDeviceClass()) {
+            case CLASS_LOW:
+                return 1024;
+            default:
+            case CLASS_MEDIUM:
+                return 1536;
+            case CLASS_HIGH:
+                return 2048;
+        }
+    }
+
+    public static String getDeviceClassName() {
+        switch (getDeviceClass()) {
+            case CLASS_LOW:
+                return "low";
+            default:
+            case CLASS_MEDIUM:
+                return "medium";
+            case CLASS_HIGH:
+                return "high";
+        }
+    }
+
+    public static String getDescription() {
+        return "class: " + getDeviceClassName() + (sMeasured ? "" : " (measuring)") + "\n" +
+                "memory class: " + sMemoryClass + "MB\n" +
+                "cores: " + sCores + "\n" +
+                "max texture size: " + sMaxTextureSize + "\n" +
+                "decode speed: " + String.format(Locale.US, "%.1f", sDecodeSpeed) + " MP/s\n" +
+                "memory cache: " + getMemoryCacheSize() / 1024 / 1024 + "MB\n" +
+                "image disk cache: " + getImageDiskCacheSize() / 1024 / 1024 + "MB\n" +
+                "thumb disk cache: " + getThumbDiskCacheSize() / 1024 / 1024 + "MB\n" +
+                "ashmem thumb store: " + getAshmemThumbStoreSize() / 1024 / 1024 + "MB\n" +
+                "thumb prefetch: " + getThumbPrefetchMaxAhead() + " items, " +
+                getThumbPrefetchByteBudget() / 1024 + "KB\n" +
+                "large image threshold: " + getLargeImageThreshold() + "px\n" +
+                "tiled budget: " + getTiledBudgetSide() + "x" + getTiledBudgetSide();
+    }
+}
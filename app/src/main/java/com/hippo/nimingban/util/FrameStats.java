@@ -0,0 +1,288 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.util;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Trace;
+import android.support.annotation.Nullable;
+
+import com.hippo.nimingban.NMBAppConfig;
+import com.hippo.yorozuya.IOUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Histograms of frame durations while scrolling and of marked sections,
+ * like binding rows and decoding images. Sections are also shown in
+ * systrace on API 18+. Durations are only recorded when enabled.
+ */
+public final class FrameStats {
+
+    public static final String FRAME = "frame";
+
+    /**
+     * Upper bounds of buckets in ms, the last bucket has no bound
+     */
+    private static final int[] BUCKETS = {4, 8, 12, 16, 20, 33, 50, 100, 200, 500};
+
+    private static final long FRAME_INTERVAL_NANOS = 16666667L;
+
+    private static final int MAX_DEPTH = 16;
+
+    private static volatile boolean sEnabled;
+
+    private static final Map<String, Histogram> sHistograms = new LinkedHashMap<>();
+
+    /**
+     * Frames skipped while scrolling
+     */
+    private static long sDroppedFrames;
+
+    private static final ThreadLocal<SectionStack> sSections = new ThreadLocal<SectionStack>() {
+        @Override
+        protected SectionStack initialValue() {
+            return new SectionStack();
+        }
+    };
+
+    private FrameStats() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Mark the start of a section, must be paired with {@link #endSection()}
+     * in the same thread.
+     */
+    public static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            beginTrace(name);
+        }
+        sSections.get().push(name, sEnabled ? System.nanoTime() : 0);
+    }
+
+    public static void endSection() {
+        SectionStack stack = sSections.get();
+        long start = stack.peekStart();
+        String name = stack.pop();
+        if (start != 0 && name != null && sEnabled) {
+            record(name, System.nanoTime() - start);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            endTrace();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginTrace(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endTrace() {
+        Trace.endSection();
+    }
+
+    /**
+     * @param duration the nanos from last frame
+     */
+    public static void recordFrame(long duration) {
+        if (!sEnabled) {
+            return;
+        }
+        record(FRAME, duration);
+        long skipped = duration / FRAME_INTERVAL_NANOS - 1;
+        if (skipped > 0) {
+            synchronized (FrameStats.class) {
+                sDroppedFrames += skipped;
+            }
+        }
+    }
+
+    private static synchronized void record(String name, long duration) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            sHistograms.put(name, histogram);
+        }
+        histogram.add(duration);
+    }
+
+    public static synchronized void clear() {
+        sHistograms.clear();
+        sDroppedFrames = 0;
+    }
+
+    public static synchronized String getDescription() {
+        if (sHistograms.isEmpty()) {
+            return "frame stats: " + (sEnabled ? "no data" : "off");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("dropped frames: ").append(sDroppedFrames);
+        for (Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            sb.append('\n').append(entry.getKey()).append(": ").append(histogram.count)
+                    .append(" avg ").append(histogram.sum / histogram.count / 1000000).append("ms")
+                    .append(" p90 <=").append(histogram.getPercentileBound(0.9f)).append("ms")
+                    .append(" max ").append(histogram.max / 1000000).append("ms");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the histograms as tab separated lines to a file, then clear them.
+     * Files of different builds can be compared.
+     *
+     * @return the path of the file, null for failed
+     */
+    @Nullable
+    public static String export(Context context) {
+        File dir = NMBAppConfig.getPerfDir();
+        if (dir == null) {
+            return null;
+        }
+
+        File file = new File(dir, ReadableTime.getFilenamableTime(System.currentTimeMillis()) + ".txt");
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(file);
+            writer.write("# version " + getVersion(context) + ", " + Build.MODEL +
+                    ", sdk " + Build.VERSION.SDK_INT + "\n");
+            synchronized (FrameStats.class) {
+                writer.write("# dropped frames " + sDroppedFrames + "\n");
+                writer.write("name\tcount\tsum_ms\tmax_ms");
+                for (int bound : BUCKETS) {
+                    writer.write("\t<=" + bound);
+                }
+                writer.write("\t>" + BUCKETS[BUCKETS.length - 1] + "\n");
+                for (Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+                    Histogram histogram = entry.getValue();
+                    writer.write(entry.getKey() + "\t" + histogram.count + "\t" +
+                            histogram.sum / 1000000 + "\t" + histogram.max / 1000000);
+                    for (long count : histogram.buckets) {
+                        writer.write("\t" + count);
+                    }
+                    writer.write("\n");
+                }
+                sHistograms.clear();
+                sDroppedFrames = 0;
+            }
+            writer.flush();
+            return file.getPath();
+        } catch (Exception e) {
+            file.delete();
+            return null;
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    private static String getVersion(Context context) {
+        try {
+            PackageInfo pi = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return pi.versionName + " (" + pi.versionCode + ")";
+        } catch (PackageManager.NameNotFoundException e) {
+            return "unknown";
+        }
+    }
+
+    private static class Histogram {
+
+        public final long[] buckets = new long[BUCKETS.length + 1];
+        public long count;
+        /**
+         * In nanos
+         */
+        public long sum;
+        public long max;
+
+        public void add(long duration) {
+            long ms = duration / 1000000;
+            int i = 0;
+            while (i < BUCKETS.length && ms > BUCKETS[i]) {
+                i++;
+            }
+            buckets[i]++;
+            count++;
+            sum += duration;
+            max = Math.max(max, duration);
+        }
+
+        /**
+         * @return the upper bound of the bucket in ms, -1 for no bound
+         */
+        public int getPercentileBound(float percentile) {
+            long target = (long) Math.ceil(count * percentile);
+            long sum = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                sum += buckets[i];
+                if (sum >= target) {
+                    return BUCKETS[i];
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static class SectionStack {
+
+        private final String[] mNames = new String[MAX_DEPTH];
+        private final long[] mStarts = new long[MAX_DEPTH];
+        private int mSize;
+
+        public void push(String name, long start) {
+            // Too deep sections are not recorded, but still counted
+            if (mSize < MAX_DEPTH) {
+                mNames[mSize] = name;
+                mStarts[mSize] = start;
+            }
+            mSize++;
+        }
+
+        public long peekStart() {
+            return mSize > 0 && mSize <= MAX_DEPTH ? mStarts[mSize - 1] : 0;
+        }
+
+        @Nullable
+        public String pop() {
+            if (mSize == 0) {
+                return null;
+            }
+            mSize--;
+            if (mSize < MAX_DEPTH) {
+                String name = mNames[mSize];
+                mNames[mSize] = null;
+                return name;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Java heap headroom and OutOfMemoryError count of image decoding.
+ * They are kept apart for the ashmem thumbnail store on and off,
+ * so the two can be compared.
+ */
+public final class HeapStats {
+
+    private static final String PREFS_NAME = "heap_stats";
+
+    private static final String KEY_DECODES = "decodes";
+    private static final String KEY_OOMS = "ooms";
+    private static final String KEY_HEADROOM_SUM = "headroom_sum";
+    private static final String KEY_MIN_HEADROOM = "min_headroom";
+
+    private static final String PREFIX_ON = "on_";
+    private static final String PREFIX_OFF = "off_";
+
+    /**
+     * Write to disk after so many decodes
+     */
+    private static final int SAVE_INTERVAL = 50;
+
+    private static SharedPreferences sPrefs;
+    private static String sPrefix;
+
+    private static long sDecodes;
+    private static long sOoms;
+    /**
+     * In KB
+     */
+    private static long sHeadroomSum;
+    private static long sMinHeadroom;
+
+    private static int sUnsaved;
+
+    private HeapStats() {
+    }
+
+    public static void initialize(Context context, boolean ashmemThumbStore) {
+        sPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        sPrefix = ashmemThumbStore ? PREFIX_ON : PREFIX_OFF;
+        sDecodes = sPrefs.getLong(sPrefix + KEY_DECODES, 0);
+        sOoms = sPrefs.getLong(sPrefix + KEY_OOMS, 0);
+        sHeadroomSum = sPrefs.getLong(sPrefix + KEY_HEADROOM_SUM, 0);
+        sMinHeadroom = sPrefs.getLong(sPrefix + KEY_MIN_HEADROOM, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return free bytes the Java heap can still grow to
+     */
+    public static long getHeadroom() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Call it after a bitmap is decoded
+     */
+    public static synchronized void recordDecode() {
+        if (sPrefs == null) {
+            return;
+        }
+
+        long headroom = getHeadroom() / 1024;
+        sDecodes++;
+        sHeadroomSum += headroom;
+        sMinHeadroom = Math.min(sMinHeadroom, headroom);
+
+        if (++sUnsaved >= SAVE_INTERVAL) {
+            save();
+        }
+    }
+
+    public static synchronized void recordOutOfMemory() {
+        if (sPrefs == null) {
+            return;
+        }
+
+        sOoms++;
+        save();
+    }
+
+    private static void save() {
+        sUnsaved = 0;
+        sPrefs.edit()
+                .putLong(sPrefix + KEY_DECODES, sDecodes)
+                .putLong(sPrefix + KEY_OOMS, sOoms)
+                .putLong(sPrefix + KEY_HEADROOM_SUM, sHeadroomSum)
+                .putLong(sPrefix + KEY_MIN_HEADROOM, sMinHeadroom)
+                .apply();
+    }
+
+    private static String getDescription(String prefix) {
+        long decodes = sPrefs.getLong(prefix + KEY_DECODES, 0);
+        long ooms = sPrefs.getLong(prefix + KEY_OOMS, 0);
+        long headroomSum = sPrefs.getLong(prefix + KEY_HEADROOM_SUM, 0);
+        long minHeadroom = sPrefs.getLong(prefix + KEY_MIN_HEADROOM, Long.MAX_VALUE);
+        if (decodes == 0) {
+            return "no data, " + ooms + " OOM";
+        } else {
+            return decodes + " decodes, " + ooms + " OOM, headroom avg " +
+                    headroomSum / decodes / 1024 + "MB min " + minHeadroom / 1024 + "MB";
+        }
+    }
+
+    public static synchronized String getDescription() {
+        if (sPrefs == null) {
+            return "";
+        }
+
+        save();
+        return "ashmem thumbnails on: " + getDescription(PREFIX_ON) + "\n" +
+                "ashmem thumbnails off: " + getDescription(PREFIX_OFF) + "\n" +
+                "headroom now: " + getHeadroom() / 1024 / 1024 + "MB";
+    }
+}
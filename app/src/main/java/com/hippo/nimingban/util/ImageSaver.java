@@ -0,0 +1,260 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.util;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.hippo.conaco.Conaco;
+import com.hippo.unifile.UniFile;
+import com.hippo.yorozuya.FileUtils;
+import com.hippo.yorozuya.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Save image to {@link UniFile} without decoding it. The extension is
+ * from the magic bytes got while copying.
+ */
+public final class ImageSaver {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAGIC_SIZE = 12;
+
+    private ImageSaver() {
+    }
+
+    /**
+     * @return the extension for the magic bytes, null for unknown
+     */
+    @Nullable
+    public static String getExtension(byte[] header, int length) {
+        if (length >= 3 && (header[0] & 0xff) == 0xff && (header[1] & 0xff) == 0xd8 &&
+                (header[2] & 0xff) == 0xff) {
+            return "jpg";
+        } else if (length >= 4 && (header[0] & 0xff) == 0x89 && header[1] == 'P' &&
+                header[2] == 'N' && header[3] == 'G') {
+            return "png";
+        } else if (length >= 4 && header[0] == 'G' && header[1] == 'I' &&
+                header[2] == 'F' && header[3] == '8') {
+            return "gif";
+        } else if (length >= 12 && header[0] == 'R' && header[1] == 'I' &&
+                header[2] == 'F' && header[3] == 'F' && header[8] == 'W' &&
+                header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return "webp";
+        } else if (length >= 2 && header[0] == 'B' && header[1] == 'M') {
+            return "bmp";
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return the file if it is a plain file, null for others like SAF
+     */
+    @Nullable
+    public static File getPlainFile(@NonNull UniFile uniFile) {
+        Uri uri = uniFile.getUri();
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+            return new File(uri.getPath());
+        } else {
+            return null;
+        }
+    }
+
+    private static OutputStream openOutputStream(UniFile uniFile) throws IOException {
+        File file = getPlainFile(uniFile);
+        OutputStream os = file != null ? new FileOutputStream(file) : uniFile.openOutputStream();
+        return new BufferedOutputStream(os, BUFFER_SIZE);
+    }
+
+    /**
+     * Add extension if the filename doesn't have one
+     */
+    private static boolean addExtension(UniFile uniFile, String extension) {
+        String filename = uniFile.getName();
+        if (filename == null || extension == null ||
+                FileUtils.getExtensionFromFilename(filename) != null) {
+            return true;
+        }
+        return uniFile.renameTo(filename + "." + extension);
+    }
+
+    private static void copy(FileChannel src, long position, FileChannel dst) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        src.position(position);
+        while (src.read(buffer) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                dst.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Copy file to the UniFile, transfer with {@link FileChannel} if
+     * the target is a plain file.
+     */
+    public static boolean save(@NonNull File from, @NonNull UniFile to) {
+        File toFile = getPlainFile(to);
+        byte[] header = new byte[MAGIC_SIZE];
+        int headerLength;
+        boolean ok;
+
+        if (toFile != null) {
+            FileInputStream fis = null;
+            FileOutputStream fos = null;
+            try {
+                fis = new FileInputStream(from);
+                fos = new FileOutputStream(toFile);
+                FileChannel src = fis.getChannel();
+                FileChannel dst = fos.getChannel();
+
+                ByteBuffer buffer = ByteBuffer.wrap(header);
+                src.read(buffer, 0);
+                headerLength = buffer.position();
+
+                long size = src.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = src.transferTo(position, size - position, dst);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+                if (position < size) {
+                    // transferTo makes no progress, copy the rest
+                    copy(src, position, dst);
+                }
+                // Report error of closing, like disk full
+                fos.close();
+                ok = true;
+            } catch (IOException e) {
+                headerLength = 0;
+                ok = false;
+            } finally {
+                IOUtils.closeQuietly(fis);
+                IOUtils.closeQuietly(fos);
+            }
+        } else {
+            InputStream is = null;
+            HeaderOutputStream os = null;
+            try {
+                is = new FileInputStream(from);
+                os = new HeaderOutputStream(openOutputStream(to), header);
+                IOUtils.copy(is, os);
+                // Report error of the last flush, like disk full
+                os.flush();
+                os.close();
+                ok = true;
+            } catch (IOException e) {
+                ok = false;
+            } finally {
+                IOUtils.closeQuietly(is);
+                IOUtils.closeQuietly(os);
+            }
+            headerLength = os != null ? os.getHeaderLength() : 0;
+        }
+
+        if (!ok) {
+            to.delete();
+            return false;
+        }
+
+        return addExtension(to, getExtension(header, headerLength));
+    }
+
+    /**
+     * Copy the image in disk cache of Conaco to the UniFile,
+     * never download it.
+     */
+    public static boolean save(@NonNull Conaco conaco, @NonNull String key, @NonNull UniFile to) {
+        byte[] header = new byte[MAGIC_SIZE];
+        HeaderOutputStream os = null;
+        boolean ok;
+        try {
+            os = new HeaderOutputStream(openOutputStream(to), header);
+            ok = conaco.getBeerBelly().pullFromDiskCache(key, os);
+            if (ok) {
+                // Report error of the last flush, like disk full
+                os.flush();
+                os.close();
+            }
+        } catch (IOException e) {
+            ok = false;
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+
+        if (!ok) {
+            to.delete();
+            return false;
+        }
+
+        return addExtension(to, getExtension(header, os.getHeaderLength()));
+    }
+
+    /**
+     * Keep the first bytes written
+     */
+    private static class HeaderOutputStream extends FilterOutputStream {
+
+        private final byte[] mHeader;
+        private int mHeaderLength;
+
+        public HeaderOutputStream(OutputStream out, byte[] header) {
+            super(out);
+            mHeader = header;
+        }
+
+        public int getHeaderLength() {
+            return mHeaderLength;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            if (mHeaderLength < mHeader.length) {
+                mHeader[mHeaderLength++] = (byte) oneByte;
+            }
+            out.write(oneByte);
+        }
+
+        @Override
+        public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            int copy = Math.min(length, mHeader.length - mHeaderLength);
+            if (copy > 0) {
+                System.arraycopy(buffer, offset, mHeader, mHeaderLength, copy);
+                mHeaderLength += copy;
+            }
+            out.write(buffer, offset, length);
+        }
+    }
+}
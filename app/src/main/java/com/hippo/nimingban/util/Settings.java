@@ -30,6 +30,7 @@ import android.text.TextUtils;
 import com.hippo.nimingban.NMBAppConfig;
 import com.hippo.unifile.UniFile;
 import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.MathUtils;
 import com.hippo.yorozuya.NumberUtils;
 
 import java.io.ByteArrayInputStream;
@@ -119,6 +120,7 @@ public final class Settings {
     public static final int IMAGE_LOADING_STRATEGY_ALL = 0;
     public static final int IMAGE_LOADING_STRATEGY_WIFI = 1;
     public static final int IMAGE_LOADING_STRATEGY_NO = 2;
+    public static final int IMAGE_LOADING_STRATEGY_AUTO = 3;
 
     public static final String KEY_DARK_THEME = "dark_theme";
     public static final boolean DEFAULT_DARK_THEME = false;
@@ -136,7 +138,7 @@ public final class Settings {
     public static final String DEFAULT_FEED_ID = null;
 
     public static final String KEY_IMAGE_LOADING_STRATEGY = "image_loading_strategy";
-    public static final int DEFAULT_IMAGE_LOADING_STRATEGY = 0;
+    public static final int DEFAULT_IMAGE_LOADING_STRATEGY = IMAGE_LOADING_STRATEGY_AUTO;
     public static final String KEY_IMAGE_SAVE_LOACTION = "image_save_location";
 
     public static final String KEY_IMAGE_LOADING_STRATEGY_2 = "image_loading_strategy_2";
@@ -148,11 +150,26 @@ public final class Settings {
     public static final String KEY_IMAGE_SAVE_QUERY = "image_query";
     public static final String KEY_IMAGE_SAVE_FRAGMENT = "image_fragment";
 
+    public static final String KEY_DOWNLOAD_CONCURRENCY = "download_concurrency";
+    public static final int DEFAULT_DOWNLOAD_CONCURRENCY = 3;
+
+    /**
+     * In MB, 0 for no limit
+     */
+    public static final String KEY_DATA_BUDGET = "data_budget";
+    public static final int DEFAULT_DATA_BUDGET = 50;
+
+    public static final String KEY_ASHMEM_THUMB_STORE = "ashmem_thumb_store";
+    public static final boolean DEFAULT_ASHMEM_THUMB_STORE = false;
+
     public static final String KEY_SET_ANALYSIS = "set_analysis";
     public static final boolean DEFAULT_SET_ANALYSIS = false;
     public static final String KEY_ANALYSIS = "analysis";
     public static final boolean DEFAULT_ANALYSIS = false;
 
+    public static final String KEY_FRAME_STATS = "frame_stats";
+    public static final boolean DEFAULT_FRAME_STATS = false;
+
     public static boolean getDarkTheme() {
         return getBoolean(KEY_DARK_THEME, DEFAULT_DARK_THEME);
     }
@@ -219,6 +236,21 @@ public final class Settings {
         return getBoolean(KEY_IMAGE_LOADING_STRATEGY_2, DEFAULT_IMAGE_LOADING_STRATEGY_2);
     }
 
+    public static int getDownloadConcurrency() {
+        return MathUtils.clamp(getIntFromStr(KEY_DOWNLOAD_CONCURRENCY, DEFAULT_DOWNLOAD_CONCURRENCY), 1, 8);
+    }
+
+    /**
+     * @return bytes, 0 for no limit
+     */
+    public static long getDataBudget() {
+        return Math.max(0, getIntFromStr(KEY_DATA_BUDGET, DEFAULT_DATA_BUDGET)) * 1024L * 1024L;
+    }
+
+    public static boolean getAshmemThumbStore() {
+        return getBoolean(KEY_ASHMEM_THUMB_STORE, DEFAULT_ASHMEM_THUMB_STORE);
+    }
+
     @Nullable
     public static UniFile getImageSaveLocation() {
         UniFile dir = null;
@@ -261,6 +293,10 @@ public final class Settings {
         putBoolean(KEY_ANALYSIS, value);
     }
 
+    public static boolean getFrameStats() {
+        return getBoolean(KEY_FRAME_STATS, DEFAULT_FRAME_STATS);
+    }
+
     public static final String KEY_CRASH_FILENAME = "crash_filename";
     public static final String VALUE_CRASH_FILENAME = null;
 
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.os.MemoryFile;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.io.InputStreamPipe;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keep encoded thumbnails in ashmem with {@link MemoryFile}, so that they
+ * don't count against the Java heap. They are decoded when needed.
+ * The least recently used ones are removed when out of max size.
+ */
+public class AshmemThumbStore {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final int mMaxSize;
+    private int mSize;
+
+    private final LinkedHashMap<String, Entry> mMap = new LinkedHashMap<>(0, 0.75f, true);
+
+    public AshmemThumbStore(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int getCount() {
+        return mMap.size();
+    }
+
+    /**
+     * @return a pipe to read the thumbnail, null for miss
+     */
+    @Nullable
+    public synchronized InputStreamPipe get(String key) {
+        Entry entry = mMap.get(key);
+        if (entry == null) {
+            return null;
+        } else {
+            return new AshmemInputStreamPipe(entry);
+        }
+    }
+
+    /**
+     * Copy the file to ashmem
+     */
+    public boolean put(String key, File file) {
+        long length = file.length();
+        if (length <= 0 || length > mMaxSize / 8) {
+            // Too large to keep
+            return false;
+        }
+
+        MemoryFile memoryFile = null;
+        InputStream is = null;
+        boolean ok;
+        try {
+            memoryFile = new MemoryFile(null, (int) length);
+            is = new FileInputStream(file);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int offset = 0;
+            int n;
+            while (offset < length && (n = is.read(buffer, 0, (int) Math.min(BUFFER_SIZE, length - offset))) > 0) {
+                memoryFile.writeBytes(buffer, 0, offset, n);
+                offset += n;
+            }
+            ok = offset == length;
+        } catch (IOException e) {
+            ok = false;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        if (!ok) {
+            if (memoryFile != null) {
+                memoryFile.close();
+            }
+            return false;
+        }
+
+        synchronized (this) {
+            Entry old = mMap.put(key, new Entry(memoryFile));
+            mSize += (int) length;
+            if (old != null) {
+                mSize -= old.length;
+                old.evict();
+            }
+            trimToSize(mMaxSize);
+        }
+        return true;
+    }
+
+    public synchronized void remove(String key) {
+        Entry entry = mMap.remove(key);
+        if (entry != null) {
+            mSize -= entry.length;
+            entry.evict();
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Free half of it when memory is low
+     */
+    public synchronized void trimToHalf() {
+        trimToSize(mMaxSize / 2);
+    }
+
+    private void trimToSize(int maxSize) {
+        Iterator<Map.Entry<String, Entry>> iterator = mMap.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            mSize -= entry.length;
+            entry.evict();
+        }
+    }
+
+    private static class Entry {
+
+        public final MemoryFile memoryFile;
+        public final int length;
+        private int mRefCount;
+        private boolean mEvicted;
+
+        public Entry(MemoryFile memoryFile) {
+            this.memoryFile = memoryFile;
+            this.length = memoryFile.length();
+        }
+
+        public synchronized boolean obtain() {
+            if (mEvicted) {
+                return false;
+            }
+            mRefCount++;
+            return true;
+        }
+
+        public synchronized void release() {
+            mRefCount--;
+            if (mEvicted && mRefCount == 0) {
+                memoryFile.close();
+            }
+        }
+
+        /**
+         * Close it when nobody reads it
+         */
+        public synchronized void evict() {
+            mEvicted = true;
+            if (mRefCount == 0) {
+                memoryFile.close();
+            }
+        }
+    }
+
+    private static class AshmemInputStreamPipe implements InputStreamPipe {
+
+        private final Entry mEntry;
+        private boolean mObtained;
+        private InputStream mIs;
+
+        public AshmemInputStreamPipe(Entry entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        public void obtain() {
+            if (!mObtained) {
+                mObtained = mEntry.obtain();
+            }
+        }
+
+        @Override
+        public void release() {
+            if (mObtained) {
+                mObtained = false;
+                mEntry.release();
+            }
+        }
+
+        @NonNull
+        @Override
+        public InputStream open() throws IOException {
+            if (mIs != null) {
+                throw new IllegalStateException("Please close it first");
+            }
+            if (!mObtained) {
+                throw new IOException("The thumbnail is removed");
+            }
+
+            mIs = mEntry.memoryFile.getInputStream();
+            return mIs;
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(mIs);
+            mIs = null;
+        }
+    }
+}
@@ -17,6 +17,9 @@
 package com.hippo.nimingban.widget;
 
 import android.content.Context;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -29,6 +32,7 @@ import android.widget.Toast;
 
 import com.hippo.effect.ViewTransition;
 import com.hippo.nimingban.R;
+import com.hippo.nimingban.util.FrameStats;
 import com.hippo.util.ExceptionUtils;
 import com.hippo.util.LayoutManagerUtils;
 import com.hippo.vector.VectorDrawable;
@@ -37,13 +41,15 @@ import com.hippo.widget.SimpleImageView;
 import com.hippo.widget.recyclerview.EasyRecyclerView;
 import com.hippo.widget.refreshlayout.RefreshLayout;
 import com.hippo.yorozuya.IdIntGenerator;
-import com.hippo.yorozuya.IntList;
 import com.hippo.yorozuya.LayoutUtils;
+import com.hippo.yorozuya.MathUtils;
 import com.hippo.yorozuya.ResourcesUtils;
 import com.hippo.yorozuya.Say;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class ContentLayout extends FrameLayout {
 
@@ -146,6 +152,40 @@ public class ContentLayout extends FrameLayout {
         public static final int REFRESH_TYPE_FOOTER = 1;
         public static final int REFRESH_TYPE_PROGRESS_VIEW = 2;
 
+        /**
+         * Pages more than it are evicted from the far side
+         */
+        private static final int WINDOW_PAGES = 8;
+
+        /**
+         * Max item count of pages out of the window
+         */
+        private static final int PAGE_STORE_SIZE = 600;
+
+        /**
+         * Restore previous page when the first visible item is in it
+         */
+        private static final int RESTORE_THRESHOLD = 3;
+
+        /**
+         * Range of the distance to the end to prefetch next page, in items
+         */
+        private static final int MIN_PREFETCH_DISTANCE = 3;
+        private static final int MAX_PREFETCH_DISTANCE = 40;
+
+        /**
+         * Next page should be got before the user reaches the end at current speed,
+         * with some time to spare
+         */
+        private static final float PREFETCH_TIME_FACTOR = 1.5f;
+
+        private static final long DEFAULT_PAGE_LATENCY = 1500;
+
+        /**
+         * Weight of new sample of scroll speed and page latency
+         */
+        private static final float ALPHA = 0.3f;
+
         private ProgressView mProgressView;
         private ViewGroup mTipView;
         private RefreshLayout mRefreshLayout;
@@ -156,33 +196,58 @@ public class ContentLayout extends FrameLayout {
         private ViewTransition mViewTransition;
 
         /**
-         * Store data
+         * Pages around the viewport, the shown data
          */
-        private List<E> mData = new ArrayList<>();
+        private final PagedData<E> mPagedData = new PagedData<>();
 
         /**
-         * Generate task id
+         * Pages out of the window, evicted or left by going somewhere.
+         * They are shown again without request.
          */
-        private IdIntGenerator mIdGenerator = new IdIntGenerator();
+        private final SparsePageStore<E> mPageStore = new SparsePageStore<>(PAGE_STORE_SIZE);
+
+        private boolean mRestorePending;
+
+        private MergeTask mMergeTask;
+
+        private final DataDiff.Callback<E> mDiffCallback = new DataDiff.Callback<E>() {
+            @Nullable
+            @Override
+            public String getId(E data) {
+                return getDataId(data);
+            }
+
+            @Override
+            public boolean isSameContent(E oldData, E newData) {
+                return ContentHelper.this.isSameContent(oldData, newData);
+            }
+        };
 
         /**
-         * Store the page divider index
-         *
-         * For example, the data contain page 3, page 4, page 5,
-         * page 3 size is 7, page 4 size is 8, page 5 size is 9,
-         * so <code>mPageDivider</code> contain 7, 15, 24.
+         * Current task is a next page prefetch, it is not shown
          */
-        private IntList mPageDivider = new IntList();
+        private boolean mPrefetching;
+        /**
+         * The page failed to prefetch, don't try it again silently
+         */
+        private int mPrefetchFailedPage = -1;
 
         /**
-         * The first page in <code>mData</code>
+         * Pixel per millisecond
          */
-        private int mStartPage;
+        private float mScrollSpeed;
+        private long mLastScrollTime;
 
+        private long mPageLatency = DEFAULT_PAGE_LATENCY;
         /**
-         * The last page + 1 in <code>mData</code>
+         * Start time of current request from network, 0 for none
          */
-        private int mEndPage;
+        private long mRequestTime;
+
+        /**
+         * Generate task id
+         */
+        private IdIntGenerator mIdGenerator = new IdIntGenerator();
 
         /**
          * The available page count.
@@ -200,22 +265,46 @@ public class ContentLayout extends FrameLayout {
         private RecyclerView.OnScrollListener mOnScrollListener = new RecyclerView.OnScrollListener() {
             @Override
             public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
-                if (!mRefreshLayout.isRefreshing() && mRefreshLayout.isAlmostBottom() && mEndPage < mPages) {
-                    // Get next page
+                updateScrollSpeed(dy);
+
+                if (!mRefreshLayout.isRefreshing() && mRefreshLayout.isAlmostBottom() && getEndPage() < mPages) {
                     mRefreshLayout.setFooterRefreshing(true);
-                    mOnRefreshListener.onFooterRefresh();
+                    if (mPrefetching) {
+                        // The user catches up, show it
+                        mPrefetching = false;
+                        mCurrentTaskType = TYPE_NEXT_PAGE_KEEP_POS;
+                    } else {
+                        // Get next page
+                        mOnRefreshListener.onFooterRefresh();
+                    }
+                } else if (dy > 0 && shouldPrefetch()) {
+                    prefetchNextPage();
+                } else if (dy < 0 && !mRestorePending && !mRefreshLayout.isRefreshing() &&
+                        mPageStore.contains(getStartPage() - 1) &&
+                        LayoutManagerUtils.getFirstVisibleItemPostion(mRecyclerView.getLayoutManager()) < RESTORE_THRESHOLD) {
+                    // Can't change adapter in scroll callback
+                    mRestorePending = true;
+                    mRecyclerView.post(mRestorePreviousPage);
                 }
             }
         };
 
+        private final Runnable mRestorePreviousPage = new Runnable() {
+            @Override
+            public void run() {
+                mRestorePending = false;
+                restorePreviousPage();
+            }
+        };
+
         private RefreshLayout.OnRefreshListener mOnRefreshListener = new RefreshLayout.OnRefreshListener() {
             @Override
             public void onHeaderRefresh() {
-                if (mStartPage > 0) {
+                if (getStartPage() > 0) {
                     mCurrentTaskId = mIdGenerator.nextId();
                     mCurrentTaskType = TYPE_PRE_PAGE_KEEP_POS;
-                    mCurrentTaskPage = mStartPage - 1;
-                    getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                    mCurrentTaskPage = getStartPage() - 1;
+                    requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
                 } else {
                     doRefresh();
                 }
@@ -223,20 +312,21 @@ public class ContentLayout extends FrameLayout {
 
             @Override
             public void onFooterRefresh() {
-                if (mEndPage < mPages) {
+                int endPage = getEndPage();
+                if (endPage < mPages) {
                     // Get next page
                     mCurrentTaskId = mIdGenerator.nextId();
                     mCurrentTaskType = TYPE_NEXT_PAGE_KEEP_POS;
-                    mCurrentTaskPage = mEndPage;
-                    getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
-                } else if (mEndPage == mPages) {
+                    mCurrentTaskPage = endPage;
+                    requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                } else if (endPage == mPages) {
                     // Refresh last page
                     mCurrentTaskId = mIdGenerator.nextId();
                     mCurrentTaskType = TYPE_REFRESH_PAGE;
-                    mCurrentTaskPage = mEndPage - 1;
-                    getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                    mCurrentTaskPage = endPage - 1;
+                    requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
                 } else {
-                    Log.e(TAG, "Try to footer refresh, but mEndPage = " + mEndPage + ", mPages = " + mPages);
+                    Log.e(TAG, "Try to footer refresh, but endPage = " + endPage + ", mPages = " + mPages);
                 }
             }
         };
@@ -290,6 +380,32 @@ public class ContentLayout extends FrameLayout {
 
         protected abstract void notifyItemRangeInserted(int positionStart, int itemCount);
 
+        protected abstract void notifyItemRangeChanged(int positionStart, int itemCount);
+
+        /**
+         * Data with the same id is the same item. Refreshed data is merged
+         * into the old by id, and duplicate data is removed.
+         *
+         * @return the id of the data, null for unknown
+         */
+        @Nullable
+        protected String getDataId(E data) {
+            return null;
+        }
+
+        /**
+         * @return false if the item of the same id should be bound again
+         */
+        protected boolean isSameContent(E oldData, E newData) {
+            return false;
+        }
+
+        /**
+         * Cancel the request of {@link #getPageData(int, int, int)}, the result is ignored anyway
+         */
+        protected void cancelPageData() {
+        }
+
         protected void onScrollToPosition() {
         }
 
@@ -308,11 +424,14 @@ public class ContentLayout extends FrameLayout {
          *                if {@code location < 0 || location >= size()}
          */
         public E getDataAt(int location) {
-            return mData.get(location);
+            return mPagedData.get(location);
         }
 
+        /**
+         * @return the count of shown data, pages out of the window are not included
+         */
         public int size() {
-            return mData.size();
+            return mPagedData.size();
         }
 
         public void setPages(int pages) {
@@ -324,11 +443,27 @@ public class ContentLayout extends FrameLayout {
             return mPages;
         }
 
+        /**
+         * @return the first page in data
+         */
+        public int getStartPage() {
+            return mPagedData.getStartPage();
+        }
+
+        /**
+         * @return the last page + 1 in data
+         */
+        public int getEndPage() {
+            return mPagedData.getEndPage();
+        }
+
         public void onGetEmptyData(int taskId) {
             if (mCurrentTaskId != taskId) {
                 return;
             }
 
+            mPrefetching = false;
+
             switch (mCurrentTaskType) {
                 case TYPE_REFRESH:
                 case TYPE_SOMEWHERE:
@@ -350,38 +485,49 @@ public class ContentLayout extends FrameLayout {
         }
 
         public void onGetPageData(int taskId, List<E> data) {
+            FrameStats.beginSection("ContentHelper.onGetPageData");
+            try {
+                handlePageData(taskId, data);
+            } finally {
+                FrameStats.endSection();
+            }
+        }
+
+        private void handlePageData(int taskId, List<E> data) {
             if (mCurrentTaskId == taskId) {
                 showContent();
 
+                if (mRequestTime != 0) {
+                    long latency = SystemClock.uptimeMillis() - mRequestTime;
+                    mPageLatency += (long) (ALPHA * (latency - mPageLatency));
+                    mRequestTime = 0;
+                }
+                boolean prefetching = mPrefetching;
+                mPrefetching = false;
+
+                // Keep the order of changes
+                finishMerge();
+
                 int dataSize;
+                int removed;
                 switch (mCurrentTaskType) {
                     case TYPE_REFRESH:
-                        mStartPage = 0;
-                        mEndPage = 1;
-                        mPageDivider.clear();
-                        mPageDivider.add(data.size());
-
-                        mData.clear();
-                        mData.addAll(data);
-                        notifyDataSetChanged();
-
-                        mRecyclerView.stopScroll();
-                        LayoutManagerUtils.scrollToPositionWithOffset(mRecyclerView.getLayoutManager(), 0, 0);
-                        onScrollToPosition();
+                        data = DataDiff.dedupe(data, null, mDiffCallback);
+                        if (mPagedData.isEmpty()) {
+                            applyMerge(-1, data, null);
+                        } else {
+                            startMerge(-1, data);
+                        }
                         break;
                     case TYPE_PRE_PAGE:
                     case TYPE_PRE_PAGE_KEEP_POS:
-                        mData.addAll(0, data);
+                        data = DataDiff.dedupe(data, getShownIds(-1), mDiffCallback);
+                        mPagedData.prepend(data);
                         notifyItemRangeInserted(0, data.size());
+                        trimWindow(false);
 
                         dataSize = data.size();
-                        for (int i = 0, n = mPageDivider.size(); i < n; i++) {
-                            mPageDivider.set(i, mPageDivider.get(i) + dataSize);
-                        }
-                        mPageDivider.add(0, dataSize);
-
-                        mStartPage--;
-                        // assert mStartPage >= 0
+                        // assert getStartPage() >= 0
                         if (mCurrentTaskType == TYPE_PRE_PAGE_KEEP_POS) {
                             mRecyclerView.stopScroll();
                             LayoutManagerUtils.scrollToPositionProperly(mRecyclerView.getLayoutManager(), getContext(),
@@ -394,63 +540,44 @@ public class ContentLayout extends FrameLayout {
                         break;
                     case TYPE_NEXT_PAGE:
                     case TYPE_NEXT_PAGE_KEEP_POS:
+                        if (mCurrentTaskPage != getEndPage()) {
+                            // The end page is evicted by restoring previous page,
+                            // the data is not next to shown data, keep it for later
+                            mPageStore.put(mCurrentTaskPage, data);
+                            break;
+                        }
+                        data = DataDiff.dedupe(data, getShownIds(-1), mDiffCallback);
                         dataSize = data.size();
-                        int oldDataSize = mData.size();
-                        mData.addAll(data);
+                        int oldDataSize = mPagedData.size();
+                        mPagedData.append(data);
                         notifyItemRangeInserted(oldDataSize, dataSize);
+                        removed = trimWindow(true);
 
-                        mPageDivider.add(oldDataSize + dataSize);
-
-                        mEndPage++;
-                        if (mCurrentTaskType == TYPE_NEXT_PAGE_KEEP_POS) {
+                        if (prefetching) {
+                            // Appended below, the user is still reading
+                        } else if (mCurrentTaskType == TYPE_NEXT_PAGE_KEEP_POS) {
                             mRecyclerView.stopScroll();
                             mRecyclerView.smoothScrollBy(0, mNextPageScrollSize);
                             onScrollToPosition();
                         } else {
                             mRecyclerView.stopScroll();
-                            LayoutManagerUtils.scrollToPositionWithOffset(mRecyclerView.getLayoutManager(), oldDataSize, 0);
+                            LayoutManagerUtils.scrollToPositionWithOffset(mRecyclerView.getLayoutManager(),
+                                    oldDataSize - removed, 0);
                             onScrollToPosition();
                         }
                         break;
                     case TYPE_SOMEWHERE:
-                        mData.clear();
-                        mData.addAll(data);
-                        notifyDataSetChanged();
-
-                        mStartPage = mCurrentTaskPage;
-                        mEndPage = mCurrentTaskPage + 1;
-
-                        mPageDivider.clear();
-                        mPageDivider.add(data.size());
-
-                        mRecyclerView.stopScroll();
-                        LayoutManagerUtils.scrollToPositionWithOffset(mRecyclerView.getLayoutManager(), 0, 0);
-                        onScrollToPosition();
+                        showSomewhere(mCurrentTaskPage, DataDiff.dedupe(data, null, mDiffCallback));
                         break;
                     case TYPE_REFRESH_PAGE:
-                        if (mCurrentTaskPage < mStartPage || mCurrentTaskPage >= mEndPage) {
+                        if (!mPagedData.containsPage(mCurrentTaskPage)) {
                             Log.e(TAG, "TYPE_REFRESH_PAGE, but mCurrentTaskPage = " + mCurrentTaskPage +
-                                    ", mStartPage = " + mStartPage + ", mEndPage = " + mEndPage);
+                                    ", startPage = " + getStartPage() + ", endPage = " + getEndPage());
                             break;
                         }
 
-                        int oldIndexStart = mCurrentTaskPage == mStartPage ? 0 : mPageDivider.get(mCurrentTaskPage - mStartPage - 1);
-                        int oldIndexEnd = mPageDivider.get(mCurrentTaskPage - mStartPage);
-                        mData.subList(oldIndexStart, oldIndexEnd).clear();
-                        int newIndexStart = oldIndexStart;
-                        int newIndexEnd = newIndexStart + data.size();
-                        mData.addAll(oldIndexStart, data);
-                        notifyDataSetChanged();
-
-                        for (int i = mCurrentTaskPage - mStartPage, n = mPageDivider.size(); i < n; i++) {
-                            mPageDivider.set(i, mPageDivider.get(i) - oldIndexEnd + newIndexEnd);
-                        }
-
-                        if (newIndexEnd > oldIndexEnd && newIndexEnd > 0) {
-                            mRecyclerView.stopScroll();
-                            LayoutManagerUtils.scrollToPositionWithOffset(mRecyclerView.getLayoutManager(), newIndexEnd - 1, 0);
-                            onScrollToPosition();
-                        }
+                        startMerge(mCurrentTaskPage, DataDiff.dedupe(data,
+                                getShownIds(mCurrentTaskPage), mDiffCallback));
                         break;
                 }
             }
@@ -461,6 +588,15 @@ public class ContentLayout extends FrameLayout {
 
         public void onGetExpection(int taskId, Exception e) {
             if (mCurrentTaskId == taskId) {
+                mRequestTime = 0;
+                if (mPrefetching) {
+                    // Not shown, the footer will try again
+                    mPrefetching = false;
+                    mPrefetchFailedPage = mCurrentTaskPage;
+                    Say.d(TAG, "Prefetch page " + mCurrentTaskPage + " failed " + e);
+                    return;
+                }
+
                 if (e != null) {
                     e.printStackTrace();
                 }
@@ -532,14 +668,14 @@ public class ContentLayout extends FrameLayout {
             mCurrentTaskId = mIdGenerator.nextId();
             mCurrentTaskType = type;
             mCurrentTaskPage = page;
-            getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+            requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
         }
 
         private void doRefresh() {
             mCurrentTaskId = mIdGenerator.nextId();
             mCurrentTaskType = TYPE_REFRESH;
             mCurrentTaskPage = 0;
-            getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+            requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
         }
 
         /**
@@ -550,6 +686,24 @@ public class ContentLayout extends FrameLayout {
             doRefresh();
         }
 
+        /**
+         * Show the data got before as page 0 at once, then refresh.
+         * The refreshed data is merged to it.
+         *
+         * @param data null or empty to show progress bar instead
+         */
+        public void firstRefresh(@Nullable List<E> data) {
+            if (data == null || data.isEmpty()) {
+                firstRefresh();
+                return;
+            }
+
+            showContent();
+            applyMerge(-1, DataDiff.dedupe(data, null, mDiffCallback), null);
+            mRefreshLayout.setHeaderRefreshing(true);
+            doRefresh();
+        }
+
         /**
          * Show progress bar first, than do refresh
          */
@@ -560,31 +714,422 @@ public class ContentLayout extends FrameLayout {
 
         private void cancelCurrentTask() {
             mCurrentTaskId = mIdGenerator.nextId();
+            mPrefetching = false;
+            mRequestTime = 0;
+            cancelPageData();
+            // The next task works on merged data
+            finishMerge();
             mRefreshLayout.setHeaderRefreshing(false);
             mRefreshLayout.setFooterRefreshing(false);
         }
 
-        private int getPageStart(int page) {
-            if (mStartPage == page) {
+        /**
+         * @param exceptPage the page not to include, -1 for none
+         */
+        private Set<String> getShownIds(int exceptPage) {
+            Set<String> ids = new HashSet<>();
+            for (int page = mPagedData.getStartPage(), n = mPagedData.getEndPage(); page < n; page++) {
+                if (page == exceptPage) {
+                    continue;
+                }
+                List<E> data = mPagedData.getPageData(page);
+                for (int i = 0, size = data.size(); i < size; i++) {
+                    String id = getDataId(data.get(i));
+                    if (id != null) {
+                        ids.add(id);
+                    }
+                }
+            }
+            return ids;
+        }
+
+        /**
+         * @param page -1 for all shown data
+         */
+        private List<E> getMergeOldData(int page) {
+            if (page < 0) {
+                List<E> data = new ArrayList<>(mPagedData.size());
+                for (int i = 0, n = mPagedData.size(); i < n; i++) {
+                    data.add(mPagedData.get(i));
+                }
+                return data;
+            } else {
+                return new ArrayList<>(mPagedData.getPageData(page));
+            }
+        }
+
+        /**
+         * Compute the diff in background, then apply it
+         *
+         * @param page the page to replace, -1 to replace all with page 0
+         */
+        private void startMerge(int page, List<E> data) {
+            mMergeTask = new MergeTask(page, getMergeOldData(page), data, mPagedData.getModCount());
+            mMergeTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
+        /**
+         * Apply the pending merge now
+         */
+        private void finishMerge() {
+            MergeTask task = mMergeTask;
+            if (task != null) {
+                mMergeTask = null;
+                task.cancel(false);
+                onMergeComputed(task.mPage, task.mNewData, null, -1);
+            }
+        }
+
+        private void onMergeComputed(int page, List<E> data, @Nullable List<DataDiff.Op> ops, int modCount) {
+            if (page >= 0 && !mPagedData.containsPage(page)) {
+                // The page is gone
+                return;
+            }
+            if (modCount != mPagedData.getModCount()) {
+                // Data changed, do it again
+                ops = DataDiff.compute(getMergeOldData(page), data, mDiffCallback);
+            }
+            applyMerge(page, data, ops);
+        }
+
+        private int indexOfId(String id) {
+            for (int i = 0, n = mPagedData.size(); i < n; i++) {
+                if (id.equals(getDataId(mPagedData.get(i)))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Replace data and notify by the ops, keep the first visible item in place.
+         *
+         * @param page the page to replace, -1 to replace all with page 0
+         * @param ops null to notify data set changed
+         */
+        private void applyMerge(int page, List<E> data, @Nullable List<DataDiff.Op> ops) {
+            RecyclerView.LayoutManager layoutManager = mRecyclerView.getLayoutManager();
+            int anchorPosition = LayoutManagerUtils.getFirstVisibleItemPostion(layoutManager);
+            String anchorId = null;
+            int anchorOffset = 0;
+            if (anchorPosition >= 0 && anchorPosition < mPagedData.size()) {
+                anchorId = getDataId(mPagedData.get(anchorPosition));
+                View anchorView = layoutManager.findViewByPosition(anchorPosition);
+                anchorOffset = anchorView != null ? anchorView.getTop() - mRecyclerView.getPaddingTop() : 0;
+            }
+
+            int start;
+            boolean grew = false;
+            if (page < 0) {
+                start = 0;
+                mPageStore.clear();
+                mPrefetchFailedPage = -1;
+                mPagedData.reset(0, data);
+            } else {
+                start = mPagedData.getPageStart(page);
+                int oldSize = mPagedData.getPageData(page).size();
+                mPagedData.replace(page, data);
+                grew = data.size() > oldSize;
+            }
+
+            if (ops == null) {
+                notifyDataSetChanged();
+            } else {
+                for (DataDiff.Op op : ops) {
+                    switch (op.type) {
+                        case DataDiff.OP_REMOVE:
+                            notifyItemRangeRemoved(start + op.position, op.count);
+                            break;
+                        case DataDiff.OP_INSERT:
+                            notifyItemRangeInserted(start + op.position, op.count);
+                            break;
+                        case DataDiff.OP_CHANGE:
+                            notifyItemRangeChanged(start + op.position, op.count);
+                            break;
+                    }
+                }
+            }
+
+            if (page < 0 || ops == null) {
+                int newAnchorPosition = anchorId != null ? indexOfId(anchorId) : -1;
+                mRecyclerView.stopScroll();
+                if (page < 0 && (anchorPosition <= 0 || newAnchorPosition < 0)) {
+                    // At the top, show the new items
+                    LayoutManagerUtils.scrollToPositionWithOffset(layoutManager, 0, 0);
+                    onScrollToPosition();
+                } else if (newAnchorPosition >= 0) {
+                    LayoutManagerUtils.scrollToPositionWithOffset(layoutManager, newAnchorPosition, anchorOffset);
+                }
+            }
+
+            if (grew) {
+                // Hint the new items
+                mRecyclerView.smoothScrollBy(0, mNextPageScrollSize);
+            }
+        }
+
+        /**
+         * Evict pages out of the window
+         *
+         * @param fromStart true to evict from the start, or from the end
+         * @return the count of removed items
+         */
+        private int trimWindow(boolean fromStart) {
+            int removed = 0;
+            while (mPagedData.getPageCount() > WINDOW_PAGES) {
+                int page;
+                int position;
+                List<E> data;
+                if (fromStart) {
+                    page = mPagedData.getStartPage();
+                    position = 0;
+                    data = mPagedData.removeFirst();
+                } else {
+                    page = mPagedData.getEndPage() - 1;
+                    position = mPagedData.getPageStart(page);
+                    data = mPagedData.removeLast();
+                }
+                notifyItemRangeRemoved(position, data.size());
+                mPageStore.put(page, data);
+                removed += data.size();
+            }
+            return removed;
+        }
+
+        /**
+         * Get the page from evicted pages if it is there, or from {@link #getPageData(int, int, int)}
+         */
+        private void requestPageData(final int taskId, int type, int page) {
+            mPrefetching = false;
+            mRequestTime = 0;
+
+            final List<E> data;
+            switch (type) {
+                case TYPE_PRE_PAGE:
+                case TYPE_PRE_PAGE_KEEP_POS:
+                case TYPE_NEXT_PAGE:
+                case TYPE_NEXT_PAGE_KEEP_POS:
+                case TYPE_SOMEWHERE:
+                    data = mPageStore.remove(page);
+                    break;
+                default:
+                    data = null;
+                    break;
+            }
+
+            if (data != null) {
+                // Keep it async like a request
+                mRecyclerView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onGetPageData(taskId, data);
+                    }
+                });
+            } else {
+                mRequestTime = SystemClock.uptimeMillis();
+                getPageData(taskId, type, page);
+            }
+        }
+
+        private void updateScrollSpeed(int dy) {
+            long now = SystemClock.uptimeMillis();
+            long interval = now - mLastScrollTime;
+            mLastScrollTime = now;
+            if (dy <= 0 || interval <= 0 || interval > 1000) {
+                // Not a continuous scrolling down
+                return;
+            }
+            float speed = (float) dy / interval;
+            mScrollSpeed += ALPHA * (speed - mScrollSpeed);
+        }
+
+        /**
+         * Items which can be passed in the time of getting a page
+         */
+        private int getPrefetchDistance() {
+            int childCount = mRecyclerView.getChildCount();
+            if (childCount == 0) {
+                return MIN_PREFETCH_DISTANCE;
+            }
+            float itemHeight = (float) mRecyclerView.getHeight() / childCount;
+            int distance = (int) (mScrollSpeed * mPageLatency * PREFETCH_TIME_FACTOR / itemHeight);
+            return MathUtils.clamp(distance, MIN_PREFETCH_DISTANCE, MAX_PREFETCH_DISTANCE);
+        }
+
+        private boolean shouldPrefetch() {
+            if (mPrefetching || mRefreshLayout.isRefreshing() || mPagedData.isEmpty()) {
+                return false;
+            }
+            int endPage = getEndPage();
+            if (endPage >= mPages || endPage == mPrefetchFailedPage) {
+                return false;
+            }
+            int lastPosition = LayoutManagerUtils.getLastVisibleItemPostion(mRecyclerView.getLayoutManager());
+            return lastPosition != -1 && lastPosition >= mPagedData.size() - getPrefetchDistance();
+        }
+
+        /**
+         * Get next page in background, append it without scrolling
+         */
+        private void prefetchNextPage() {
+            mCurrentTaskId = mIdGenerator.nextId();
+            mCurrentTaskType = TYPE_NEXT_PAGE;
+            mCurrentTaskPage = getEndPage();
+            requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+            mPrefetching = true;
+        }
+
+        /**
+         * Put the evicted previous page back, keep the shown items in place
+         */
+        private void restorePreviousPage() {
+            if (mRefreshLayout.isRefreshing() || mPagedData.isEmpty()) {
+                return;
+            }
+            int page = getStartPage() - 1;
+            List<E> data = mPageStore.remove(page);
+            if (data == null) {
+                return;
+            }
+
+            RecyclerView.LayoutManager layoutManager = mRecyclerView.getLayoutManager();
+            int firstPosition = LayoutManagerUtils.getFirstVisibleItemPostion(layoutManager);
+            View firstView = layoutManager.findViewByPosition(firstPosition);
+            int offset = firstView != null ? firstView.getTop() - mRecyclerView.getPaddingTop() : 0;
+
+            // Task of pre page is useless now
+            if (mCurrentTaskType == TYPE_PRE_PAGE || mCurrentTaskType == TYPE_PRE_PAGE_KEEP_POS) {
+                cancelCurrentTask();
+            }
+
+            mPagedData.prepend(data);
+            notifyItemRangeInserted(0, data.size());
+            trimWindow(false);
+            if (firstPosition != -1) {
+                LayoutManagerUtils.scrollToPositionWithOffset(layoutManager, firstPosition + data.size(), offset);
+            }
+        }
+
+        /**
+         * Keep the shown pages in store, then show the page with
+         * the stored pages around it
+         */
+        private void showSomewhere(int page, List<E> data) {
+            for (int i = mPagedData.getStartPage(), n = mPagedData.getEndPage(); i < n; i++) {
+                mPageStore.put(i, mPagedData.getPageData(i));
+            }
+            mPagedData.reset(page, data);
+
+            // Merge the stored neighbors
+            int half = WINDOW_PAGES / 2;
+            while (mPagedData.getPageCount() < half && mPageStore.contains(mPagedData.getEndPage())) {
+                mPagedData.append(mPageStore.remove(mPagedData.getEndPage()));
+            }
+            while (mPagedData.getPageCount() < WINDOW_PAGES && mPageStore.contains(mPagedData.getStartPage() - 1)) {
+                mPagedData.prepend(mPageStore.remove(mPagedData.getStartPage() - 1));
+            }
+            notifyDataSetChanged();
+
+            mRecyclerView.stopScroll();
+            LayoutManagerUtils.scrollToPositionWithOffset(mRecyclerView.getLayoutManager(),
+                    mPagedData.getPageStart(page), 0);
+            onScrollToPosition();
+        }
+
+        /**
+         * @return true if the last page in data is the last page
+         */
+        public boolean isEndShown() {
+            // Pages is unknown before any page is got
+            return mPages > 0 && !mPagedData.isEmpty() && mPagedData.getEndPage() >= mPages;
+        }
+
+        /**
+         * Add the data which is not shown to the end, the shown data is not bound again.
+         * It only works when the page is the last page in data or the next one,
+         * and no task is running.
+         *
+         * @param page the page of the data
+         * @return the count of data added, -1 if it can't be added now
+         */
+        public int appendNewData(int page, List<E> data) {
+            if (mPrefetching || mRefreshLayout.isRefreshing() || !isContentShowning() ||
+                    mPagedData.isEmpty()) {
+                return -1;
+            }
+            finishMerge();
+
+            int endPage = mPagedData.getEndPage();
+            if (page != endPage - 1 && page != endPage) {
+                return -1;
+            }
+
+            data = DataDiff.dedupe(data, getShownIds(-1), mDiffCallback);
+            int count = data.size();
+            if (count == 0) {
                 return 0;
+            }
+
+            int oldSize = mPagedData.size();
+            if (page == endPage) {
+                mPagedData.append(data);
             } else {
-                return mPageDivider.get(page - mStartPage - 1);
+                List<E> pageData = new ArrayList<>(mPagedData.getPageData(page));
+                pageData.addAll(data);
+                mPagedData.replace(page, pageData);
             }
+            notifyItemRangeInserted(oldSize, count);
+            // A new page might make the window too large
+            trimWindow(true);
+            return count;
         }
 
-        private int getPageEnd(int page) {
-            return mPageDivider.get(page - mStartPage);
+        /**
+         * @return true if the page is shown or can be shown without request
+         */
+        public boolean isPageLoaded(int page) {
+            return mPagedData.containsPage(page) || mPageStore.contains(page);
+        }
+
+        /**
+         * Get the loaded pages, shown or not. Pages next to each other are merged.
+         *
+         * @return the ranges in order, each is {first page, last page + 1}
+         */
+        public List<int[]> getLoadedRanges() {
+            int[] stored = mPageStore.getPages();
+            int startPage = mPagedData.getStartPage();
+            int endPage = mPagedData.getEndPage();
+            List<int[]> ranges = new ArrayList<>();
+            int i = 0;
+            boolean windowAdded = mPagedData.isEmpty();
+            while (i < stored.length || !windowAdded) {
+                int start;
+                int end;
+                if (!windowAdded && (i >= stored.length || startPage < stored[i])) {
+                    start = startPage;
+                    end = endPage;
+                    windowAdded = true;
+                } else {
+                    start = stored[i];
+                    end = start + 1;
+                    i++;
+                }
+
+                int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && start <= last[1]) {
+                    last[1] = Math.max(last[1], end);
+                } else {
+                    ranges.add(new int[] {start, end});
+                }
+            }
+            return ranges;
         }
 
         public int getCurrentPage() {
             int firstPosition = LayoutManagerUtils.getFirstVisibleItemPostion(mRecyclerView.getLayoutManager());
             if (firstPosition != -1) {
-                IntList pageDivider = mPageDivider;
-                for (int i = 0, n = pageDivider.size(); i < n; i++) {
-                    if (firstPosition < pageDivider.get(i)) {
-                        return i + mStartPage;
-                    }
-                }
+                return mPagedData.getPageOfPosition(firstPosition);
             }
             return -1;
         }
@@ -600,31 +1145,41 @@ public class ContentLayout extends FrameLayout {
          * @throws IndexOutOfBoundsException
          */
         public void goTo(int page) throws IndexOutOfBoundsException {
+            if (mPrefetching) {
+                // The user goes elsewhere
+                cancelCurrentTask();
+            }
+
             if (page < 0 || page >= mPages) {
                 throw new IndexOutOfBoundsException("Page count is " + mPages + ", page is " + page);
-            } else if (page >= mStartPage && page < mEndPage) {
+            } else if (mPagedData.containsPage(page)) {
                 cancelCurrentTask();
 
-                int position = getPageStart(page);
+                int position = mPagedData.getPageStart(page);
                 mRecyclerView.stopScroll();
                 LayoutManagerUtils.scrollToPositionWithOffset(mRecyclerView.getLayoutManager(), position, 0);
                 onScrollToPosition();
-            } else if (page == mStartPage - 1) {
+            } else if (page == getStartPage() - 1) {
                 mRefreshLayout.setFooterRefreshing(false);
                 mRefreshLayout.setHeaderRefreshing(true);
 
                 mCurrentTaskId = mIdGenerator.nextId();
                 mCurrentTaskType = TYPE_PRE_PAGE;
                 mCurrentTaskPage = page;
-                getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
-            } else if (page == mEndPage) {
+                requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+            } else if (page == getEndPage()) {
                 mRefreshLayout.setHeaderRefreshing(false);
                 mRefreshLayout.setFooterRefreshing(true);
 
                 mCurrentTaskId = mIdGenerator.nextId();
                 mCurrentTaskType = TYPE_NEXT_PAGE;
                 mCurrentTaskPage = page;
-                getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+            } else if (mPageStore.contains(page)) {
+                // Jump to it without request
+                cancelCurrentTask();
+
+                showSomewhere(page, mPageStore.remove(page));
             } else {
                 mRefreshLayout.setFooterRefreshing(false);
                 mRefreshLayout.setHeaderRefreshing(true);
@@ -632,7 +1187,35 @@ public class ContentLayout extends FrameLayout {
                 mCurrentTaskId = mIdGenerator.nextId();
                 mCurrentTaskType = TYPE_SOMEWHERE;
                 mCurrentTaskPage = page;
-                getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+            }
+        }
+
+        private class MergeTask extends AsyncTask<Void, Void, List<DataDiff.Op>> {
+
+            private final int mPage;
+            private final List<E> mOldData;
+            private final List<E> mNewData;
+            private final int mModCount;
+
+            public MergeTask(int page, List<E> oldData, List<E> newData, int modCount) {
+                mPage = page;
+                mOldData = oldData;
+                mNewData = newData;
+                mModCount = modCount;
+            }
+
+            @Override
+            protected List<DataDiff.Op> doInBackground(Void... params) {
+                return DataDiff.compute(mOldData, mNewData, mDiffCallback);
+            }
+
+            @Override
+            protected void onPostExecute(List<DataDiff.Op> ops) {
+                if (mMergeTask == this) {
+                    mMergeTask = null;
+                    onMergeComputed(mPage, mNewData, ops, mModCount);
+                }
             }
         }
     }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Id keyed diff of two lists. Items keeping their relative order are kept,
+ * the others are removed and inserted, items with different content
+ * are changed.
+ */
+final class DataDiff {
+
+    public static final int OP_REMOVE = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_CHANGE = 2;
+
+    private DataDiff() {
+    }
+
+    public interface Callback<E> {
+
+        /**
+         * @return the id, null for unknown
+         */
+        @Nullable
+        String getId(E data);
+
+        boolean isSameContent(E oldData, E newData);
+    }
+
+    /**
+     * The position is of the list applied the ops before
+     */
+    public static final class Op {
+
+        public final int type;
+        public final int position;
+        public int count;
+
+        public Op(int type, int position, int count) {
+            this.type = type;
+            this.position = position;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Remove the items whose id is in exclude or the same as the one before
+     */
+    public static <E> List<E> dedupe(List<E> data, @Nullable Set<String> exclude, Callback<E> callback) {
+        Set<String> ids = new HashSet<>();
+        List<E> result = null;
+        for (int i = 0, n = data.size(); i < n; i++) {
+            E e = data.get(i);
+            String id = callback.getId(e);
+            boolean duplicate = id != null && ((exclude != null && exclude.contains(id)) || !ids.add(id));
+            if (duplicate && result == null) {
+                // Copy on first duplicate
+                result = new ArrayList<>(data.subList(0, i));
+            } else if (!duplicate && result != null) {
+                result.add(e);
+            }
+        }
+        return result != null ? result : data;
+    }
+
+    /**
+     * @return the ops to turn old data to new data, null if any item has no id
+     */
+    @Nullable
+    public static <E> List<Op> compute(List<E> oldData, List<E> newData, Callback<E> callback) {
+        int oldSize = oldData.size();
+        int newSize = newData.size();
+
+        Map<String, Integer> oldIndexes = new HashMap<>(oldSize * 2);
+        for (int i = 0; i < oldSize; i++) {
+            String id = callback.getId(oldData.get(i));
+            if (id == null || oldIndexes.put(id, i) != null) {
+                return null;
+            }
+        }
+
+        // Old indexes of common items in new order
+        int[] newToOld = new int[newSize];
+        int[] sequence = new int[newSize];
+        int sequenceSize = 0;
+        for (int j = 0; j < newSize; j++) {
+            String id = callback.getId(newData.get(j));
+            if (id == null) {
+                return null;
+            }
+            Integer i = oldIndexes.get(id);
+            newToOld[j] = i == null ? -1 : i;
+            if (i != null) {
+                sequence[sequenceSize++] = i;
+            }
+        }
+
+        boolean[] stable = getLongestIncreasing(sequence, sequenceSize, oldSize);
+
+        List<Op> ops = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < oldSize || j < newSize) {
+            if (i < oldSize && !stable[i]) {
+                addOp(ops, OP_REMOVE, position);
+                i++;
+            } else if (j < newSize && (newToOld[j] < 0 || !stable[newToOld[j]])) {
+                addOp(ops, OP_INSERT, position);
+                position++;
+                j++;
+            } else if (i < oldSize && j < newSize) {
+                // The same item
+                if (!callback.isSameContent(oldData.get(i), newData.get(j))) {
+                    addOp(ops, OP_CHANGE, position);
+                }
+                position++;
+                i++;
+                j++;
+            } else {
+                // Can't be here
+                return null;
+            }
+        }
+        return ops;
+    }
+
+    private static void addOp(List<Op> ops, int type, int position) {
+        Op last = ops.isEmpty() ? null : ops.get(ops.size() - 1);
+        if (last != null && last.type == type &&
+                (type == OP_REMOVE ? last.position == position : last.position + last.count == position)) {
+            last.count++;
+        } else {
+            ops.add(new Op(type, position, 1));
+        }
+    }
+
+    /**
+     * @return the values in the longest increasing subsequence are true
+     */
+    private static boolean[] getLongestIncreasing(int[] sequence, int size, int maxValue) {
+        // tails[k] is the index of the smallest tail of subsequence of length k + 1
+        int[] tails = new int[size];
+        int[] previous = new int[size];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sequence[tails[mid]] < sequence[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] result = new boolean[maxValue];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            result[sequence[i]] = true;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+import com.hippo.nimingban.NMBApplication;
+import com.hippo.nimingban.util.DeviceProfile;
+
+import java.io.File;
+
+/**
+ * Thumbnails and full images are in different disk caches.
+ * Thumbnails are in {@link ImageDiskCache}, full images are in
+ * the disk cache of Conaco. When storage is not enough, the full
+ * image tier shrinks first.
+ * <p>
+ * Walking the cache dirs is slow, so the sizes computed in background
+ * are saved and used at next start.
+ */
+public final class DiskCacheTiers {
+
+    private static final String TAG = DiskCacheTiers.class.getSimpleName();
+
+    private static final String PREFS_NAME = "disk_cache_tiers";
+
+    private static final String KEY_THUMB_SIZE = "thumb_size";
+    private static final String KEY_IMAGE_SIZE = "image_size";
+
+    public static final String THUMB_DIR = "thumb_data";
+    /**
+     * Keep the old name, or the cache is lost
+     */
+    public static final String IMAGE_DIR = "thumb";
+
+    /**
+     * Thumbnails not shown in it are removed
+     */
+    public static final long THUMB_MAX_AGE = 14L * 24 * 60 * 60 * 1000; // 14 days
+
+    private static final long MIN_THUMB_SIZE = 4 * 1024 * 1024;
+    private static final long MIN_IMAGE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The caches never take more than it of storage
+     */
+    private static final int STORAGE_DIVISOR = 4;
+
+    private static SharedPreferences sPrefs;
+    private static File sCacheDir;
+
+    private static int sThumbSize;
+    private static int sImageSize;
+
+    private static long sImageHitCount;
+    private static long sImageMissCount;
+
+    private DiskCacheTiers() {
+    }
+
+    private static long getDirSize(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.isDirectory() ? getDirSize(file) : file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Call it after {@link DeviceProfile#initialize(Context)}
+     */
+    public static void initialize(@NonNull Context context) {
+        sPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        sCacheDir = context.getCacheDir();
+
+        int thumbSize = sPrefs.getInt(KEY_THUMB_SIZE, 0);
+        int imageSize = sPrefs.getInt(KEY_IMAGE_SIZE, 0);
+        if (thumbSize > 0 && imageSize > 0) {
+            sThumbSize = thumbSize;
+            sImageSize = imageSize;
+        } else {
+            // The space taken by the caches is unknown before the walk
+            int[] sizes = computeSizes(sCacheDir.getUsableSpace());
+            sThumbSize = sizes[0];
+            sImageSize = sizes[1];
+        }
+
+        new Thread(TAG) {
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                long available = sCacheDir.getUsableSpace() +
+                        getDirSize(new File(sCacheDir, THUMB_DIR)) +
+                        getDirSize(new File(sCacheDir, IMAGE_DIR));
+                int[] sizes = computeSizes(available);
+                sPrefs.edit()
+                        .putInt(KEY_THUMB_SIZE, sizes[0])
+                        .putInt(KEY_IMAGE_SIZE, sizes[1])
+                        .apply();
+            }
+        }.start();
+    }
+
+    /**
+     * Give thumbnails the space first, full images get the left
+     *
+     * @return thumb size and image size
+     */
+    private static int[] computeSizes(long available) {
+        long allowed = available / STORAGE_DIVISOR;
+        long thumbSize = Math.min(DeviceProfile.getThumbDiskCacheSize(),
+                Math.max(MIN_THUMB_SIZE, allowed));
+        long imageSize = Math.min(DeviceProfile.getImageDiskCacheSize(),
+                Math.max(MIN_IMAGE_SIZE, allowed - thumbSize));
+        return new int[] {(int) thumbSize, (int) imageSize};
+    }
+
+    public static int getThumbSize() {
+        return sThumbSize;
+    }
+
+    public static int getImageSize() {
+        return sImageSize;
+    }
+
+    /**
+     * Call it when a full image is got
+     *
+     * @param hit true if it is not from network
+     */
+    public static synchronized void recordImage(boolean hit) {
+        if (hit) {
+            sImageHitCount++;
+        } else {
+            sImageMissCount++;
+        }
+    }
+
+    private static String getHitRate(long hit, long miss) {
+        long total = hit + miss;
+        if (total == 0) {
+            return "-";
+        } else {
+            return hit * 100 / total + "% of " + total;
+        }
+    }
+
+    /**
+     * It lists the files, don't call it in UI thread
+     */
+    public static String getDescription(@NonNull Context context) {
+        ImageDiskCache thumbCache = NMBApplication.getThumbDiskCache(context);
+        long imageHitCount;
+        long imageMissCount;
+        synchronized (DiskCacheTiers.class) {
+            imageHitCount = sImageHitCount;
+            imageMissCount = sImageMissCount;
+        }
+        return "thumb tier: " + thumbCache.size() / 1024 + "KB / " +
+                thumbCache.getMaxSize() / 1024 + "KB, hit " +
+                getHitRate(thumbCache.getHitCount(), thumbCache.getMissCount()) + "\n" +
+                "image tier: " + getDirSize(new File(sCacheDir, IMAGE_DIR)) / 1024 + "KB / " +
+                sImageSize / 1024 + "KB, hit " +
+                getHitRate(imageHitCount, imageMissCount);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+
+import com.hippo.nimingban.util.FrameStats;
+
+/**
+ * Record frame durations to {@link FrameStats} while the RecyclerView
+ * is scrolling. Choreographer is only on API 16+, it does nothing below.
+ */
+public final class FrameMonitor extends RecyclerView.OnScrollListener {
+
+    private FrameCallback mCallback;
+
+    private FrameMonitor() {
+    }
+
+    public static void attach(RecyclerView recyclerView) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            recyclerView.addOnScrollListener(new FrameMonitor());
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState != RecyclerView.SCROLL_STATE_IDLE && FrameStats.isEnabled()) {
+            if (mCallback == null) {
+                mCallback = new FrameCallback();
+            }
+            mCallback.start();
+        } else if (mCallback != null) {
+            mCallback.stop();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameCallback implements Choreographer.FrameCallback {
+
+        private boolean mRunning;
+        private long mLastFrameTime;
+
+        public void start() {
+            if (!mRunning) {
+                mRunning = true;
+                mLastFrameTime = 0;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        public void stop() {
+            if (mRunning) {
+                mRunning = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            if (mLastFrameTime != 0) {
+                FrameStats.recordFrame(frameTimeNanos - mLastFrameTime);
+            }
+            mLastFrameTime = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -17,8 +17,14 @@
 package com.hippo.nimingban.widget;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
+import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
@@ -32,19 +38,27 @@ import com.hippo.conaco.Unikery;
 import com.hippo.drawable.TiledBitmapDrawable;
 import com.hippo.nimingban.NMBApplication;
 import com.hippo.nimingban.R;
+import com.hippo.nimingban.client.ac.ACHostSelector;
+import com.hippo.nimingban.network.NetworkQualityEstimator;
 import com.hippo.vector.VectorDrawable;
 import com.hippo.widget.ProgressView;
 import com.hippo.widget.SimpleImageView;
 import com.hippo.yorozuya.MathUtils;
 
+import java.io.File;
+
 import pl.droidsonroids.gif.GifDrawable;
 import uk.co.senab.photoview.PhotoView;
 
-public final class GalleryPage extends FrameLayout implements Unikery, View.OnClickListener {
+public final class GalleryPage extends FrameLayout
+        implements ImageTaskQueue.Client, GifPlaybackGovernor.Releasable, View.OnClickListener {
+
+    private static final Rect sTempRect = new Rect();
 
     private int mTaskId = Unikery.INVAILD_ID;
 
-    private Conaco mConaco;
+    private ImageTaskQueue mImageTaskQueue;
+    private GifPlaybackGovernor mGifPlaybackGovernor;
 
     private ProgressView mProgressView;
     private SimpleImageView mFailed;
@@ -55,6 +69,29 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
 
     private DrawableHolder mHolder;
 
+    /**
+     * The GIF shown, to load it again after it is released
+     */
+    private String mGifId;
+    private String mGifUrl;
+
+    /**
+     * For network quality
+     */
+    private long mTransferStart;
+    private long mReceivedSize;
+
+    /**
+     * The thumbnail shown before the image is got
+     */
+    private Drawable mThumbDrawable;
+    private ThumbDecodeTask mThumbDecodeTask;
+
+    /**
+     * The image, not the thumbnail, is shown
+     */
+    private boolean mFullImageLoaded;
+
     public GalleryPage(Context context) {
         super(context);
         init(context);
@@ -71,7 +108,8 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
     }
 
     private void init(Context context) {
-        mConaco = NMBApplication.getConaco(context);
+        mImageTaskQueue = NMBApplication.getImageTaskQueue(context);
+        mGifPlaybackGovernor = NMBApplication.getGifPlaybackGovernor(context);
 
         LayoutInflater.from(context).inflate(R.layout.widget_gallery_page, this);
 
@@ -131,6 +169,7 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
         }
 
         if (oldDrawable instanceof GifDrawable) {
+            mGifPlaybackGovernor.unregister(this);
             ((GifDrawable) oldDrawable).recycle();
         }
 
@@ -161,7 +200,20 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
     }
 
     public void load(String id, String url) {
+        load(id, url, null);
+    }
+
+    /**
+     * @param thumbUrl the thumbnail in disk cache is shown until the image is got
+     */
+    public void load(String id, String url, String thumbUrl) {
         removeRetry();
+        cancelThumb();
+        // Forget the released GIF
+        mGifPlaybackGovernor.unregister(this);
+        mGifId = null;
+        mGifUrl = null;
+        mFullImageLoaded = false;
 
         if (url == null) {
             return;
@@ -169,6 +221,8 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
 
         mId = id;
         mUrl = url;
+        mTransferStart = 0;
+        mReceivedSize = 0;
 
         mProgressView.setVisibility(VISIBLE);
         mProgressView.setIndeterminate(true);
@@ -185,12 +239,47 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
         ConacoTask.Builder builder = new ConacoTask.Builder()
                 .setUnikery(this)
                 .setKey(url)
-                .setUrl(url);
-        mConaco.load(builder);
+                .setUrl(ACHostSelector.getInstance().route(url));
+        mImageTaskQueue.load(this, builder);
+
+        // Decode thumbnail after the task is sent, it might be in memory cache
+        if (thumbUrl != null && mUrl != null) {
+            mThumbDecodeTask = new ThumbDecodeTask(thumbUrl);
+            mThumbDecodeTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    private void cancelThumb() {
+        if (mThumbDecodeTask != null) {
+            mThumbDecodeTask.cancel(false);
+            mThumbDecodeTask = null;
+        }
+        mThumbDrawable = null;
+    }
+
+    private void onGetThumb(ThumbDecodeTask task, Drawable drawable) {
+        if (mThumbDecodeTask != task) {
+            return;
+        }
+        mThumbDecodeTask = null;
+
+        // Still waiting for the image
+        if (drawable != null && mUrl != null && mHolder == null) {
+            mThumbDrawable = drawable;
+            mPhotoView.setVisibility(VISIBLE);
+            setImageDrawableSafely(drawable);
+            // Keep progress view over thumbnail
+            mProgressView.bringToFront();
+        }
     }
 
     public void unload() {
-        mConaco.cancel(this);
+        mImageTaskQueue.cancel(this);
+        cancelThumb();
+        mGifPlaybackGovernor.unregister(this);
+        mGifId = null;
+        mGifUrl = null;
+        mFullImageLoaded = false;
         removeRetry();
         mId = null;
         mUrl = null;
@@ -203,6 +292,29 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
         }
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        GifDrawable gifDrawable = GifPlaybackGovernor.getGifDrawable(mPhotoView.getDrawable());
+        if (gifDrawable != null) {
+            mGifPlaybackGovernor.register(this, gifDrawable);
+        } else if (mPhotoView.getDrawable() == null && mGifUrl != null) {
+            // Released when it was not visible
+            reloadGif();
+        }
+    }
+
+    @Override
+    public int getImagePriority() {
+        // Pages beside the current one are prefetched
+        if (isShown() && getGlobalVisibleRect(sTempRect)) {
+            return ImageTaskQueue.PRIORITY_ON_SCREEN;
+        } else {
+            return ImageTaskQueue.PRIORITY_PREFETCH;
+        }
+    }
+
     @Override
     public void onStart() {
     }
@@ -213,14 +325,34 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
 
     @Override
     public void onProgress(long singleReceivedSize, long receivedSize, long totalSize) {
-        mProgressView.setIndeterminate(false);
-        if (totalSize >= 0) {
-            mProgressView.setProgress((float) receivedSize / (float) totalSize);
+        if (mTransferStart == 0) {
+            mTransferStart = SystemClock.elapsedRealtime();
+        }
+        mReceivedSize = receivedSize;
+
+        if (totalSize > 0) {
+            mProgressView.setIndeterminate(false);
+            mProgressView.setProgress(MathUtils.clamp((float) receivedSize / (float) totalSize, 0.0f, 1.0f));
+        } else {
+            // Unknown content length
+            mProgressView.setIndeterminate(true);
         }
     }
 
     @Override
     public boolean onGetDrawable(@NonNull DrawableHolder holder, Conaco.Source source) {
+        mImageTaskQueue.finish(this);
+        DiskCacheTiers.recordImage(source != Conaco.Source.NETWORK);
+        if (source == Conaco.Source.NETWORK && mReceivedSize > 0) {
+            NetworkQualityEstimator.getInstance().onTransfer(mReceivedSize,
+                    SystemClock.elapsedRealtime() - mTransferStart);
+        }
+
+        if (holder.getDrawable() instanceof GifDrawable) {
+            mGifId = mId;
+            mGifUrl = mUrl;
+        }
+
         // Release
         mId = null;
         mUrl = null;
@@ -233,13 +365,25 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
         mProgressView.setIndeterminate(false);
         mFailed.setVisibility(GONE);
         mPhotoView.setVisibility(VISIBLE);
+        mFullImageLoaded = true;
 
         Drawable drawable = holder.getDrawable();
-        if (drawable instanceof GifDrawable) {
-            ((GifDrawable) drawable).start();
+        Drawable thumbDrawable = mThumbDrawable;
+        cancelThumb();
+        if (thumbDrawable != null && !(drawable instanceof GifDrawable)) {
+            // Cross-fade from thumbnail
+            TransitionDrawable transitionDrawable =
+                    new TransitionDrawable(new Drawable[] {thumbDrawable, drawable});
+            transitionDrawable.setCrossFadeEnabled(true);
+            setImageDrawableSafely(transitionDrawable);
+            transitionDrawable.startTransition(300);
+        } else {
+            setImageDrawableSafely(drawable);
         }
 
-        setImageDrawableSafely(drawable);
+        if (drawable instanceof GifDrawable) {
+            mGifPlaybackGovernor.register(this, (GifDrawable) drawable);
+        }
 
         if (olderHolder != null) {
             olderHolder.release();
@@ -254,11 +398,15 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
 
     @Override
     public void onFailure() {
+        mImageTaskQueue.finish(this);
+        cancelThumb();
+
         mProgressView.setVisibility(GONE);
         mProgressView.setIndeterminate(false);
         mFailed.setVisibility(VISIBLE);
         mPhotoView.setVisibility(GONE);
         setImageDrawableSafely(null);
+        mFullImageLoaded = false;
 
         // Release old holder
         if (mHolder != null) {
@@ -271,22 +419,51 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
 
     @Override
     public void onCancel() {
+        mImageTaskQueue.finish(this);
+        cancelThumb();
+
         removeRetry();
         mId = null;
         mUrl = null;
     }
 
+    @Override
+    public boolean releaseGif() {
+        if (mGifUrl == null) {
+            return false;
+        }
+
+        setImageDrawableSafely(null);
+        mFullImageLoaded = false;
+        if (mHolder != null) {
+            mHolder.release();
+            mHolder = null;
+        }
+        return true;
+    }
+
+    @Override
+    public void reloadGif() {
+        String id = mGifId;
+        String url = mGifUrl;
+        if (url != null) {
+            // It is in disk cache
+            load(id, url);
+        }
+    }
+
     public void showDrawable(@NonNull Drawable drawable) {
         mProgressView.setVisibility(GONE);
         mProgressView.setIndeterminate(false);
         mFailed.setVisibility(GONE);
         mPhotoView.setVisibility(VISIBLE);
 
+        setImageDrawableSafely(drawable);
+        mFullImageLoaded = true;
+
         if (drawable instanceof GifDrawable) {
-            ((GifDrawable) drawable).start();
+            mGifPlaybackGovernor.register(this, (GifDrawable) drawable);
         }
-
-        setImageDrawableSafely(drawable);
     }
 
     public void showFailedText() {
@@ -295,9 +472,49 @@ public final class GalleryPage extends FrameLayout implements Unikery, View.OnCl
         mFailed.setVisibility(VISIBLE);
         mPhotoView.setVisibility(GONE);
         setImageDrawableSafely(null);
+        mFullImageLoaded = false;
     }
 
+    /**
+     * @return true if the image is shown, thumbnail is not the image
+     */
     public boolean isLoaded() {
-        return mPhotoView.getDrawable() != null;
+        return mFullImageLoaded;
+    }
+
+    private class ThumbDecodeTask extends AsyncTask<Void, Void, Drawable> {
+
+        private final String mThumbUrl;
+        private final ImageDiskCache mCache;
+
+        public ThumbDecodeTask(String thumbUrl) {
+            mThumbUrl = thumbUrl;
+            mCache = NMBApplication.getThumbDiskCache(getContext());
+        }
+
+        @Override
+        protected Drawable doInBackground(Void... params) {
+            File file = mCache.get(mThumbUrl);
+            if (file == null || isCancelled()) {
+                return null;
+            }
+
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeFile(file.getPath());
+            } catch (OutOfMemoryError e) {
+                bitmap = null;
+            }
+            if (bitmap == null) {
+                return null;
+            } else {
+                return new BitmapDrawable(getResources(), bitmap);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Drawable drawable) {
+            onGetThumb(this, drawable);
+        }
     }
 }
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.TransitionDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import pl.droidsonroids.gif.GifDrawable;
+
+/**
+ * Decide which {@link GifDrawable} can animate. The most visible ones
+ * animate, the others are paused. When there are more visible GIFs than
+ * the cap, the animating ones run in lower speed. The GIFs out of memory
+ * budget only show the first frame, and the ones which are not visible
+ * are recycled if the host is {@link Releasable}, then loaded again when
+ * they are visible. Call it in UI thread.
+ */
+public final class GifPlaybackGovernor {
+
+    private static final long CHECK_INTERVAL = 300;
+
+    private static final int DEFAULT_MAX_PLAYING = 3;
+
+    /**
+     * The GIF which is shown less than it is paused
+     */
+    private static final float MIN_VISIBLE_FRACTION = 0.5f;
+
+    private static final float SPEED_NORMAL = 1.0f;
+    private static final float SPEED_UNDER_LOAD = 0.5f;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Entry> mEntries = new ArrayList<>();
+    /**
+     * Hosts which recycled the GIF and wait to be visible
+     */
+    private final List<Releasable> mReleased = new ArrayList<>();
+    private final Rect mTempRect = new Rect();
+
+    private int mMaxPlaying = DEFAULT_MAX_PLAYING;
+    private final long mMemoryBudget;
+
+    private boolean mScheduled;
+
+    private final Runnable mCheckTask = new Runnable() {
+        @Override
+        public void run() {
+            mScheduled = false;
+            update();
+            if (!mEntries.isEmpty() || !mReleased.isEmpty()) {
+                schedule(CHECK_INTERVAL);
+            }
+        }
+    };
+
+    private static final Comparator<Entry> VISIBLE_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return Float.compare(rhs.visibleFraction, lhs.visibleFraction);
+        }
+    };
+
+    public GifPlaybackGovernor(long memoryBudget) {
+        mMemoryBudget = memoryBudget;
+    }
+
+    /**
+     * The view which can recycle the GifDrawable and load it again
+     */
+    public interface Releasable {
+
+        /**
+         * Recycle the GifDrawable to free the frame buffer
+         *
+         * @return false if it can't be loaded again, so it is not recycled
+         */
+        boolean releaseGif();
+
+        /**
+         * Load the GIF released by {@link #releaseGif()}
+         */
+        void reloadGif();
+    }
+
+    public void setMaxPlaying(int maxPlaying) {
+        mMaxPlaying = maxPlaying;
+        schedule(0);
+    }
+
+    /**
+     * Find the GifDrawable in the drawable
+     */
+    @Nullable
+    public static GifDrawable getGifDrawable(Drawable drawable) {
+        if (drawable instanceof TransitionDrawable) {
+            TransitionDrawable tDrawable = (TransitionDrawable) drawable;
+            int number = tDrawable.getNumberOfLayers();
+            if (number > 0) {
+                drawable = tDrawable.getDrawable(number - 1);
+            }
+        }
+        if (drawable instanceof GifDrawable) {
+            return (GifDrawable) drawable;
+        } else {
+            return null;
+        }
+    }
+
+    private int indexOf(View host) {
+        for (int i = 0, n = mEntries.size(); i < n; i++) {
+            if (mEntries.get(i).host == host) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Let the governor control the GifDrawable shown in the host,
+     * instead of {@link GifDrawable#start()}.
+     */
+    public void register(@NonNull View host, @NonNull GifDrawable drawable) {
+        int index = indexOf(host);
+        if (index >= 0) {
+            Entry entry = mEntries.get(index);
+            if (entry.drawable == drawable) {
+                return;
+            }
+            mEntries.remove(index);
+        }
+
+        drawable.stop();
+        mEntries.add(new Entry(host, drawable));
+        schedule(0);
+    }
+
+    /**
+     * Stop the GifDrawable shown in the host and forget it.
+     * Call it before recycle the GifDrawable or load another image.
+     */
+    public void unregister(@NonNull View host) {
+        //noinspection SuspiciousMethodCalls
+        mReleased.remove(host);
+
+        int index = indexOf(host);
+        if (index >= 0) {
+            Entry entry = mEntries.remove(index);
+            if (!entry.drawable.isRecycled()) {
+                entry.drawable.stop();
+            }
+            // Let others use the free slot
+            schedule(0);
+        }
+    }
+
+    private void schedule(long delay) {
+        if (delay == 0) {
+            mHandler.removeCallbacks(mCheckTask);
+            mScheduled = false;
+        }
+        if (!mScheduled) {
+            mScheduled = true;
+            mHandler.postDelayed(mCheckTask, delay);
+        }
+    }
+
+    private float getVisibleFraction(View view) {
+        int area = view.getWidth() * view.getHeight();
+        if (area <= 0 || !view.isShown() || !view.getGlobalVisibleRect(mTempRect)) {
+            return 0.0f;
+        }
+        return (float) (mTempRect.width() * mTempRect.height()) / area;
+    }
+
+    private void update() {
+        // Load the released ones which come back
+        for (int i = mReleased.size() - 1; i >= 0; i--) {
+            Releasable releasable = mReleased.get(i);
+            View host = (View) releasable;
+            if (host.getWindowToken() == null) {
+                // It loads again when attached
+                mReleased.remove(i);
+            } else if (getVisibleFraction(host) > 0.0f) {
+                mReleased.remove(i);
+                releasable.reloadGif();
+            }
+        }
+
+        int visibleCount = 0;
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            Entry entry = mEntries.get(i);
+            if (entry.drawable.isRecycled() || entry.host.getWindowToken() == null) {
+                // Detached host registers again when attached
+                if (!entry.drawable.isRecycled()) {
+                    entry.drawable.stop();
+                }
+                mEntries.remove(i);
+                continue;
+            }
+
+            entry.visibleFraction = getVisibleFraction(entry.host);
+            if (entry.visibleFraction >= MIN_VISIBLE_FRACTION) {
+                visibleCount++;
+            }
+        }
+
+        Collections.sort(mEntries, VISIBLE_COMPARATOR);
+
+        float speed = visibleCount > mMaxPlaying ? SPEED_UNDER_LOAD : SPEED_NORMAL;
+        int playing = 0;
+        long bytes = 0;
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            GifDrawable drawable = entry.drawable;
+            long size = drawable.getAllocationByteCount();
+
+            if (bytes + size > mMemoryBudget && entry.visibleFraction == 0.0f &&
+                    entry.host instanceof Releasable && ((Releasable) entry.host).releaseGif()) {
+                // Out of budget and not shown, the frame buffer is freed.
+                // The host might have unregistered it.
+                mEntries.remove(entry);
+                i--;
+                mReleased.add((Releasable) entry.host);
+                continue;
+            }
+            bytes += size;
+
+            if (bytes > mMemoryBudget) {
+                // Out of budget, only first frame
+                if (drawable.isRunning() || drawable.getCurrentPosition() != 0) {
+                    drawable.stop();
+                    drawable.seekTo(0);
+                }
+            } else if (entry.visibleFraction >= MIN_VISIBLE_FRACTION && playing < mMaxPlaying) {
+                playing++;
+                if (entry.speed != speed) {
+                    entry.speed = speed;
+                    drawable.setSpeed(speed);
+                }
+                if (!drawable.isRunning()) {
+                    drawable.start();
+                }
+            } else if (drawable.isRunning()) {
+                drawable.stop();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        public final View host;
+        public final GifDrawable drawable;
+        public float visibleFraction;
+        public float speed = SPEED_NORMAL;
+
+        public Entry(View host, GifDrawable drawable) {
+            this.host = host;
+            this.drawable = drawable;
+        }
+    }
+}
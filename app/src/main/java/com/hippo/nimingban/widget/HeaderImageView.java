@@ -49,11 +49,12 @@ import java.util.Arrays;
 import pl.droidsonroids.gif.GifDrawable;
 
 public final class HeaderImageView extends FixedAspectImageView
-        implements Unikery, View.OnClickListener, View.OnLongClickListener {
+        implements ImageTaskQueue.Client, View.OnClickListener, View.OnLongClickListener {
 
     private int mTaskId = Unikery.INVAILD_ID;
 
-    private Conaco mConaco;
+    private ImageTaskQueue mImageTaskQueue;
+    private GifPlaybackGovernor mGifPlaybackGovernor;
 
     private final long[] mHits = new long[8];
 
@@ -79,7 +80,8 @@ public final class HeaderImageView extends FixedAspectImageView
     }
 
     private void init(Context context) {
-        mConaco = NMBApplication.getConaco(context);
+        mImageTaskQueue = NMBApplication.getImageTaskQueue(context);
+        mGifPlaybackGovernor = NMBApplication.getGifPlaybackGovernor(context);
         setScaleType(ScaleType.CENTER_CROP);
         setSoundEffectsEnabled(false);
         setOnClickListener(this);
@@ -121,11 +123,11 @@ public final class HeaderImageView extends FixedAspectImageView
                 .setKey(null)
                 .setUrl("http://cover.acfunwiki.org/cover.php")
                 .setDataContainer(mContainer);
-        mConaco.load(builder);
+        mImageTaskQueue.load(this, builder);
     }
 
     public void unload() {
-        mConaco.cancel(this);
+        mImageTaskQueue.cancel(this);
         setImageDrawableSafely(null);
 
         // Release old holder
@@ -168,6 +170,7 @@ public final class HeaderImageView extends FixedAspectImageView
         }
 
         if (oldDrawable instanceof GifDrawable) {
+            mGifPlaybackGovernor.unregister(this);
             ((GifDrawable) oldDrawable).recycle();
         }
 
@@ -178,8 +181,26 @@ public final class HeaderImageView extends FixedAspectImageView
         setImageDrawable(drawable);
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        GifDrawable gifDrawable = GifPlaybackGovernor.getGifDrawable(getDrawable());
+        if (gifDrawable != null) {
+            mGifPlaybackGovernor.register(this, gifDrawable);
+        }
+    }
+
+    @Override
+    public int getImagePriority() {
+        // Just a decoration, let thumbnails go first
+        return ImageTaskQueue.PRIORITY_BACKGROUND;
+    }
+
     @Override
     public boolean onGetDrawable(@NonNull DrawableHolder holder, Conaco.Source source) {
+        mImageTaskQueue.finish(this);
+
         // Update image file
         FileUtils.delete(mImageFile);
         if (mContainer != null) {
@@ -192,12 +213,12 @@ public final class HeaderImageView extends FixedAspectImageView
         holder.obtain();
 
         Drawable drawable = holder.getDrawable();
+        setImageDrawableSafely(drawable);
+
         if (drawable instanceof GifDrawable) {
-            ((GifDrawable) drawable).start();
+            mGifPlaybackGovernor.register(this, (GifDrawable) drawable);
         }
 
-        setImageDrawableSafely(drawable);
-
         if (olderHolder != null) {
             olderHolder.release();
         }
@@ -218,11 +239,13 @@ public final class HeaderImageView extends FixedAspectImageView
 
     @Override
     public void onFailure() {
+        mImageTaskQueue.finish(this);
         mContainer = null;
     }
 
     @Override
     public void onCancel() {
+        mImageTaskQueue.finish(this);
         mContainer = null;
     }
 
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.hippo.yorozuya.FileUtils;
+import com.hippo.yorozuya.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A simple disk cache which stores the raw bytes of images,
+ * one file for one key. The least recently used files are
+ * removed when the total size is larger than max size.
+ * The files not used in max age are removed too.
+ */
+public class ImageDiskCache {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDir;
+    private final long mMaxSize;
+    private final long mMaxAge;
+
+    private long mSize = -1;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    public ImageDiskCache(@NonNull File dir, long maxSize) {
+        this(dir, maxSize, 0);
+    }
+
+    /**
+     * @param maxAge in millis, 0 for forever
+     */
+    public ImageDiskCache(@NonNull File dir, long maxSize, long maxAge) {
+        mDir = dir;
+        mMaxSize = maxSize;
+        mMaxAge = maxAge;
+    }
+
+    private static String hashKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(key.getBytes());
+            byte[] bytes = digest.digest();
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                String hex = Integer.toHexString(0xFF & b);
+                if (hex.length() == 1) {
+                    sb.append('0');
+                }
+                sb.append(hex);
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(mDir, hashKey(key));
+    }
+
+    private void ensureSize() {
+        if (mSize >= 0) {
+            return;
+        }
+
+        long size = 0;
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        mSize = size;
+    }
+
+    private boolean isStale(File file, long now) {
+        return mMaxAge > 0 && now - file.lastModified() > mMaxAge;
+    }
+
+    public synchronized boolean contains(String key) {
+        File file = getFile(key);
+        return file.isFile() && !isStale(file, System.currentTimeMillis());
+    }
+
+    /**
+     * @return the file for the key, null for miss
+     */
+    @Nullable
+    public synchronized File get(String key) {
+        File file = getFile(key);
+        long now = System.currentTimeMillis();
+        if (file.isFile() && isStale(file, now)) {
+            long length = file.length();
+            if (file.delete() && mSize >= 0) {
+                mSize -= length;
+            }
+        }
+        if (file.isFile()) {
+            mHitCount++;
+            // Mark it recently used
+            file.setLastModified(now);
+            return file;
+        } else {
+            mMissCount++;
+            return null;
+        }
+    }
+
+    public boolean put(String key, InputStream is) {
+        if (!FileUtils.ensureDirectory(mDir)) {
+            return false;
+        }
+
+        File file = getFile(key);
+        File temp = new File(mDir, file.getName() + TEMP_SUFFIX + Thread.currentThread().getId());
+        OutputStream os = null;
+        boolean ok;
+        try {
+            os = new FileOutputStream(temp);
+            IOUtils.copy(is, os);
+            ok = true;
+        } catch (IOException e) {
+            ok = false;
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+
+        if (!ok) {
+            temp.delete();
+            return false;
+        }
+
+        synchronized (this) {
+            ensureSize();
+            long oldLength = file.length();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return false;
+            }
+            mSize += file.length() - oldLength;
+            trimToSize(mMaxSize);
+        }
+        return true;
+    }
+
+    public synchronized void remove(String key) {
+        File file = getFile(key);
+        long length = file.length();
+        if (file.delete() && mSize >= 0) {
+            mSize -= length;
+        }
+    }
+
+    public synchronized long size() {
+        ensureSize();
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public long getMaxAge() {
+        return mMaxAge;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Remove the files not used in max age
+     */
+    public synchronized void trimStale() {
+        if (mMaxAge <= 0) {
+            return;
+        }
+
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        ensureSize();
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (!file.getName().contains(TEMP_SUFFIX) && isStale(file, now)) {
+                long length = file.length();
+                if (file.delete()) {
+                    mSize -= length;
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        FileUtils.deleteContent(mDir);
+        mSize = 0;
+    }
+
+    private void trimToSize(long maxSize) {
+        if (mSize <= maxSize) {
+            return;
+        }
+
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            if (mSize <= maxSize) {
+                break;
+            }
+            if (file.getName().contains(TEMP_SUFFIX)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mSize -= length;
+            }
+        }
+    }
+}
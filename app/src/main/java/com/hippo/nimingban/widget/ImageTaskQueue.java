@@ -0,0 +1,300 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import com.hippo.conaco.Conaco;
+import com.hippo.conaco.ConacoTask;
+import com.hippo.conaco.Unikery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hold image tasks before they go to {@link Conaco}, only a few
+ * tasks run at the same time. The task of the client with the highest
+ * priority runs first, the priority is got when the task is about to run,
+ * so it is always the current visibility. Deferred tasks wait until
+ * the queue is idle. Tasks which can't use network go to Conaco at once,
+ * so memory and disk cache hits never wait behind network tasks.
+ * Call it in UI thread.
+ */
+public final class ImageTaskQueue {
+
+    public static final int PRIORITY_ON_SCREEN = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private static final int DEFAULT_MAX_RUNNING = 6;
+
+    /**
+     * Deferred tasks start after the queue is empty for it
+     */
+    private static final long IDLE_DELAY = 500;
+
+    private final Loader mLoader;
+
+    private final List<Entry> mPending = new ArrayList<>();
+    private final List<Client> mRunning = new ArrayList<>();
+    private final List<Entry> mDeferred = new ArrayList<>();
+    private final List<Client> mCacheOnly = new ArrayList<>();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mReleaseDeferredTask = new Runnable() {
+        @Override
+        public void run() {
+            releaseDeferred();
+        }
+    };
+
+    private int mMaxRunning = DEFAULT_MAX_RUNNING;
+
+    private boolean mScheduling;
+
+    private OnDepthChangeListener mOnDepthChangeListener;
+
+    public ImageTaskQueue(@NonNull final Conaco conaco) {
+        this(new Loader() {
+            @Override
+            public void load(ConacoTask.Builder builder) {
+                conaco.load(builder);
+            }
+
+            @Override
+            public void cancel(Unikery unikery) {
+                conaco.cancel(unikery);
+            }
+        });
+    }
+
+    ImageTaskQueue(@NonNull Loader loader) {
+        mLoader = loader;
+    }
+
+    public void setMaxRunning(int maxRunning) {
+        mMaxRunning = maxRunning;
+        schedule();
+    }
+
+    public void setOnDepthChangeListener(OnDepthChangeListener listener) {
+        mOnDepthChangeListener = listener;
+    }
+
+    public int getPendingCount() {
+        return mPending.size();
+    }
+
+    public int getRunningCount() {
+        return mRunning.size();
+    }
+
+    /**
+     * @return pending task count plus running task count
+     */
+    public int getDepth() {
+        return mPending.size() + mRunning.size();
+    }
+
+    public int getDeferredCount() {
+        return mDeferred.size();
+    }
+
+    private static int indexOf(List<Entry> entries, Client client) {
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            if (entries.get(i).client == client) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the index of the entry with the highest priority, first in first out
+     */
+    private static int indexOfHighestPriority(List<Entry> entries) {
+        int index = 0;
+        int priority = Integer.MAX_VALUE;
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            int p = entries.get(i).client.getImagePriority();
+            if (p < priority) {
+                priority = p;
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Add a task for the client, the previous task of the client is cancelled
+     */
+    public void load(@NonNull Client client, @NonNull ConacoTask.Builder builder) {
+        removeTask(client);
+        mPending.add(new Entry(client, builder));
+        schedule();
+        notifyDepthChange();
+    }
+
+    /**
+     * Send a task which doesn't use network to Conaco now, it doesn't wait
+     * for running tasks. The previous task of the client is cancelled.
+     */
+    public void loadFromCache(@NonNull Client client, @NonNull ConacoTask.Builder builder) {
+        if (removeTask(client)) {
+            schedule();
+            notifyDepthChange();
+        }
+        mCacheOnly.add(client);
+        mLoader.load(builder);
+    }
+
+    /**
+     * Add a task for the client, it is not sent to Conaco until
+     * there is no other task. The previous task of the client is cancelled.
+     */
+    public void loadDeferred(@NonNull Client client, @NonNull ConacoTask.Builder builder) {
+        removeTask(client);
+        mDeferred.add(new Entry(client, builder));
+        schedule();
+        notifyDepthChange();
+    }
+
+    /**
+     * Cancel the task of the client, it is never sent to Conaco if it is pending
+     */
+    public void cancel(@NonNull Client client) {
+        if (removeTask(client)) {
+            schedule();
+            notifyDepthChange();
+        }
+    }
+
+    /**
+     * Client must call it when its task is done, failed or cancelled
+     */
+    public void finish(@NonNull Client client) {
+        if (mCacheOnly.remove(client)) {
+            return;
+        }
+        if (mRunning.remove(client)) {
+            schedule();
+            notifyDepthChange();
+        }
+    }
+
+    private boolean removeTask(Client client) {
+        if (mCacheOnly.remove(client)) {
+            mLoader.cancel(client);
+            // Not counted in depth
+            return false;
+        }
+
+        int index = indexOf(mPending, client);
+        if (index >= 0) {
+            mPending.remove(index);
+            return true;
+        }
+        index = indexOf(mDeferred, client);
+        if (index >= 0) {
+            mDeferred.remove(index);
+            return true;
+        } else if (mRunning.remove(client)) {
+            mLoader.cancel(client);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void schedule() {
+        if (mScheduling) {
+            return;
+        }
+        mScheduling = true;
+
+        while (mRunning.size() < mMaxRunning && !mPending.isEmpty()) {
+            Entry entry = mPending.remove(indexOfHighestPriority(mPending));
+            mRunning.add(entry.client);
+            mLoader.load(entry.builder);
+        }
+
+        mScheduling = false;
+
+        mHandler.removeCallbacks(mReleaseDeferredTask);
+        if (!mDeferred.isEmpty() && mPending.isEmpty() && mRunning.isEmpty()) {
+            mHandler.postDelayed(mReleaseDeferredTask, IDLE_DELAY);
+        }
+    }
+
+    /**
+     * Move a batch of deferred tasks to pending
+     */
+    private void releaseDeferred() {
+        if (!mPending.isEmpty() || !mRunning.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < mMaxRunning && !mDeferred.isEmpty(); i++) {
+            mPending.add(mDeferred.remove(indexOfHighestPriority(mDeferred)));
+        }
+        schedule();
+        notifyDepthChange();
+    }
+
+    private void notifyDepthChange() {
+        if (mOnDepthChangeListener != null) {
+            mOnDepthChangeListener.onDepthChange(mPending.size(), mRunning.size());
+        }
+    }
+
+    private static class Entry {
+
+        public final Client client;
+        public final ConacoTask.Builder builder;
+
+        public Entry(Client client, ConacoTask.Builder builder) {
+            this.client = client;
+            this.builder = builder;
+        }
+    }
+
+    /**
+     * Where tasks go, it is Conaco except in tests
+     */
+    interface Loader {
+
+        void load(ConacoTask.Builder builder);
+
+        void cancel(Unikery unikery);
+    }
+
+    public interface Client extends Unikery {
+
+        /**
+         * @return one of {@link #PRIORITY_ON_SCREEN}, {@link #PRIORITY_PREFETCH}
+         * and {@link #PRIORITY_BACKGROUND}
+         */
+        int getImagePriority();
+    }
+
+    public interface OnDepthChangeListener {
+
+        void onDepthChange(int pending, int running);
+    }
+}
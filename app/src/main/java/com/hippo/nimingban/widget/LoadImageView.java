@@ -19,12 +19,14 @@ package com.hippo.nimingban.widget;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Color;
+import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.ViewGroup;
 
 import com.hippo.conaco.Conaco;
 import com.hippo.conaco.ConacoTask;
@@ -33,22 +35,48 @@ import com.hippo.conaco.Unikery;
 import com.hippo.drawable.TiledBitmapDrawable;
 import com.hippo.nimingban.NMBApplication;
 import com.hippo.nimingban.R;
+import com.hippo.nimingban.client.ac.ACHostSelector;
 import com.hippo.widget.FixedAspectImageView;
+import com.hippo.yorozuya.MathUtils;
 
 import pl.droidsonroids.gif.GifDrawable;
 
-public class LoadImageView extends FixedAspectImageView implements Unikery,
-        View.OnClickListener, View.OnLongClickListener {
+public class LoadImageView extends FixedAspectImageView implements ImageTaskQueue.Client,
+        GifPlaybackGovernor.Releasable, View.OnClickListener, View.OnLongClickListener {
+
+    private static final Rect sTempRect = new Rect();
 
     private int mTaskId = Unikery.INVAILD_ID;
 
-    private Conaco mConaco;
+    private ImageTaskQueue mImageTaskQueue;
+    private GifPlaybackGovernor mGifPlaybackGovernor;
 
     private String mKey;
     private String mUrl;
+    private boolean mUseNetwork;
+    private boolean mOpaque;
+    /**
+     * Load from network when image task queue is idle if cache misses
+     */
+    private boolean mDeferNetwork;
+    /**
+     * Looking up cache before waiting in image task queue for network
+     */
+    private boolean mLoadingCache;
+
+    /**
+     * The loading is cancelled because of detached from window
+     */
+    private boolean mReloadOnAttach;
 
     private DrawableHolder mHolder;
 
+    /**
+     * The GIF shown, to load it again after it is released
+     */
+    private String mGifKey;
+    private String mGifUrl;
+
     private boolean mFailed;
 
     private RetryType mRetryType = RetryType.NONE;
@@ -72,6 +100,7 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
 
     public LoadImageView(Context context) {
         super(context);
+        init(context, null);
     }
 
     public LoadImageView(Context context, AttributeSet attrs) {
@@ -92,7 +121,8 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
         }
         a.recycle();
 
-        mConaco = NMBApplication.getConaco(context);
+        mImageTaskQueue = NMBApplication.getImageTaskQueue(context);
+        mGifPlaybackGovernor = NMBApplication.getGifPlaybackGovernor(context);
     }
 
     public void setRetryType(RetryType retryType) {
@@ -128,8 +158,54 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
         }
     }
 
+    private static int getSizeBucket(int size) {
+        return size > 0 ? MathUtils.nextPowerOf2(size) : 0;
+    }
+
+    private int getTargetWidth() {
+        ViewGroup.LayoutParams lp = getLayoutParams();
+        if (lp != null && lp.width > 0) {
+            return lp.width;
+        } else {
+            return getWidth();
+        }
+    }
+
+    private int getTargetHeight() {
+        ViewGroup.LayoutParams lp = getLayoutParams();
+        if (lp != null && lp.height > 0) {
+            return lp.height;
+        } else {
+            return getHeight();
+        }
+    }
+
     public void load(String key, String url, boolean useNetwork) {
+        load(key, url, useNetwork, true);
+    }
+
+    /**
+     * @param opaque true to allow decoding jpeg in RGB_565
+     */
+    public void load(String key, String url, boolean useNetwork, boolean opaque) {
+        load(key, url, useNetwork, opaque, false);
+    }
+
+    /**
+     * Load from cache now, load from network later when
+     * image task queue is idle.
+     */
+    public void loadDeferred(String key, String url) {
+        load(key, url, false, true, true);
+    }
+
+    private void load(String key, String url, boolean useNetwork, boolean opaque, boolean deferNetwork) {
+        // Forget the released GIF
+        mGifPlaybackGovernor.unregister(this);
+        mGifKey = null;
+        mGifUrl = null;
         mFailed = false;
+        mReloadOnAttach = false;
         cancelRetryType();
 
         if (url == null || key == null) {
@@ -138,17 +214,36 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
 
         mKey = key;
         mUrl = url;
+        mUseNetwork = useNetwork;
+        mOpaque = opaque;
+        mDeferNetwork = deferNetwork;
+        mLoadingCache = true;
 
-        ConacoTask.Builder builder = new ConacoTask.Builder()
+        // Cache hits don't wait for running network tasks
+        mImageTaskQueue.loadFromCache(this, createBuilder(key, url, false, opaque));
+    }
+
+    private ConacoTask.Builder createBuilder(String key, String url, boolean useNetwork, boolean opaque) {
+        // Thumbnails in different size bucket are different in memory cache
+        int targetWidth = getSizeBucket(getTargetWidth());
+        int targetHeight = getSizeBucket(getTargetHeight());
+        String sizedKey = key + '@' + targetWidth + 'x' + targetHeight + (opaque ? "o" : "");
+
+        return new ConacoTask.Builder()
                 .setUnikery(this)
-                .setKey(key)
-                .setUrl(url)
-                .setUseNetwork(useNetwork);
-        mConaco.load(builder);
+                .setKey(sizedKey)
+                .setUrl(ACHostSelector.getInstance().route(url))
+                .setUseNetwork(useNetwork)
+                .setDataContainer(new ThumbDataContainer(NMBApplication.getThumbDiskCache(getContext()),
+                        NMBApplication.getAshmemThumbStore(getContext()), url, targetWidth, targetHeight, opaque));
     }
 
     public void unload() {
-        mConaco.cancel(this);
+        mImageTaskQueue.cancel(this);
+        mGifPlaybackGovernor.unregister(this);
+        mGifKey = null;
+        mGifUrl = null;
+        mReloadOnAttach = false;
         mKey = null;
         mUrl = null;
         setImageDrawableSafely(null);
@@ -161,7 +256,53 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
     }
 
     public void cancel() {
-        mConaco.cancel(this);
+        mImageTaskQueue.cancel(this);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        GifDrawable gifDrawable = GifPlaybackGovernor.getGifDrawable(getDrawable());
+        if (gifDrawable != null) {
+            mGifPlaybackGovernor.register(this, gifDrawable);
+        } else if (getDrawable() == null && mGifKey != null) {
+            // Released when it was not visible
+            reloadGif();
+            return;
+        }
+
+        if (mReloadOnAttach) {
+            if (mDeferNetwork) {
+                load(mKey, mUrl, false, mOpaque, true);
+            } else {
+                load(mKey, mUrl, mUseNetwork, mOpaque);
+            }
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        // It is off screen now, stop loading
+        String key = mKey;
+        String url = mUrl;
+        if (key != null && url != null && !mFailed) {
+            mImageTaskQueue.cancel(this);
+            mKey = key;
+            mUrl = url;
+            mReloadOnAttach = true;
+        }
+    }
+
+    @Override
+    public int getImagePriority() {
+        if (isShown() && getGlobalVisibleRect(sTempRect)) {
+            return ImageTaskQueue.PRIORITY_ON_SCREEN;
+        } else {
+            return ImageTaskQueue.PRIORITY_PREFETCH;
+        }
     }
 
     @Override
@@ -185,6 +326,7 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
         }
 
         if (oldDrawable instanceof GifDrawable) {
+            mGifPlaybackGovernor.unregister(this);
             ((GifDrawable) oldDrawable).recycle();
         }
 
@@ -216,6 +358,14 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
 
     @Override
     public boolean onGetDrawable(@NonNull DrawableHolder holder, Conaco.Source source) {
+        mImageTaskQueue.finish(this);
+
+        Drawable drawable = holder.getDrawable();
+        if (drawable instanceof GifDrawable) {
+            mGifKey = mKey;
+            mGifUrl = mUrl;
+        }
+
         // Release
         mKey = null;
         mUrl = null;
@@ -224,11 +374,6 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
         mHolder = holder;
         holder.obtain();
 
-        Drawable drawable = holder.getDrawable();
-        if (drawable instanceof GifDrawable) {
-            ((GifDrawable) drawable).start();
-        }
-
         switch (source) {
             default:
             case MEMORY:
@@ -246,6 +391,10 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
                 break;
         }
 
+        if (drawable instanceof GifDrawable) {
+            mGifPlaybackGovernor.register(this, (GifDrawable) drawable);
+        }
+
         if (olderHolder != null) {
             olderHolder.release();
         }
@@ -266,6 +415,22 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
 
     @Override
     public void onFailure() {
+        mImageTaskQueue.finish(this);
+
+        boolean loadingCache = mLoadingCache;
+        mLoadingCache = false;
+        if (loadingCache && mKey != null && mUrl != null) {
+            // Not in cache, wait for network
+            if (mDeferNetwork) {
+                mUseNetwork = true;
+                mImageTaskQueue.loadDeferred(this, createBuilder(mKey, mUrl, true, mOpaque));
+                return;
+            } else if (mUseNetwork) {
+                mImageTaskQueue.load(this, createBuilder(mKey, mUrl, true, mOpaque));
+                return;
+            }
+        }
+
         mFailed = true;
         setImageDrawableSafely(getContext().getResources().getDrawable(R.drawable.image_failed));
         if (mRetryType == RetryType.CLICK) {
@@ -287,6 +452,8 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
 
     @Override
     public void onCancel() {
+        mImageTaskQueue.finish(this);
+
         mFailed = false;
         cancelRetryType();
         // release
@@ -294,14 +461,38 @@ public class LoadImageView extends FixedAspectImageView implements Unikery,
         mUrl = null;
     }
 
+    @Override
+    public boolean releaseGif() {
+        if (mGifKey == null || mGifUrl == null) {
+            return false;
+        }
+
+        setImageDrawableSafely(null);
+        if (mHolder != null) {
+            mHolder.release();
+            mHolder = null;
+        }
+        return true;
+    }
+
+    @Override
+    public void reloadGif() {
+        String key = mGifKey;
+        String url = mGifUrl;
+        if (key != null && url != null) {
+            // It is in disk cache
+            load(key, url, mUseNetwork, mOpaque);
+        }
+    }
+
     @Override
     public void onClick(@NonNull View v) {
-        load(mKey, mUrl, true);
+        load(mKey, mUrl, true, mOpaque);
     }
 
     @Override
     public boolean onLongClick(@NonNull View v) {
-        load(mKey, mUrl, true);
+        load(mKey, mUrl, true, mOpaque);
         return true;
     }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.support.v7.widget.RecyclerView;
+
+import com.hippo.nimingban.util.FrameStats;
+
+/**
+ * The time of binding is recorded to {@link FrameStats}, in the section
+ * named by the class of the adapter. Bind in {@link #onBind(RecyclerView.ViewHolder, int)}.
+ */
+public abstract class MeasuredAdapter<VH extends RecyclerView.ViewHolder> extends RecyclerView.Adapter<VH> {
+
+    private final String mBindSection = getClass().getSimpleName() + ".onBindViewHolder";
+
+    @Override
+    public final void onBindViewHolder(VH holder, int position) {
+        FrameStats.beginSection(mBindSection);
+        try {
+            onBind(holder, position);
+        } finally {
+            FrameStats.endSection();
+        }
+    }
+
+    public abstract void onBind(VH holder, int position);
+}
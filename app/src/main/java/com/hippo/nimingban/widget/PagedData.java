@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Contiguous pages of data. Each page keeps its own list, so adding
+ * a page to either end never moves the items of other pages. Positions
+ * are mapped to pages by binary search.
+ */
+final class PagedData<E> {
+
+    private final ArrayList<Page<E>> mPages = new ArrayList<>();
+
+    /**
+     * The offset of position 0. Offsets of pages are relative to a fixed
+     * origin, prepending a page only moves the origin.
+     */
+    private int mOrigin;
+
+    private int mSize;
+
+    private int mModCount;
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return a number changes when data changes
+     */
+    public int getModCount() {
+        return mModCount;
+    }
+
+    public boolean isEmpty() {
+        return mPages.isEmpty();
+    }
+
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * @return the first page, or 0 if empty
+     */
+    public int getStartPage() {
+        return mPages.isEmpty() ? 0 : mPages.get(0).page;
+    }
+
+    /**
+     * @return the last page + 1, or 0 if empty
+     */
+    public int getEndPage() {
+        return mPages.isEmpty() ? 0 : mPages.get(mPages.size() - 1).page + 1;
+    }
+
+    public boolean containsPage(int page) {
+        return !mPages.isEmpty() && page >= getStartPage() && page < getEndPage();
+    }
+
+    /**
+     * @return the index in mPages of the page containing the position
+     */
+    private int indexOfPosition(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Size is " + mSize + ", position is " + position);
+        }
+
+        int offset = mOrigin + position;
+        int low = 0;
+        int high = mPages.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mPages.get(mid).offset <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException
+     *                if {@code position < 0 || position >= size()}
+     */
+    public E get(int position) {
+        Page<E> page = mPages.get(indexOfPosition(position));
+        return page.data.get(mOrigin + position - page.offset);
+    }
+
+    /**
+     * @return the page of the position, -1 for out of range
+     */
+    public int getPageOfPosition(int position) {
+        if (position < 0 || position >= mSize) {
+            return -1;
+        }
+        return mPages.get(indexOfPosition(position)).page;
+    }
+
+    private Page<E> getPage(int page) {
+        return mPages.get(page - getStartPage());
+    }
+
+    /**
+     * @return the position of the first item of the page
+     */
+    public int getPageStart(int page) {
+        return getPage(page).offset - mOrigin;
+    }
+
+    /**
+     * @return the position of the last item of the page + 1
+     */
+    public int getPageEnd(int page) {
+        Page<E> p = getPage(page);
+        return p.offset - mOrigin + p.data.size();
+    }
+
+    public List<E> getPageData(int page) {
+        return getPage(page).data;
+    }
+
+    public void clear() {
+        mModCount++;
+        mPages.clear();
+        mOrigin = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Clear and set the only page
+     */
+    public void reset(int page, List<E> data) {
+        clear();
+        mPages.add(new Page<>(page, new ArrayList<>(data), 0));
+        mSize = data.size();
+    }
+
+    /**
+     * Add data as the page before the start page
+     */
+    public void prepend(List<E> data) {
+        mModCount++;
+        if (mPages.isEmpty()) {
+            throw new IllegalStateException("Can't prepend to empty");
+        }
+        int offset = mPages.get(0).offset - data.size();
+        mPages.add(0, new Page<>(getStartPage() - 1, new ArrayList<>(data), offset));
+        mOrigin = offset;
+        mSize += data.size();
+    }
+
+    /**
+     * Add data as the end page
+     */
+    public void append(List<E> data) {
+        mModCount++;
+        if (mPages.isEmpty()) {
+            throw new IllegalStateException("Can't append to empty");
+        }
+        int offset = mOrigin + mSize;
+        mPages.add(new Page<>(getEndPage(), new ArrayList<>(data), offset));
+        mSize += data.size();
+    }
+
+    /**
+     * Replace the data of the page, pages after it are moved.
+     */
+    public void replace(int page, List<E> data) {
+        mModCount++;
+        int index = page - getStartPage();
+        Page<E> old = mPages.get(index);
+        int delta = data.size() - old.data.size();
+        mPages.set(index, new Page<>(page, new ArrayList<>(data), old.offset));
+        for (int i = index + 1, n = mPages.size(); i < n; i++) {
+            mPages.get(i).offset += delta;
+        }
+        mSize += delta;
+    }
+
+    /**
+     * @return the data of the removed page
+     */
+    public List<E> removeFirst() {
+        mModCount++;
+        Page<E> page = mPages.remove(0);
+        mSize -= page.data.size();
+        if (!mPages.isEmpty()) {
+            mOrigin = mPages.get(0).offset;
+        } else {
+            mOrigin = 0;
+        }
+        return page.data;
+    }
+
+    /**
+     * @return the data of the removed page
+     */
+    public List<E> removeLast() {
+        mModCount++;
+        Page<E> page = mPages.remove(mPages.size() - 1);
+        mSize -= page.data.size();
+        if (mPages.isEmpty()) {
+            mOrigin = 0;
+        }
+        return page.data;
+    }
+
+    private static class Page<E> {
+
+        public final int page;
+        public final List<E> data;
+        /**
+         * Relative to the origin
+         */
+        public int offset;
+
+        public Page(int page, List<E> data, int offset) {
+            this.page = page;
+            this.data = data;
+            this.offset = offset;
+        }
+    }
+}
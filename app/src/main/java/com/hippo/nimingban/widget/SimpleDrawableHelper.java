@@ -30,6 +30,9 @@ import com.hippo.conaco.DrawableHelper;
 import com.hippo.conaco.DrawableHolder;
 import com.hippo.drawable.TiledBitmapDrawable;
 import com.hippo.nimingban.NMBAppConfig;
+import com.hippo.nimingban.util.DeviceProfile;
+import com.hippo.nimingban.util.FrameStats;
+import com.hippo.nimingban.util.HeapStats;
 import com.hippo.yorozuya.IOUtils;
 import com.hippo.yorozuya.io.InputStreamPipe;
 
@@ -50,9 +53,34 @@ public class SimpleDrawableHelper implements DrawableHelper {
         mBitmapPool = new BitmapPool();
     }
 
+    /**
+     * Get the largest power of 2 sample size which keeps
+     * the image not smaller than target size
+     */
+    private static int getSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth > 0 && targetHeight > 0) {
+            while (width / (sampleSize * 2) >= targetWidth &&
+                    height / (sampleSize * 2) >= targetHeight) {
+                sampleSize *= 2;
+            }
+        }
+        return sampleSize;
+    }
+
     @Nullable
     @Override
     public Drawable decode(@NonNull InputStreamPipe isPipe) {
+        FrameStats.beginSection("SimpleDrawableHelper.decode");
+        try {
+            return decodeInternal(isPipe);
+        } finally {
+            FrameStats.endSection();
+        }
+    }
+
+    @Nullable
+    private Drawable decodeInternal(@NonNull InputStreamPipe isPipe) {
         try {
             final BitmapFactory.Options options = new BitmapFactory.Options();
 
@@ -70,6 +98,11 @@ public class SimpleDrawableHelper implements DrawableHelper {
                 return null;
             }
 
+            ThumbDataContainer.ThumbInputStreamPipe thumbPipe = null;
+            if (isPipe instanceof ThumbDataContainer.ThumbInputStreamPipe) {
+                thumbPipe = (ThumbDataContainer.ThumbInputStreamPipe) isPipe;
+            }
+
             if ("image/gif".equals(options.outMimeType)) {
                 File temp = NMBAppConfig.createTempFile();
                 if (temp == null) {
@@ -81,13 +114,22 @@ public class SimpleDrawableHelper implements DrawableHelper {
                 isPipe.close();
                 isPipe.release();
                 return new TempGifDrawable(temp);
-            } else if (options.outWidth >= 1024 || options.outHeight >= 1024) { // TODO get the threshold runtime
-                return TiledBitmapDrawable.from(
-                        isPipe.open(), options.outWidth, options.outHeight, mBitmapPool);
+            } else if (thumbPipe == null && (options.outWidth >= DeviceProfile.getLargeImageThreshold() ||
+                    options.outHeight >= DeviceProfile.getLargeImageThreshold())) {
+                return TiledBitmapDrawable.from(isPipe.open(), options.outWidth, options.outHeight,
+                        mBitmapPool, DeviceProfile.getTiledBudgetSide());
             } else {
                 options.inJustDecodeBounds = false;
                 options.inMutable = true;
-                options.inSampleSize = 1;
+                if (thumbPipe != null) {
+                    options.inSampleSize = getSampleSize(options.outWidth, options.outHeight,
+                            thumbPipe.targetWidth, thumbPipe.targetHeight);
+                    if (thumbPipe.opaque && "image/jpeg".equals(options.outMimeType)) {
+                        options.inPreferredConfig = Bitmap.Config.RGB_565;
+                    }
+                } else {
+                    options.inSampleSize = 1;
+                }
                 options.inBitmap = mBitmapPool.getInBitmap(options);
 
                 is = isPipe.open();
@@ -96,8 +138,10 @@ public class SimpleDrawableHelper implements DrawableHelper {
                     bitmap = BitmapFactory.decodeStream(is, null, options);
                 } catch (OutOfMemoryError e) {
                     Log.d("TAG", "Out of memory");
+                    HeapStats.recordOutOfMemory();
                 }
                 if (bitmap != null) {
+                    HeapStats.recordDecode();
                     return new BitmapDrawable(mContext.getResources(), bitmap);
                 } else {
                     return null;
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loaded pages which are not shown, they don't need to be next to
+ * each other. The least recently used pages are removed when the
+ * item count is over the max size.
+ */
+final class SparsePageStore<E> {
+
+    private final int mMaxSize;
+    private int mSize;
+
+    private final LinkedHashMap<Integer, List<E>> mPages = new LinkedHashMap<>(16, 0.75f, true);
+
+    public SparsePageStore(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public boolean contains(int page) {
+        return mPages.containsKey(page);
+    }
+
+    /**
+     * @return the data of the page, null for none
+     */
+    public List<E> remove(int page) {
+        List<E> data = mPages.remove(page);
+        if (data != null) {
+            mSize -= data.size();
+        }
+        return data;
+    }
+
+    public void put(int page, List<E> data) {
+        remove(page);
+        mPages.put(page, data);
+        mSize += data.size();
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<Integer, List<E>>> iterator = mPages.entrySet().iterator();
+        // Keep the newest one
+        while (mSize > mMaxSize && mPages.size() > 1 && iterator.hasNext()) {
+            mSize -= iterator.next().getValue().size();
+            iterator.remove();
+        }
+    }
+
+    public void clear() {
+        mPages.clear();
+        mSize = 0;
+    }
+
+    /**
+     * @return the pages in order
+     */
+    public int[] getPages() {
+        int[] pages = new int[mPages.size()];
+        int i = 0;
+        for (Integer page : mPages.keySet()) {
+            pages[i++] = page;
+        }
+        Arrays.sort(pages);
+        return pages;
+    }
+}
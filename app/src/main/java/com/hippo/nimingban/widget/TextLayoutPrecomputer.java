@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.text.Layout;
+import android.text.SpannableStringBuilder;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Build text layouts of rows in background, so binding a row doesn't
+ * measure the text in UI thread. The paint, width and spacing are learnt
+ * from the first {@link TextLayoutView} which builds layout itself, and
+ * layouts are built again when they change. Call it in UI thread.
+ */
+public final class TextLayoutPrecomputer implements TextLayoutView.OnBuildLayoutListener {
+
+    private static final String TAG = TextLayoutPrecomputer.class.getSimpleName();
+
+    private static final int CACHE_SIZE = 200;
+
+    /**
+     * The max tries to make ellipsized text fit max lines
+     */
+    private static final int MAX_ELLIPSIZE_TRIES = 5;
+
+    private static final String ELLIPSIS = "…";
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(TAG) {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            };
+        }
+    });
+
+    private final LruCache<String, Entry> mCache = new LruCache<>(CACHE_SIZE);
+
+    /**
+     * Null before a view builds layout
+     */
+    private volatile Params mParams;
+
+    /**
+     * Items waiting for params
+     */
+    private final List<Item> mPending = new ArrayList<>();
+
+    /**
+     * Build layout like {@link android.widget.TextView} with max lines and end ellipsis
+     */
+    public static Layout buildLayout(CharSequence text, TextPaint paint, int width,
+            float spacingAdd, int maxLines) {
+        Layout layout = new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL,
+                1.0f, spacingAdd, true);
+        if (layout.getLineCount() <= maxLines) {
+            return layout;
+        }
+
+        // Cut at the last line and add ellipsis, cut more if it doesn't fit
+        int end = layout.getLineEnd(maxLines - 1);
+        for (int i = 0; i < MAX_ELLIPSIZE_TRIES && end > 0; i++) {
+            end--;
+            while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+            SpannableStringBuilder ssb = new SpannableStringBuilder(text, 0, end);
+            ssb.append(ELLIPSIS);
+            Layout ellipsized = new StaticLayout(ssb, paint, width, Layout.Alignment.ALIGN_NORMAL,
+                    1.0f, spacingAdd, true);
+            if (ellipsized.getLineCount() <= maxLines) {
+                return ellipsized;
+            }
+        }
+        // The view clips it
+        return layout;
+    }
+
+    /**
+     * Set the text of the view, use the precomputed layout if it fits.
+     *
+     * @param key the key of the text, like id of the data
+     */
+    public void bind(TextLayoutView view, String key, CharSequence text) {
+        view.setOnBuildLayoutListener(this);
+
+        Layout layout = null;
+        Entry entry = mCache.get(key);
+        // The view checks width
+        if (entry != null && entry.text == text && entry.params.matches(view)) {
+            layout = entry.layout;
+        }
+        view.setText(text, layout);
+    }
+
+    @Override
+    public void onBuildLayout(TextLayoutView view, int width) {
+        Params params = Params.of(view, width);
+        if (width > 0 && !params.equals(mParams)) {
+            // Text size, spacing or width changed
+            mParams = params;
+            mCache.evictAll();
+            if (!mPending.isEmpty()) {
+                List<Item> items = new ArrayList<>(mPending);
+                mPending.clear();
+                execute(items);
+            }
+        }
+    }
+
+    /**
+     * Build layouts of the texts in background
+     *
+     * @param keys the keys of the texts
+     */
+    public void precompute(List<String> keys, List<CharSequence> texts) {
+        List<Item> items = new ArrayList<>(keys.size());
+        for (int i = 0, n = keys.size(); i < n; i++) {
+            String key = keys.get(i);
+            CharSequence text = texts.get(i);
+            Entry entry = mCache.get(key);
+            if (entry == null || entry.text != text) {
+                items.add(new Item(key, text));
+            }
+        }
+        if (items.isEmpty()) {
+            return;
+        }
+
+        if (mParams == null) {
+            mPending.addAll(items);
+        } else {
+            execute(items);
+        }
+    }
+
+    private void execute(final List<Item> items) {
+        final Params params = mParams;
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // TextPaint is not thread safe
+                TextPaint paint = new TextPaint(params.paint);
+                for (Item item : items) {
+                    if (params != mParams) {
+                        // Changed, the layouts are useless
+                        return;
+                    }
+                    Layout layout = buildLayout(item.text, paint, params.width,
+                            params.spacingAdd, params.maxLines);
+                    mCache.put(item.key, new Entry(item.text, layout, params));
+                }
+            }
+        });
+    }
+
+    /**
+     * Forget all layouts and pending texts
+     */
+    public void clear() {
+        mCache.evictAll();
+        mPending.clear();
+    }
+
+    private static class Item {
+        public final String key;
+        public final CharSequence text;
+
+        public Item(String key, CharSequence text) {
+            this.key = key;
+            this.text = text;
+        }
+    }
+
+    private static class Entry {
+        public final CharSequence text;
+        public final Layout layout;
+        public final Params params;
+
+        public Entry(CharSequence text, Layout layout, Params params) {
+            this.text = text;
+            this.layout = layout;
+            this.params = params;
+        }
+    }
+
+    private static class Params {
+        public final TextPaint paint;
+        public final int width;
+        public final float spacingAdd;
+        public final int maxLines;
+
+        private Params(TextPaint paint, int width, float spacingAdd, int maxLines) {
+            this.paint = paint;
+            this.width = width;
+            this.spacingAdd = spacingAdd;
+            this.maxLines = maxLines;
+        }
+
+        public static Params of(TextLayoutView view, int width) {
+            return new Params(new TextPaint(view.getPaint()), width,
+                    view.getLineSpacingExtra(), view.getMaxLines());
+        }
+
+        /**
+         * @return true if the params are the same, width is not checked
+         */
+        public boolean matches(TextLayoutView view) {
+            TextPaint p = view.getPaint();
+            return spacingAdd == view.getLineSpacingExtra() && maxLines == view.getMaxLines() &&
+                    paint.getTextSize() == p.getTextSize() && paint.getColor() == p.getColor() &&
+                    paint.linkColor == p.linkColor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Params)) {
+                return false;
+            }
+            Params p = (Params) o;
+            return width == p.width && spacingAdd == p.spacingAdd && maxLines == p.maxLines &&
+                    paint.getTextSize() == p.paint.getTextSize() &&
+                    paint.getColor() == p.paint.getColor() &&
+                    paint.linkColor == p.paint.linkColor;
+        }
+
+        @Override
+        public int hashCode() {
+            return width;
+        }
+    }
+}
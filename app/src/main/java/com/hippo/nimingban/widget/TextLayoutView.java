@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.TextPaint;
+import android.text.style.ClickableSpan;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.hippo.nimingban.R;
+
+/**
+ * A light text view which only draws a {@link Layout}. The layout can be
+ * built in background by {@link TextLayoutPrecomputer}, otherwise it is
+ * built when measuring. Clickable spans are handled like
+ * {@link LinkifyTextView}.
+ */
+public class TextLayoutView extends View {
+
+    private final TextPaint mPaint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+    private float mSpacingAdd;
+    private int mMaxLines = Integer.MAX_VALUE;
+
+    private CharSequence mText = "";
+    private Layout mLayout;
+
+    private ClickableSpan mCurrentSpan;
+
+    private OnBuildLayoutListener mOnBuildLayoutListener;
+
+    public TextLayoutView(Context context) {
+        super(context);
+        init(context, null);
+    }
+
+    public TextLayoutView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context, attrs);
+    }
+
+    public TextLayoutView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context, attrs);
+    }
+
+    private void init(Context context, AttributeSet attrs) {
+        mPaint.density = context.getResources().getDisplayMetrics().density;
+
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.TextLayoutView);
+        mPaint.setTextSize(a.getDimension(R.styleable.TextLayoutView_android_textSize, mPaint.getTextSize()));
+        ColorStateList textColor = a.getColorStateList(R.styleable.TextLayoutView_android_textColor);
+        if (textColor != null) {
+            mPaint.setColor(textColor.getDefaultColor());
+        }
+        ColorStateList linkColor = a.getColorStateList(R.styleable.TextLayoutView_android_textColorLink);
+        if (linkColor != null) {
+            mPaint.linkColor = linkColor.getDefaultColor();
+        }
+        mSpacingAdd = a.getDimension(R.styleable.TextLayoutView_android_lineSpacingExtra, 0.0f);
+        mMaxLines = a.getInt(R.styleable.TextLayoutView_android_maxLines, Integer.MAX_VALUE);
+        a.recycle();
+    }
+
+    public interface OnBuildLayoutListener {
+
+        /**
+         * Called when the view has to build the layout itself
+         */
+        void onBuildLayout(TextLayoutView view, int width);
+    }
+
+    public void setOnBuildLayoutListener(OnBuildLayoutListener listener) {
+        mOnBuildLayoutListener = listener;
+    }
+
+    /**
+     * @return the paint for text, don't modify it
+     */
+    public TextPaint getPaint() {
+        return mPaint;
+    }
+
+    public float getLineSpacingExtra() {
+        return mSpacingAdd;
+    }
+
+    public int getMaxLines() {
+        return mMaxLines;
+    }
+
+    /**
+     * Set the text size in sp, like {@link android.widget.TextView#setTextSize(float)}
+     */
+    public void setTextSize(float size) {
+        float px = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, size,
+                getResources().getDisplayMetrics());
+        if (px != mPaint.getTextSize()) {
+            mPaint.setTextSize(px);
+            mLayout = null;
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    /**
+     * Only extra spacing is supported
+     */
+    public void setLineSpacing(float add) {
+        if (add != mSpacingAdd) {
+            mSpacingAdd = add;
+            mLayout = null;
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    public CharSequence getText() {
+        return mText;
+    }
+
+    public void setText(CharSequence text) {
+        setText(text, null);
+    }
+
+    /**
+     * @param layout the layout built for the text, null to build it when measuring
+     */
+    public void setText(CharSequence text, @Nullable Layout layout) {
+        mText = text == null ? "" : text;
+        mLayout = layout;
+        mCurrentSpan = null;
+        requestLayout();
+        invalidate();
+    }
+
+    @Nullable
+    public Layout getLayout() {
+        return mLayout;
+    }
+
+    public ClickableSpan getCurrentSpan() {
+        return mCurrentSpan;
+    }
+
+    public void clearCurrentSpan() {
+        mCurrentSpan = null;
+    }
+
+    private int getLayoutHeight() {
+        int lineCount = Math.min(mLayout.getLineCount(), mMaxLines);
+        return lineCount > 0 ? mLayout.getLineBottom(lineCount - 1) : 0;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        if (widthMode == MeasureSpec.UNSPECIFIED) {
+            width = getResources().getDisplayMetrics().widthPixels;
+        }
+        int textWidth = Math.max(0, width - getPaddingLeft() - getPaddingRight());
+
+        if (mLayout == null || mLayout.getWidth() != textWidth) {
+            mLayout = TextLayoutPrecomputer.buildLayout(mText, mPaint, textWidth, mSpacingAdd, mMaxLines);
+            if (mOnBuildLayoutListener != null) {
+                mOnBuildLayoutListener.onBuildLayout(this, textWidth);
+            }
+        }
+
+        int height = getLayoutHeight() + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mLayout == null) {
+            return;
+        }
+
+        int saved = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.clipRect(0, 0, mLayout.getWidth(), getLayoutHeight());
+        mLayout.draw(canvas);
+        canvas.restoreToCount(saved);
+    }
+
+    @Override
+    public boolean onTouchEvent(@NonNull MotionEvent event) {
+        // Only find the span, let the parent handle click. See LinkifyTextView.
+        if (event.getAction() == MotionEvent.ACTION_DOWN) {
+            mCurrentSpan = null;
+
+            if (mLayout != null && mText instanceof Spanned) {
+                int x = (int) event.getX() - getPaddingLeft();
+                int y = (int) event.getY() - getPaddingTop();
+
+                int line = mLayout.getLineForVertical(y);
+                int off = mLayout.getOffsetForHorizontal(line, x);
+
+                ClickableSpan[] spans = ((Spanned) mText).getSpans(off, off, ClickableSpan.class);
+                if (spans.length > 0) {
+                    mCurrentSpan = spans[0];
+                }
+            }
+        }
+
+        return super.onTouchEvent(event);
+    }
+}
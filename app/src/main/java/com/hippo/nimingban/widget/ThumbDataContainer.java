@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.hippo.conaco.DataContainer;
+import com.hippo.conaco.ProgressNotify;
+import com.hippo.io.FileInputStreamPipe;
+import com.hippo.nimingban.network.NetworkQualityEstimator;
+import com.hippo.yorozuya.io.InputStreamPipe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Store thumbnail in {@link ImageDiskCache} by url, and tell
+ * {@link SimpleDrawableHelper} the size it will be shown in.
+ * If {@link AshmemThumbStore} is given, it is read first.
+ */
+public class ThumbDataContainer implements DataContainer {
+
+    private final ImageDiskCache mCache;
+    @Nullable
+    private final AshmemThumbStore mStore;
+    private final String mUrl;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final boolean mOpaque;
+
+    public ThumbDataContainer(@NonNull ImageDiskCache cache, @Nullable AshmemThumbStore store,
+            @NonNull String url, int targetWidth, int targetHeight, boolean opaque) {
+        mCache = cache;
+        mStore = store;
+        mUrl = url;
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+        mOpaque = opaque;
+    }
+
+    @Override
+    public boolean save(InputStream is, ProgressNotify notify) {
+        long start = SystemClock.elapsedRealtime();
+        if (!mCache.put(mUrl, is)) {
+            return false;
+        }
+        long time = SystemClock.elapsedRealtime() - start;
+        File file = mCache.get(mUrl);
+        if (file != null) {
+            NetworkQualityEstimator.getInstance().onTransfer(file.length(), time);
+            if (mStore != null) {
+                mStore.put(mUrl, file);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public InputStreamPipe get() {
+        if (mStore != null) {
+            InputStreamPipe pipe = mStore.get(mUrl);
+            if (pipe != null) {
+                return new ThumbInputStreamPipe(pipe, mTargetWidth, mTargetHeight, mOpaque);
+            }
+        }
+
+        File file = mCache.get(mUrl);
+        if (file == null) {
+            return null;
+        } else {
+            if (mStore != null) {
+                mStore.put(mUrl, file);
+            }
+            return new ThumbInputStreamPipe(new FileInputStreamPipe(file),
+                    mTargetWidth, mTargetHeight, mOpaque);
+        }
+    }
+
+    @Override
+    public void remove() {
+        if (mStore != null) {
+            mStore.remove(mUrl);
+        }
+        mCache.remove(mUrl);
+    }
+
+    /**
+     * A {@link InputStreamPipe} carries decode hints
+     */
+    public static class ThumbInputStreamPipe implements InputStreamPipe {
+
+        private final InputStreamPipe mPipe;
+
+        public final int targetWidth;
+        public final int targetHeight;
+        public final boolean opaque;
+
+        public ThumbInputStreamPipe(InputStreamPipe pipe, int targetWidth, int targetHeight, boolean opaque) {
+            mPipe = pipe;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            this.opaque = opaque;
+        }
+
+        @Override
+        public void obtain() {
+            mPipe.obtain();
+        }
+
+        @Override
+        public void release() {
+            mPipe.release();
+        }
+
+        @NonNull
+        @Override
+        public InputStream open() throws IOException {
+            return mPipe.open();
+        }
+
+        @Override
+        public void close() {
+            mPipe.close();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import com.hippo.httpclient.HttpClient;
+import com.hippo.httpclient.HttpRequest;
+import com.hippo.httpclient.HttpResponse;
+import com.hippo.nimingban.NMBAppConfig;
+import com.hippo.nimingban.NMBApplication;
+import com.hippo.nimingban.client.ac.ACHostSelector;
+import com.hippo.nimingban.client.data.Reply;
+import com.hippo.nimingban.network.NetworkQualityEstimator;
+import com.hippo.nimingban.util.DeviceProfile;
+import com.hippo.util.LayoutManagerUtils;
+import com.hippo.yorozuya.MathUtils;
+import com.hippo.yorozuya.PriorityThreadFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Download thumbnails of the items which will be shown soon to
+ * {@link ImageDiskCache}, according to scroll direction and velocity.
+ */
+public class ThumbPrefetcher extends RecyclerView.OnScrollListener {
+
+    private static final String TAG = ThumbPrefetcher.class.getSimpleName();
+
+    private static final int MIN_AHEAD = 3;
+
+    /**
+     * How long will be looked ahead with current velocity
+     */
+    private static final long LOOK_AHEAD_TIME = 1000;
+
+    private static ThreadPoolExecutor sExecutor;
+
+    private final Context mContext;
+    private final RecyclerView mRecyclerView;
+    private final ContentLayout.ContentHelper<? extends Reply> mHelper;
+    private final HttpClient mHttpClient;
+    private final ImageDiskCache mCache;
+
+    private final int mMaxAhead;
+    private final long mByteBudget;
+
+    /**
+     * Bytes of the thumbnails which are prefetched but not shown
+     */
+    private final AtomicLong mUsedBytes = new AtomicLong();
+
+    /**
+     * Position to task
+     */
+    private final SparseArray<Task> mTasks = new SparseArray<>();
+
+    private long mLastScrollTime;
+    // pixel per millisecond
+    private float mVelocity;
+
+    public ThumbPrefetcher(@NonNull Context context, @NonNull RecyclerView recyclerView,
+            @NonNull ContentLayout.ContentHelper<? extends Reply> helper) {
+        mContext = context.getApplicationContext();
+        mRecyclerView = recyclerView;
+        mHelper = helper;
+        mHttpClient = NMBApplication.getNMBHttpClient(context);
+        mCache = NMBApplication.getThumbDiskCache(context);
+        mMaxAhead = DeviceProfile.getThumbPrefetchMaxAhead();
+        mByteBudget = DeviceProfile.getThumbPrefetchByteBudget();
+
+        recyclerView.addOnScrollListener(this);
+    }
+
+    private static ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            int poolSize = 2;
+            BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>();
+            ThreadFactory threadFactory = new PriorityThreadFactory(TAG,
+                    android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            sExecutor = new ThreadPoolExecutor(poolSize, poolSize,
+                    1L, TimeUnit.SECONDS, workQueue, threadFactory);
+        }
+        return sExecutor;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        long now = SystemClock.uptimeMillis();
+        long interval = now - mLastScrollTime;
+        mLastScrollTime = now;
+        if (interval > 0 && interval < 200) {
+            // Smooth it
+            mVelocity = mVelocity * 0.5f + ((float) dy / interval) * 0.5f;
+        } else {
+            mVelocity = 0.0f;
+        }
+
+        if (dy != 0) {
+            update(dy > 0);
+        }
+    }
+
+    private int getAverageItemHeight() {
+        int count = mRecyclerView.getChildCount();
+        if (count == 0) {
+            return 0;
+        }
+        int height = 0;
+        for (int i = 0; i < count; i++) {
+            height += mRecyclerView.getChildAt(i).getHeight();
+        }
+        return height / count;
+    }
+
+    private void update(boolean down) {
+        RecyclerView.LayoutManager layoutManager = mRecyclerView.getLayoutManager();
+        int first = LayoutManagerUtils.getFirstVisibleItemPostion(layoutManager);
+        int last = LayoutManagerUtils.getLastVisibleItemPostion(layoutManager);
+        if (first < 0 || last < 0) {
+            return;
+        }
+
+        // Cancel the tasks scrolled past, release the ones shown
+        for (int i = mTasks.size() - 1; i >= 0; i--) {
+            int position = mTasks.keyAt(i);
+            if (position <= last && position >= first) {
+                mTasks.valueAt(i).release();
+                mTasks.removeAt(i);
+            } else if (down ? position < first : position > last) {
+                Task task = mTasks.valueAt(i);
+                task.cancel();
+                task.release();
+                mTasks.removeAt(i);
+            }
+        }
+
+        if (!NMBAppConfig.needloadImage(mContext)) {
+            return;
+        }
+
+        int ahead = MIN_AHEAD;
+        int itemHeight = getAverageItemHeight();
+        if (itemHeight > 0) {
+            ahead += (int) (Math.abs(mVelocity) * LOOK_AHEAD_TIME / itemHeight);
+        }
+        ahead = MathUtils.clamp(ahead, MIN_AHEAD, mMaxAhead);
+
+        int size = mHelper.size();
+        for (int i = 1; i <= ahead; i++) {
+            if (mUsedBytes.get() >= mByteBudget) {
+                break;
+            }
+
+            int position = down ? last + i : first - i;
+            if (position < 0 || position >= size) {
+                break;
+            }
+            if (mTasks.get(position) != null) {
+                continue;
+            }
+
+            String url = mHelper.getDataAt(position).getNMBThumbUrl();
+            if (TextUtils.isEmpty(url) || mCache.contains(url)) {
+                continue;
+            }
+
+            Task task = new Task(url);
+            mTasks.put(position, task);
+            getExecutor().execute(task);
+        }
+    }
+
+    /**
+     * Cancel all tasks, call it when data changed
+     */
+    public void reset() {
+        for (int i = 0, n = mTasks.size(); i < n; i++) {
+            Task task = mTasks.valueAt(i);
+            task.cancel();
+            task.release();
+        }
+        mTasks.clear();
+    }
+
+    public void destroy() {
+        reset();
+        mRecyclerView.removeOnScrollListener(this);
+    }
+
+    private class Task implements Runnable {
+
+        private final String mUrl;
+        private final HttpRequest mHttpRequest = new HttpRequest();
+
+        private volatile boolean mCancelled;
+        private long mBytes;
+        /**
+         * Bytes read from network, released or not
+         */
+        private long mTransferred;
+        private boolean mReleased;
+
+        public Task(String url) {
+            mUrl = url;
+        }
+
+        public void cancel() {
+            mCancelled = true;
+            mHttpRequest.cancel();
+        }
+
+        /**
+         * Give back the bytes to budget
+         */
+        public synchronized void release() {
+            if (!mReleased) {
+                mReleased = true;
+                mUsedBytes.addAndGet(-mBytes);
+            }
+        }
+
+        private synchronized void consume(int bytes) {
+            mTransferred += bytes;
+            if (!mReleased) {
+                mBytes += bytes;
+                mUsedBytes.addAndGet(bytes);
+            }
+        }
+
+        @Override
+        public void run() {
+            // The budget of metered data may be used up after it is queued
+            if (mCancelled || mCache.contains(mUrl) ||
+                    NetworkQualityEstimator.getInstance().isOverBudget()) {
+                return;
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            try {
+                mHttpRequest.setUrl(ACHostSelector.getInstance().route(mUrl));
+                HttpResponse response = mHttpClient.execute(mHttpRequest);
+                if (response.getResponseCode() >= 400) {
+                    return;
+                }
+                start = SystemClock.elapsedRealtime();
+                mCache.put(mUrl, new BudgetInputStream(response.getInputStream()));
+            } catch (Exception e) {
+                // Ignore
+            } finally {
+                mHttpRequest.disconnect();
+                // Count it like images got by Conaco
+                long transferred;
+                synchronized (this) {
+                    transferred = mTransferred;
+                }
+                NetworkQualityEstimator.getInstance().onTransfer(transferred,
+                        SystemClock.elapsedRealtime() - start);
+            }
+        }
+
+        /**
+         * Stop reading when cancelled or out of budget
+         */
+        private class BudgetInputStream extends FilterInputStream {
+
+            public BudgetInputStream(InputStream in) {
+                super(in);
+            }
+
+            private void check(int read) throws IOException {
+                if (read > 0) {
+                    consume(read);
+                }
+                if (mCancelled) {
+                    throw new IOException("Cancelled");
+                }
+                if (mUsedBytes.get() > mByteBudget) {
+                    throw new IOException("Out of budget");
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                check(b >= 0 ? 1 : 0);
+                return b;
+            }
+
+            @Override
+            public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+                int read = super.read(buffer, offset, count);
+                check(read);
+                return read;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.nimingban.widget;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Inflate row views in background, then put view holders of them
+ * to the {@link RecyclerView.RecycledViewPool} of the RecyclerView.
+ * RecyclerView takes holders from the pool before creating, so the
+ * first layout doesn't inflate rows. The views are inflated with the
+ * theme of the RecyclerView, so the pool is not shared across activities.
+ * The inflater of activity has the view factory of AppCompat, which is
+ * not thread safe, so an inflater without factory is used. Rows from it
+ * are plain views, not the AppCompat ones.
+ */
+public final class ViewPreinflater {
+
+    private static final String TAG = ViewPreinflater.class.getSimpleName();
+
+    private static final ViewPreinflater sInstance = new ViewPreinflater();
+
+    private final Handler mHandler;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    public static ViewPreinflater getInstance() {
+        return sInstance;
+    }
+
+    private ViewPreinflater() {
+        // Some views create handler, so a looper is required
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * The adapter which can create view holder with a given view
+     */
+    public interface Adapter {
+
+        /**
+         * @param view the view to use in {@link RecyclerView.Adapter#onCreateViewHolder},
+         *             null to inflate one
+         */
+        void setPreinflatedView(View view);
+    }
+
+    /**
+     * Inflate views and put them to the pool of the RecyclerView.
+     * The adapter of the RecyclerView must implement {@link Adapter}.
+     * Call it in UI thread.
+     *
+     * @param viewType the view type of the views
+     */
+    public void preinflate(final RecyclerView recyclerView, final int layoutResId,
+            final int viewType, final int count) {
+        // The inflater of application context has no factory
+        Context context = recyclerView.getContext();
+        ContextThemeWrapper themedContext = new ContextThemeWrapper(context.getApplicationContext(), 0);
+        themedContext.getTheme().setTo(context.getTheme());
+        final LayoutInflater inflater = LayoutInflater.from(themedContext);
+        recyclerView.getRecycledViewPool().setMaxRecycledViews(viewType, count);
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Queue<View> views = new ArrayDeque<>(count);
+                try {
+                    for (int i = 0; i < count; i++) {
+                        views.add(inflater.inflate(layoutResId, recyclerView, false));
+                    }
+                } catch (Exception e) {
+                    // The views are inflated in UI thread then
+                    Log.w(TAG, "Can't inflate in background", e);
+                }
+                if (views.isEmpty()) {
+                    return;
+                }
+
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        putToPool(recyclerView, viewType, views);
+                    }
+                });
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void putToPool(RecyclerView recyclerView, int viewType, Queue<View> views) {
+        RecyclerView.Adapter adapter = recyclerView.getAdapter();
+        if (!(adapter instanceof Adapter)) {
+            return;
+        }
+
+        Adapter preinflatedAdapter = (Adapter) adapter;
+        RecyclerView.RecycledViewPool pool = recyclerView.getRecycledViewPool();
+        for (View view : views) {
+            preinflatedAdapter.setPreinflatedView(view);
+            // It sets the view type of the holder
+            RecyclerView.ViewHolder holder = adapter.createViewHolder(recyclerView, viewType);
+            pool.putRecycledView(holder);
+        }
+        preinflatedAdapter.setPreinflatedView(null);
+    }
+}
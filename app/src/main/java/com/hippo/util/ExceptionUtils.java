@@ -24,6 +24,7 @@ import android.support.annotation.Nullable;
 import com.hippo.httpclient.ResponseCodeException;
 import com.hippo.nimingban.R;
 import com.hippo.nimingban.client.NMBException;
+import com.hippo.nimingban.network.CircuitOpenException;
 import com.hippo.yorozuya.Say;
 
 import org.apache.http.conn.ConnectTimeoutException;
@@ -55,6 +56,8 @@ public final class ExceptionUtils {
             return context.getString(R.string.em_redirection);
         } else if (e instanceof SocketException) {
             return context.getString(R.string.em_socket);
+        } else if (e instanceof CircuitOpenException) {
+            return context.getString(R.string.em_circuit_open);
         } else if (e instanceof NMBException) {
             return e.getMessage();
         } else {